@@ -1,12 +1,11 @@
 package template;
 
-import java.util.AbstractSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import logist.plan.Action;
+import logist.task.PersistentTaskSet;
 import logist.task.Task;
 import logist.task.TaskSet;
 import logist.topology.Topology.City;
@@ -39,11 +38,11 @@ public class State implements Comparable<State> {
     /**
      * Tasks that are ready to be taken.
      */
-    private AbstractSet<Task> ready;
+    private PersistentTaskSet ready;
     /**
      * Tasks that where picked up by the agent.
      */
-    private AbstractSet<Task> loaded;
+    private PersistentTaskSet loaded;
     /**
      * Value of the loaded tasks.
      */
@@ -84,8 +83,8 @@ public class State implements Comparable<State> {
         this(storageCapacity, costPerKm);
         position = currentCity;
         distance = 0;
-        ready = new CopyOnWriteArraySet<Task>(readyTasks);
-        loaded = new CopyOnWriteArraySet<Task>(loadedTasks);
+        ready = PersistentTaskSet.copyOf(readyTasks);
+        loaded = PersistentTaskSet.copyOf(loadedTasks);
         seed = null;
         parent = null;
         comparator = g;
@@ -114,11 +113,7 @@ public class State implements Comparable<State> {
     }
 
     public int capacityLeft() {
-        int left = capacity;
-        for(Task t : loaded) {
-            left -= t.weight;
-        }
-        return left;
+        return capacity - loaded.weightSum();
     }
 
     /**
@@ -199,16 +194,14 @@ public class State implements Comparable<State> {
      */
     private List<Step> steps() {
         List<Step> q = new LinkedList<Step>();
-        for (Task task : loaded) {
-            if (task.deliveryCity.equals(position)) {
-                q.add(new Step(task, Step.Actions.DELIVERY));
-            }
+        for (Task task : loaded.deliveriesAt(position)) {
+            q.add(new Step(task, Step.Actions.DELIVERY));
         }
         if (!q.isEmpty()) {
             return q;
         }
-        for (Task task : ready) {
-            if (task.pickupCity.equals(position) && task.weight <= capacityLeft()) {
+        for (Task task : ready.pickupsAt(position)) {
+            if (task.weight <= capacityLeft()) {
                 q.add(new Step(task, Step.Actions.PICKUP));
             }
         }
@@ -241,16 +234,12 @@ public class State implements Comparable<State> {
                 s.position = step.destination;
                 break;
             case PICKUP:
-                // clone only when required
-                s.ready = new CopyOnWriteArraySet<Task>(s.ready);
-                s.loaded = new CopyOnWriteArraySet<Task>(s.loaded);
-                s.ready.remove(step.task);
-                s.loaded.add(step.task);
+                s.ready = s.ready.without(step.task);
+                s.loaded = s.loaded.with(step.task);
                 s.loadedValue += step.task.reward;
                 break;
             case DELIVERY:
-                s.loaded = new CopyOnWriteArraySet<Task>(s.loaded);
-                s.loaded.remove(step.task);
+                s.loaded = s.loaded.without(step.task);
                 s.loadedValue -= step.task.reward;
                 s.deliveredValue += step.task.reward;
                 break;
@@ -328,6 +317,12 @@ public class State implements Comparable<State> {
         return true;
     }
 
+    @Override
+    public int hashCode() {
+        long h = ready.zobristHash() * 31 + loaded.zobristHash();
+        return (int) (h ^ (h >>> 32)) * 31 + position.hashCode();
+    }
+
     public int compareTo(State o) {
         return comparator.compare(this, o);
     }
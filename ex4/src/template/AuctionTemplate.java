@@ -98,6 +98,16 @@ public class AuctionTemplate implements AuctionBehavior {
         City current = vehicle.getCurrentCity();
         Plan plan = new Plan(current);
 
+        // when planning again during the round, first deliver the tasks
+        // that the vehicle carries
+        for (Task task : vehicle.getCurrentTasks()) {
+            for (City city : current.pathTo(task.deliveryCity))
+                plan.appendMove(city);
+
+            plan.appendDelivery(task);
+            current = task.deliveryCity;
+        }
+
         for (Task task : tasks) {
             // move: current city => pickup location
             for (City city : current.pathTo(task.pickupCity))
@@ -0,0 +1,159 @@
+package logist;
+
+import java.io.File;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import logist.LogistSettings.FileKey;
+import logist.LogistSettings.FlagKey;
+import logist.agent.AgentStatistics;
+import logist.config.ParserException;
+import logist.config.Parsers;
+import logist.simulation.Manager;
+
+/**
+ * Runs many simulations concurrently in the same JVM and collects the
+ * statistics of their agents in memory.
+ * <p>
+ * Each configuration file is parsed once up front. All runs of the same file
+ * share its topology and the tables of its task distribution, and only draw
+ * their tasks from a generator seeded with the seed of the job. The runs are
+ * headless and their histories are discarded.
+ * <p>
+ * Each run loads the behavior classes of its agents with a class loader of
+ * its own, so static fields of a behavior are not shared between runs.
+ *
+ * <pre>
+ * List&lt;Batch.Job&gt; jobs = new ArrayList&lt;Batch.Job&gt;();
+ * for (long seed = 0; seed &lt; 1000; seed++)
+ *     jobs.add(new Batch.Job("config/auction.xml", seed, "a", "b"));
+ * List&lt;List&lt;AgentStatistics&gt;&gt; results;
+ * results = new Batch(8, null).run(jobs);
+ * </pre>
+ */
+public class Batch {
+
+    private static final Logger LOG = Logger.getLogger(Batch.class
+            .getName());
+
+    /**
+     * A simulation of a configuration with a seed and a list of agents.
+     */
+    public static class Job {
+        final String configFile;
+        final long seed;
+        final String[] agents;
+
+        public Job(String configFile, long seed, String... agents) {
+            this.configFile = configFile;
+            this.seed = seed;
+            this.agents = agents.clone();
+        }
+
+        @Override
+        public String toString() {
+            return configFile + " #" + seed;
+        }
+    }
+
+    private final int parallelism;
+    private final String agentsFile;
+
+    /**
+     * @param parallelism
+     *            the maximal number of simulations that run at the same time
+     * @param agentsFile
+     *            the file of agent definitions, or <tt>null</tt> to use the
+     *            agents of each configuration
+     */
+    public Batch(int parallelism, String agentsFile) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Invalid parallelism "
+                    + parallelism);
+        this.parallelism = parallelism;
+        this.agentsFile = agentsFile;
+    }
+
+    /**
+     * Runs the jobs and returns the statistics of each job, ordered by rank,
+     * in the order of the jobs. A job that fails is logged and its statistics
+     * are <tt>null</tt>.
+     *
+     * @throws ParserException
+     *             if a configuration file cannot be parsed
+     */
+    public List<List<AgentStatistics>> run(List<Job> jobs)
+            throws ParserException {
+
+        // parse each configuration once
+        final Map<String, Manager> shared = new HashMap<String, Manager>();
+        for (Job job : jobs)
+            if (!shared.containsKey(job.configFile))
+                shared.put(job.configFile, Parsers.parseConfiguration(
+                        job.configFile, agentsFile, new String[0]));
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<List<AgentStatistics>>> futures;
+            futures = new ArrayList<Future<List<AgentStatistics>>>();
+            for (final Job job : jobs)
+                futures.add(pool.submit(new Callable<List<AgentStatistics>>() {
+                    @Override
+                    public List<AgentStatistics> call() throws Exception {
+                        return run(job, shared.get(job.configFile));
+                    }
+                }));
+
+            List<List<AgentStatistics>> results;
+            results = new ArrayList<List<AgentStatistics>>(jobs.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException eEx) {
+                    LOG.warning("Job " + jobs.get(i) + " failed: "
+                            + eEx.getCause());
+                    results.add(null);
+                } catch (InterruptedException iEx) {
+                    throw new LogistException("Batch was interrupted", iEx);
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<AgentStatistics> run(Job job, Manager shared)
+            throws ParserException {
+        Manager sim = Parsers.parseConfiguration(job.configFile, agentsFile,
+                job.agents, shared, job.seed);
+
+        LogistSettings settings = sim.getSettings();
+        settings.set(FileKey.CONFIGURATION, new File(job.configFile));
+        settings.set(FlagKey.SHOW_UI, false);
+
+        sim.run(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return sim.getStatistics();
+    }
+}
@@ -12,8 +12,9 @@ import logist.LogistSettings.FileKey;
 import logist.agent.AgentStatistics;
 import logist.config.ParserException;
 import logist.config.Parsers;
+import logist.history.HistoryFiles;
 import logist.simulation.Manager;
-import logist.topology.Topology;
+import logist.simulation.Replay;
 
 /**
  * The entry point of the LogistPlatform.
@@ -24,13 +25,19 @@ import logist.topology.Topology;
  * the class and the class-path of its behavior class.
  * <p>
  * An output file for the history can be specified by the <tt>-o</tt> option.
+ * The history is written in the binary format of {@link HistoryFiles} if the
+ * name of the file ends with <tt>.bin</tt>.
  *
  * <pre>
  * Usage:
  *   create tournament
  *     java -jar logist.jar -new 'tournament_name' ['agent_directory']
  *   run tournament
- *     java -jar logist.jar -run 'tournament_name' ['template (directory or file)']
+ *     java -jar logist.jar -run 'tournament_name' ['template (directory or file)'] ['history_extension (.xml, .xml.gz, .bin or .bin.gz)']
+ *   replay game
+ *     java -jar logist.jar -replay 'history_file.xml' ['agents_file.xml']
+ *   convert history
+ *     java -jar logist.jar -convert 'history_file' 'output_file (.xml or .bin, and .gz to compress)'
  *   simulate game
  *     java -jar logist.jar [-o 'history_file.xml] [-a 'agents_file.xml] 'template_file' agent1 [agent2] [...]
  * </pre>
@@ -39,8 +46,6 @@ import logist.topology.Topology;
  */
 public class LogistPlatform {
 
-    private static LogistSettings settings;
-    private static Topology topology;
     private static Logger LOG = Logger.getLogger(LogistPlatform.class.getName());
 
     /**
@@ -65,8 +70,9 @@ public class LogistPlatform {
         // run tournament
         else if (command.equals("-run")) {
             String templatesDir = (2 < args.length) ? args[2] : "templates";
+            String extension = (3 < args.length) ? args[3] : ".xml";
             runTournament(new File("tournament", args[1]), new File(
-                    templatesDir));
+                    templatesDir), extension);
             return;
         }
         // tournament scores
@@ -75,6 +81,21 @@ public class LogistPlatform {
             scoreTournament(new File("tournament", args[1]), resultFilename);
             return;
         }
+        // replay game
+        else if (command.equals("-replay")) {
+            String agentsFile = (2 < args.length) ? args[2] : null;
+            replayHistory(new File(args[1]), agentsFile);
+            return;
+        }
+        // convert history
+        else if (command.equals("-convert")) {
+            if (args.length < 3) {
+                usage();
+                System.exit(-1);
+            }
+            convertHistory(new File(args[1]), new File(args[2]));
+            return;
+        }
         // bad command
 //		else if (command.startsWith("-")) {
 //			System.err.println("Unrecognized command: " + command);
@@ -112,6 +133,7 @@ public class LogistPlatform {
             System.exit(-1);
         }
 
+        LogistSettings settings = null;
         try {
 //			System.out.println("Reading configuration " + args[ptr]);
 //			System.out.println("Local path : " + new File(".").getAbsolutePath());
@@ -120,7 +142,6 @@ public class LogistPlatform {
             Manager sim = Parsers.parseConfiguration(args[ptr], agentsFile,
                     names);
 
-            topology = sim.getTopology();
             settings = sim.getSettings();
             settings.set(FileKey.CONFIGURATION, new File(args[ptr]));
 
@@ -172,7 +193,8 @@ public class LogistPlatform {
         JarFinder.createTournamentFile(tournamentFile, jarsDir);
     }
 
-    private static void runTournament(File tournamentDir, File template) {
+    private static void runTournament(File tournamentDir, File template,
+            String historyExtension) {
 
         File agentsFile = new File(tournamentDir, "agents.xml");
         if (!agentsFile.exists()) {
@@ -191,7 +213,8 @@ public class LogistPlatform {
             System.out.println("Tournament directory : " + tournamentDir);
             System.out.println("Configuration file   : " + template);
 
-            Tournament tournament = new Tournament(tournamentDir);
+            Tournament tournament = new Tournament(tournamentDir,
+                    historyExtension);
             tournament.play(template);
 
         } catch (ParserException pEx) {
@@ -225,6 +248,43 @@ public class LogistPlatform {
         }
     }
 
+    private static void replayHistory(File historyFile, String agentsFile) {
+
+        try {
+            Replay replay = new Replay(agentsFile, true);
+            if (replay.run(historyFile)) {
+                for (AgentStatistics stat : replay.getStatistics())
+                    LOG.info(stat.name() + " + " + stat.getTotalTasks()
+                            + ": € " + stat.getTotalProfit());
+                System.out.println("Replayed " + historyFile);
+            } else {
+                System.out.println("Diverged: " + replay.getDivergence());
+                System.exit(1);
+            }
+        } catch (ParserException pEx) {
+            pEx.printStackTrace();
+            System.exit(-2);
+        } catch (LogistException lEx) {
+            // a history that cannot be replayed, not a bug
+            System.err.println("Cannot replay: " + lEx.getMessage());
+            System.exit(-3);
+        }
+    }
+
+    private static void convertHistory(File from, File to) {
+
+        try {
+            HistoryFiles.convert(from, to);
+            System.out.println("Converted " + from + " to " + to);
+        } catch (IOException ioEx) {
+            ioEx.printStackTrace();
+            System.exit(-1);
+        } catch (LogistException lEx) {
+            lEx.printStackTrace();
+            System.exit(-3);
+        }
+    }
+
     private static final String RUN_LOGIST = "    java -jar logist.jar";
 
     private static void usage() {
@@ -237,24 +297,26 @@ public class LogistPlatform {
         System.out.println("  run tournament");
         System.out.print(RUN_LOGIST);
         System.out.println(" -run 'tournament_name' "
-                + "['template (directory or file)']");
+                + "['template (directory or file)'] "
+                + "['history_extension (.xml, .xml.gz, .bin or .bin.gz)']");
 
         System.out.println("  collect tournament score");
         System.out.print(RUN_LOGIST);
         System.out.println(" -score 'tournament_name' "
                 + "['results (output) file']");
 
+        System.out.println("  replay game");
+        System.out.print(RUN_LOGIST);
+        System.out.println(" -replay 'history_file.xml' ['agents_file.xml']");
+
+        System.out.println("  convert history");
+        System.out.print(RUN_LOGIST);
+        System.out.println(" -convert 'history_file' "
+                + "'output_file (.xml or .bin, and .gz to compress)'");
+
         System.out.println("  simulate game");
         System.out.print(RUN_LOGIST);
         System.out.println(" [-o 'history_file.xml] [-a 'agents_file.xml] 'template_file' "
                 + "agent1 [agent2] [...]");
     }
-
-    public static Topology getTopology() {
-        return topology;
-    }
-
-    public static LogistSettings getSettings() {
-        return settings;
-    }
 }
@@ -20,7 +20,8 @@ public class LogistSettings {
 
     /** A size stored as <tt>int</tt>. */
     public enum SizeKey {
-        WORLD_WIDTH, WORLD_HEIGHT, CITY_RADIUS, ROUTE_WIDTH, NUMBER_OF_TASKS, NUMBER_OF_AGENTS
+        WORLD_WIDTH, WORLD_HEIGHT, CITY_RADIUS, ROUTE_WIDTH, NUMBER_OF_TASKS, NUMBER_OF_AGENTS, NUMBER_OF_ROUNDS,
+        NUMBER_OF_ARRIVALS, COMPRESSION_LEVEL
     }
     /** A color stored as <tt>{@link java.awt.Color}</tt>. */
     public enum ColorKey {
@@ -33,11 +34,25 @@ public class LogistSettings {
     }
     /** A flag stored as <tt>boolean</tt>. */
     public enum FlagKey {
-        SHOW_UI, SHOW_TASKS
+        SHOW_UI, SHOW_TASKS, CONCURRENT_BIDS
     }
     /** A file path stored as <tt>java.io.File</tt>. */
     public enum FileKey {
-        CONFIGURATION, HISTORY
+        CONFIGURATION, HISTORY, TOPOLOGY_CACHE
+    }
+    /** A level of detail stored as <tt>{@link Detail}</tt>. */
+    public enum DetailKey {
+        HISTORY
+    }
+
+    /** How much of a simulation is recorded, each level includes the last. */
+    public enum Detail {
+        /** The agents, their vehicles and the final statistics */
+        STATISTICS,
+        /** The rounds with their tasks and bids too */
+        AUCTIONS,
+        /** The events of the vehicles too */
+        EVENTS
     }
 
     private static <K extends Enum<K>, V> Map<K, V> newmap(Class<K> key) {
@@ -49,6 +64,7 @@ public class LogistSettings {
     private final Map<TimeoutKey, Long> timeouts = newmap(TimeoutKey.class);
     private final Map<FileKey, File> files = newmap(FileKey.class);
     private final Map<FlagKey, Boolean> flags = newmap(FlagKey.class);
+    private final Map<DetailKey, Detail> details = newmap(DetailKey.class);
 
     /* Getters */
     
@@ -74,6 +90,10 @@ public class LogistSettings {
         return flags.get(key);
     }
 
+    public Detail get(DetailKey key) {
+        return details.get(key);
+    }
+
     /* Setters */
     
     public void set(SizeKey key, int value) {
@@ -96,6 +116,10 @@ public class LogistSettings {
         flags.put(key, value);
     }
 
+    public void set(DetailKey key, Detail value) {
+        details.put(key, value);
+    }
+
     /**
      * Creates a new setting with default values.
      */
@@ -106,6 +130,10 @@ public class LogistSettings {
         sizes.put(CITY_RADIUS, 8);
         sizes.put(ROUTE_WIDTH, 3);
         sizes.put(NUMBER_OF_TASKS, 5);
+        sizes.put(NUMBER_OF_ROUNDS, 1);
+        // the most tasks that arrive during a round, see TaskArrivalListener
+        sizes.put(NUMBER_OF_ARRIVALS, 0);
+        sizes.put(COMPRESSION_LEVEL, 6);
 
         // Colors
         colors.put(BACKGROUND, Color.WHITE);
@@ -129,10 +157,16 @@ public class LogistSettings {
         
         // File
         files.put(HISTORY, new File("history.xml"));
+        files.put(TOPOLOGY_CACHE, new File(System.getProperty("java.io.tmpdir"),
+                "logist-topology"));
         
         // Flags
         flags.put(SHOW_UI, true);
         flags.put(SHOW_TASKS, true);
+        flags.put(CONCURRENT_BIDS, false);
+
+        // Details
+        details.put(DetailKey.HISTORY, Detail.EVENTS);
     }
 
 }
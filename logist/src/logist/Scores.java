@@ -18,6 +18,7 @@ import logist.agent.AgentStatistics;
 import logist.ScoreBoard.Result;
 import logist.config.ParserException;
 import logist.config.Parsers;
+import logist.history.HistoryFiles;
 
 class Scores {
     private static final Scanner scanner = new Scanner(System.in);
@@ -41,8 +42,17 @@ class Scores {
                 continue;
             }
 
-            if (!names[2].endsWith(".xml")) {
-                LOG.warning("Skipping (no .xml) " + file.getName());
+            // a compressed history is named after its format
+            String name = names[2];
+            if (name.endsWith(HistoryFiles.GZIP_EXTENSION))
+                name = name.substring(0, name.length()
+                        - HistoryFiles.GZIP_EXTENSION.length());
+
+            if (!name.endsWith(".xml")
+                    && !name.endsWith(HistoryFiles.BINARY_EXTENSION)) {
+                LOG.warning("Skipping (no .xml or "
+                        + HistoryFiles.BINARY_EXTENSION + ") "
+                        + file.getName());
                 continue;
             }
 
@@ -53,7 +63,7 @@ class Scores {
                 boards.put(names[0], board = new ScoreBoard<Long>());
 
             String agent1 = names[1];
-            String agent2 = names[2].substring(0, names[2].length() - 4);
+            String agent2 = name.substring(0, name.lastIndexOf('.'));
 
             try {
                 read(board, file, agent1, agent2);
@@ -33,9 +33,21 @@ class Tournament {
     private final List<String> agentNames;
     private final List<int[]> permutations;
     private final String classpath;
+    private final String historyExtension;
 
     Tournament(File tournamentDir) throws ParserException, IOException {
+        this(tournamentDir, ".xml");
+    }
+
+    /**
+     * @param historyExtension
+     *            the extension of the history files, which gives their
+     *            format and compression
+     */
+    Tournament(File tournamentDir, String historyExtension)
+            throws ParserException, IOException {
         this.tournamentDir = tournamentDir;
+        this.historyExtension = historyExtension;
         this.agentsFile = new File(tournamentDir, "agents.xml");
 
         String cp = System.getProperty("java.class.path");
@@ -162,7 +174,7 @@ class Tournament {
             builder.append(SEP);
             builder.append(agentNames.get(agent));
         }
-        builder.append(".xml");
+        builder.append(historyExtension);
         return builder.toString();
     }
 
@@ -1,7 +1,11 @@
 package logist.agent;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -9,10 +13,14 @@ import logist.behavior.AuctionBehavior;
 import logist.behavior.CentralizedBehavior;
 import logist.behavior.DeliberativeBehavior;
 import logist.behavior.ReactiveBehavior;
+import logist.behavior.TaskArrivalListener;
 
 import logist.Measures;
+import logist.LogistSettings.TimeoutKey;
 import logist.config.ParserException;
 import logist.config.XMLTag;
+import logist.plan.Action;
+import logist.plan.ActionHandler;
 import logist.simulation.Company;
 import logist.simulation.Context;
 import logist.simulation.VehicleImpl;
@@ -20,6 +28,7 @@ import logist.simulation.VehicleController;
 import logist.simulation.Vehicle;
 import logist.task.Task;
 import logist.task.TaskSet;
+import logist.topology.Topology.City;
 
 /**
  * An agent in the pickup and delivery problem.
@@ -42,10 +51,17 @@ public abstract class AgentImpl implements VehicleController {
 
     private int id;
     Context sim;
+    TimeoutGuard guard;
     List<VehicleImpl> vehicles;
 
     TaskSet tasks;
 
+    // the totals of the previous rounds
+    private int pastTasks;
+    private long pastReward;
+    private long pastDistance;
+    private long pastCost;
+
     AgentImpl(String name) {
         this.name = name;
         this.agentInfo = new Info();
@@ -59,10 +75,26 @@ public abstract class AgentImpl implements VehicleController {
     public void setup(int id, Context sim, Company company) {
         this.id = id;
         this.sim = sim;
+        this.guard = new TimeoutGuard(sim.getSettings());
         this.vehicles = company.vehicles;
     }
 
+    /**
+     * Begins a new round. The statistics of the previous round are added to
+     * the totals of the agent before its vehicles are reset.
+     */
     public void beginRound(TaskSet empty) {
+        if (tasks != null) {
+            pastTasks += tasks.size();
+            for (VehicleImpl vehicle : vehicles) {
+                Vehicle info = vehicle.getInfo();
+                pastTasks += vehicle.numTasks();
+                pastReward += info.getReward();
+                pastDistance += info.getDistanceUnits();
+                pastCost += info.getDistanceUnits() * info.costPerKm();
+            }
+        }
+
         this.tasks = empty;
         for (VehicleImpl vehicle : vehicles)
             vehicle.beginRound(empty);
@@ -70,12 +102,177 @@ public abstract class AgentImpl implements VehicleController {
 
     public abstract Long askBid(Task task);
 
+    private Task bidTask;
+
+    /**
+     * Starts asking for a bid on a task without waiting for the answer, which
+     * is returned by {@link #finishBid()}. Agents that take part in auctions
+     * compute their bids in the background; the others answer in
+     * <tt>finishBid</tt>.
+     */
+    public void startBid(Task task) {
+        this.bidTask = task;
+    }
+
+    /**
+     * Waits for the bid requested by {@link #startBid(Task)}.
+     */
+    public Long finishBid() {
+        Task task = bidTask;
+        bidTask = null;
+        return askBid(task);
+    }
+
     public void notifyResult(Task previous, int winner, Long[] offers) {
         // System.out.println("Notify " + name + " " + id + " ");
         if (winner == id)
             tasks.add(previous);
     }
 
+    /**
+     * Admits a task that arrived during the round, after its auction. Agents
+     * that take the task on drop the plans of their vehicles, which plan
+     * again from where they are at their next action. The behavior is told
+     * of the task if it implements {@link TaskArrivalListener}.
+     */
+    public void taskArrived(final Task task, final long time) {
+        final Object behavior = behavior();
+        if (!(behavior instanceof TaskArrivalListener))
+            return;
+
+        guard.schedule(name, TimeoutKey.BID, new Runnable() {
+            @Override
+            public void run() {
+                ((TaskArrivalListener) behavior).taskArrived(task, time);
+            }
+        });
+    }
+
+    /**
+     * Writes the totals of the previous rounds to a snapshot.
+     */
+    public void writeTotals(DataOutput out) throws IOException {
+        out.writeInt(pastTasks);
+        out.writeLong(pastReward);
+        out.writeLong(pastDistance);
+        out.writeLong(pastCost);
+    }
+
+    /**
+     * Restores the totals written by {@link #writeTotals(DataOutput)}.
+     */
+    public void readTotals(DataInput in) throws IOException {
+        pastTasks = in.readInt();
+        pastReward = in.readLong();
+        pastDistance = in.readLong();
+        pastCost = in.readLong();
+    }
+
+    /**
+     * Writes the rest of the plans of the vehicles to a snapshot, so that a
+     * restored round continues them instead of planning again.
+     */
+    public abstract void writePlans(DataOutput out) throws IOException;
+
+    /**
+     * Restores the plans written by {@link #writePlans(DataOutput)}.
+     */
+    public abstract void readPlans(DataInput in, Task[] universe)
+            throws IOException;
+
+    // an action as the id of its city or task and its type in the low bits
+    private static final int MOVE = 0;
+    private static final int PICKUP = 1;
+    private static final int DELIVERY = 2;
+    private static final ActionHandler<Integer> ACTION_CODE =
+            new ActionHandler<Integer>() {
+        @Override
+        public Integer moveTo(City city) {
+            return city.id << 2 | MOVE;
+        }
+
+        @Override
+        public Integer pickup(Task task) {
+            return task.id << 2 | PICKUP;
+        }
+
+        @Override
+        public Integer deliver(Task task) {
+            return task.id << 2 | DELIVERY;
+        }
+    };
+
+    /**
+     * Writes the remaining actions of some plans, or that they have not been
+     * made yet if they are <tt>null</tt>. The given iterators are used up,
+     * so the returned ones must be continued in their place.
+     */
+    static List<Iterator<Action>> writeActions(DataOutput out,
+            List<Iterator<Action>> plans) throws IOException {
+        out.writeBoolean(plans != null);
+        if (plans == null)
+            return null;
+
+        List<Iterator<Action>> rest = new ArrayList<Iterator<Action>>();
+        out.writeInt(plans.size());
+        for (Iterator<Action> plan : plans) {
+            List<Action> actions = new ArrayList<Action>();
+            while (plan.hasNext())
+                actions.add(plan.next());
+
+            out.writeInt(actions.size());
+            for (Action action : actions)
+                out.writeInt(action.accept(ACTION_CODE));
+            rest.add(actions.iterator());
+        }
+        return rest;
+    }
+
+    /**
+     * Reads the plans of <tt>count</tt> vehicles written by
+     * {@link #writeActions(DataOutput, List)}.
+     */
+    List<Iterator<Action>> readActions(DataInput in, Task[] universe,
+            int count) throws IOException {
+        if (!in.readBoolean())
+            return null;
+        if (in.readInt() != count)
+            throw new IOException("The snapshot has different plans");
+
+        List<City> cities = sim.getTopology().cities();
+        List<Iterator<Action>> plans = new ArrayList<Iterator<Action>>();
+        for (int i = 0; i < count; i++) {
+            List<Action> actions = new ArrayList<Action>();
+            for (int n = in.readInt(); n > 0; n--) {
+                int code = in.readInt();
+                int id = code >>> 2;
+                int bound = ((code & 3) == MOVE) ? cities.size()
+                        : universe.length;
+                if (id >= bound)
+                    throw new IOException("Invalid action in snapshot");
+
+                switch (code & 3) {
+                case MOVE:
+                    actions.add(new Action.Move(cities.get(id)));
+                    break;
+                case PICKUP:
+                    actions.add(new Action.Pickup(universe[id]));
+                    break;
+                case DELIVERY:
+                    actions.add(new Action.Delivery(universe[id]));
+                    break;
+                default:
+                    throw new IOException("Invalid action in snapshot");
+                }
+            }
+            plans.add(actions.iterator());
+        }
+        return plans;
+    }
+
+    /** The behavior of this agent */
+    abstract Object behavior();
+
     // public abstract void begin(TaskSet tasks);
     public List<VehicleImpl> getVehicles() {
         return vehicles;
@@ -179,7 +376,7 @@ public abstract class AgentImpl implements VehicleController {
 
         @Override
         public long getTotalDistanceUnits() {
-            long total = 0;
+            long total = pastDistance;
             for (Vehicle vehicle : vehicles())
                 total += vehicle.getDistanceUnits();
 
@@ -193,7 +390,7 @@ public abstract class AgentImpl implements VehicleController {
 
         @Override
         public long getTotalCost() {
-            long total = 0;
+            long total = pastCost;
             for (Vehicle vehicle : vehicles())
                 total += vehicle.getDistanceUnits() * vehicle.costPerKm();
             return Math.round(Measures.unitsToKM(total));
@@ -201,7 +398,7 @@ public abstract class AgentImpl implements VehicleController {
 
         @Override
         public long getTotalReward() {
-            long total = 0;
+            long total = pastReward;
             for (Vehicle vehicle : vehicles())
                 total += vehicle.getReward();
             return total;
@@ -226,7 +423,7 @@ public abstract class AgentImpl implements VehicleController {
 
         @Override
         public int getTotalTasks() {
-            int total = tasks.size();
+            int total = pastTasks + tasks.size();
             for (VehicleImpl vehicle : getVehicles())
                 total += vehicle.numTasks();
             return total;
@@ -1,5 +1,8 @@
 package logist.agent;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -32,6 +35,7 @@ class AuctionAgent extends AgentImpl {
     private int lastWinner;
     private Long[] lastOffers;
     private List<Iterator<Action>> plans;
+    private TimeoutGuard.Pending<Long> pendingBid;
 
     // interface with legacy API
     // AuctionAgent(Class<? extends Behavior> behaviorClass, String name) {
@@ -51,7 +55,7 @@ class AuctionAgent extends AgentImpl {
         for (VehicleImpl vehicle : vehicles)
             vehicle.setController(this);
 
-        TimeoutGuard.schedule(name, TimeoutKey.SETUP, new Runnable() {
+        guard.schedule(name, TimeoutKey.SETUP, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -87,21 +91,35 @@ class AuctionAgent extends AgentImpl {
     }
 
     @Override
-    public Long askBid(final Task task) {
-        return TimeoutGuard.schedule(name, TimeoutKey.BID,
-                new Callable<Long>() {
-                    @Override
-                    public Long call() throws Exception {
-                        if (lastTask != null) {
-                            Long[] offers = (lastOffers == null) ? null
-                                    : lastOffers.clone();
-                            behavior
-                                    .auctionResult(lastTask, lastWinner, offers);
-                            lastTask = null;
-                        }
-                        return behavior.askPrice(task);
-                    }
-                });
+    public Long askBid(Task task) {
+        return guard.schedule(name, TimeoutKey.BID, bid(task));
+    }
+
+    @Override
+    public void startBid(Task task) {
+        pendingBid = guard.submit(name, TimeoutKey.BID, bid(task));
+    }
+
+    @Override
+    public Long finishBid() {
+        TimeoutGuard.Pending<Long> pending = pendingBid;
+        pendingBid = null;
+        return pending.await();
+    }
+
+    private Callable<Long> bid(final Task task) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                if (lastTask != null) {
+                    Long[] offers = (lastOffers == null) ? null : lastOffers
+                            .clone();
+                    behavior.auctionResult(lastTask, lastWinner, offers);
+                    lastTask = null;
+                }
+                return behavior.askPrice(task);
+            }
+        };
     }
 
     @Override
@@ -113,12 +131,20 @@ class AuctionAgent extends AgentImpl {
         lastOffers = offers;
     }
 
+    @Override
+    public void taskArrived(Task task, long time) {
+        // the vehicles of the winner plan again
+        if (tasks.contains(task))
+            plans = null;
+        super.taskArrived(task, time);
+    }
+
     @Override
     public Action nextAction(int vid) {
         if (plans == null) {
             final List<Vehicle> vehicleInfos = agentInfo.vehicles();
 
-            List<Plan> planList = TimeoutGuard.schedule(name, TimeoutKey.PLAN,
+            List<Plan> planList = guard.schedule(name, TimeoutKey.PLAN,
                     new Callable<List<Plan>>() {
                         @Override
                         public List<Plan> call() throws Exception {
@@ -160,11 +186,26 @@ class AuctionAgent extends AgentImpl {
         return plan.hasNext() ? plan.next() : null;
     }
 
+    @Override
+    public void writePlans(DataOutput out) throws IOException {
+        plans = writeActions(out, plans);
+    }
+
+    @Override
+    public void readPlans(DataInput in, Task[] universe) throws IOException {
+        plans = readActions(in, universe, vehicles.size());
+    }
+
     @Override
     public void stuckAction(int vid, Action action) {
         throw new AssertionError("A valid plan got stuck !");
     }
 
+    @Override
+    Object behavior() {
+        return behavior;
+    }
+
     @Override
     public Type type() {
         return Type.AUCTION;
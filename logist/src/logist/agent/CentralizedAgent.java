@@ -1,5 +1,8 @@
 package logist.agent;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -38,7 +41,7 @@ class CentralizedAgent extends AgentImpl {
         for (VehicleImpl vehicle : vehicles)
             vehicle.setController(this);
 
-        TimeoutGuard.schedule(name, TimeoutKey.SETUP, new Runnable() {
+        guard.schedule(name, TimeoutKey.SETUP, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -73,12 +76,19 @@ class CentralizedAgent extends AgentImpl {
         super.notifyResult(previous, winner, offers);
     }
 
+    @Override
+    public void taskArrived(Task task, long time) {
+        tasks.add(task);
+        plans = null;
+        super.taskArrived(task, time);
+    }
+
     @Override
     public Action nextAction(int vid) {
         if (plans == null) {
             final List<Vehicle> vehicleInfos = agentInfo.vehicles();
 
-            List<Plan> planList = TimeoutGuard.schedule(name, TimeoutKey.PLAN,
+            List<Plan> planList = guard.schedule(name, TimeoutKey.PLAN,
                     new Callable<List<Plan>>() {
                         @Override
                         public List<Plan> call() throws Exception {
@@ -112,11 +122,26 @@ class CentralizedAgent extends AgentImpl {
         return plan.hasNext() ? plan.next() : null;
     }
 
+    @Override
+    public void writePlans(DataOutput out) throws IOException {
+        plans = writeActions(out, plans);
+    }
+
+    @Override
+    public void readPlans(DataInput in, Task[] universe) throws IOException {
+        plans = readActions(in, universe, vehicles.size());
+    }
+
     @Override
     public void stuckAction(int vid, Action action) {
         throw new AssertionError("A valid plan got stuck !");
     }
 
+    @Override
+    Object behavior() {
+        return behavior;
+    }
+
     @Override
     public Type type() {
         return Type.CENTRALIZED;
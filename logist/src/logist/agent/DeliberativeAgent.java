@@ -1,6 +1,11 @@
 package logist.agent;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import logist.behavior.DeliberativeBehavior;
@@ -42,7 +47,7 @@ class DeliberativeAgent extends AgentImpl {
         for (VehicleImpl vehicle : vehicles)
             vehicle.setController(this);
 
-        TimeoutGuard.schedule(name, TimeoutKey.SETUP, new Runnable() {
+        guard.schedule(name, TimeoutKey.SETUP, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -60,6 +65,20 @@ class DeliberativeAgent extends AgentImpl {
         });
     }
 
+    @Override
+    public void beginRound(TaskSet empty) {
+        super.beginRound(empty);
+        plan = null;
+    }
+
+    @Override
+    public void taskArrived(Task task, long time) {
+        // the set of tasks may be shared with other deliberative agents
+        tasks.add(task);
+        plan = null;
+        super.taskArrived(task, time);
+    }
+
     /* VehicleController */
 
     @Override
@@ -72,7 +91,7 @@ class DeliberativeAgent extends AgentImpl {
             if (tasks.isEmpty() && vehicleInfo.getCurrentTasks().isEmpty()) {
                 plan = new EmptyIterator<Action>();
             } else {
-                Plan plan = TimeoutGuard.schedule(name, TimeoutKey.PLAN,
+                Plan plan = guard.schedule(name, TimeoutKey.PLAN,
                         new Callable<Plan>() {
                             @Override
                             public Plan call() throws Exception {
@@ -96,13 +115,26 @@ class DeliberativeAgent extends AgentImpl {
         return plan.hasNext() ? plan.next() : null;
     }
 
+    @Override
+    public void writePlans(DataOutput out) throws IOException {
+        List<Iterator<Action>> rest = writeActions(out, (plan == null) ? null
+                : Collections.singletonList(plan));
+        plan = (rest == null) ? null : rest.get(0);
+    }
+
+    @Override
+    public void readPlans(DataInput in, Task[] universe) throws IOException {
+        List<Iterator<Action>> plans = readActions(in, universe, 1);
+        plan = (plans == null) ? null : plans.get(0);
+    }
+
     @Override
     public void stuckAction(int vid, Action action) {
         final TaskSet carriedTasks = vehicleInfo.getCurrentTasks();
         System.out.println("LP: Stuck action : " + action);
         System.out.println("LP: Tasks        : " + carriedTasks);
         
-        TimeoutGuard.schedule(name, TimeoutKey.PLAN,
+        guard.schedule(name, TimeoutKey.PLAN,
                 new Runnable() {
                     @Override
                     public void run() {
@@ -119,6 +151,11 @@ class DeliberativeAgent extends AgentImpl {
         return null;
     }
 
+    @Override
+    Object behavior() {
+        return behavior;
+    }
+
     @Override
     public Type type() {
         return Type.DELIBERATIVE;
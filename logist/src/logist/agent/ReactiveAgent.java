@@ -1,5 +1,7 @@
 package logist.agent;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.util.Iterator;
 import java.util.concurrent.Callable;
 
@@ -50,7 +52,7 @@ class ReactiveAgent extends AgentImpl implements ActionHandler<Plan> {
         vehicle = vehicles.get(0);
         vehicleInfo = vehicle.getInfo();
 
-        TimeoutGuard.schedule(name, TimeoutKey.SETUP, new Runnable() {
+        guard.schedule(name, TimeoutKey.SETUP, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -68,6 +70,12 @@ class ReactiveAgent extends AgentImpl implements ActionHandler<Plan> {
         });
     }
 
+    @Override
+    public void beginRound(TaskSet empty) {
+        super.beginRound(empty);
+        plan = new EmptyIterator<Action>();
+    }
+
     /* VehicleController */
 
     @Override
@@ -85,7 +93,7 @@ class ReactiveAgent extends AgentImpl implements ActionHandler<Plan> {
                     : new Task[] { task });
             vehicle.setTasks(tasks);
 
-            Plan plan = TimeoutGuard.schedule(name, TimeoutKey.PLAN,
+            Plan plan = guard.schedule(name, TimeoutKey.PLAN,
                     new Callable<Plan>() {
                         @Override
                         public Plan call() throws Exception {
@@ -107,6 +115,17 @@ class ReactiveAgent extends AgentImpl implements ActionHandler<Plan> {
         return plan.next();
     }
 
+    /** Rounds with reactive agents cannot be saved */
+    @Override
+    public void writePlans(DataOutput out) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void readPlans(DataInput in, Task[] universe) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void stuckAction(int vid, Action action) {
         // should not happen
@@ -142,6 +161,11 @@ class ReactiveAgent extends AgentImpl implements ActionHandler<Plan> {
         return plan.seal();
     }
 
+    @Override
+    Object behavior() {
+        return behavior;
+    }
+
     @Override
     public Type type() {
         return Type.REACTIVE;
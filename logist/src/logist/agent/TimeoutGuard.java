@@ -4,45 +4,98 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import logist.LogistException;
-import logist.LogistPlatform;
+import logist.LogistSettings;
 import logist.LogistSettings.TimeoutKey;
 
+/**
+ * Runs the callbacks of an agent with the timeouts of its simulation. The
+ * threads are shared by all simulations in the JVM; they are daemon threads
+ * so that a behavior that never returns does not keep the JVM alive.
+ */
 class TimeoutGuard {
 
-    private static ExecutorService executor = Executors.newCachedThreadPool();
+    private static ExecutorService executor = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                private final ThreadFactory factory = Executors
+                        .defaultThreadFactory();
 
-    private TimeoutGuard() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = factory.newThread(task);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final LogistSettings settings;
+
+    TimeoutGuard(LogistSettings settings) {
+        this.settings = settings;
     }
     
     static void terminate() {
         executor.shutdownNow();
     }
 
-    static <T> T schedule(String agentName, TimeoutKey key, Callable<T> task) {
+    <T> T schedule(String agentName, TimeoutKey key, Callable<T> task) {
+        return submit(agentName, key, task).await();
+    }
 
-        try {
-            long timeout = LogistPlatform.getSettings().get(key);
-            return executor.submit(task).get(timeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException cause) {
-            throw new LogistException(
-                    "agent " + agentName + " was interrupted", cause);
-        } catch (ExecutionException cause) {
-            throw new LogistException(
-                    "agent " + agentName + " crashed", cause);
-        } catch (TimeoutException cause) {
-            throw new LogistException(
-                    "agent " + agentName + " timed out", cause);
+    /**
+     * Starts a task without waiting for it. The timeout counts from now, so
+     * several tasks can run at the same time and be awaited one after the
+     * other.
+     */
+    <T> Pending<T> submit(String agentName, TimeoutKey key, Callable<T> task) {
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(settings.get(key));
+        return new Pending<T>(agentName, executor.submit(task), deadline);
+    }
+
+    /**
+     * A task that has been started by {@link TimeoutGuard#submit}.
+     */
+    static class Pending<T> {
+        private final String agentName;
+        private final Future<T> future;
+        private final long deadline;
+
+        Pending(String agentName, Future<T> future, long deadline) {
+            this.agentName = agentName;
+            this.future = future;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Waits for the result until the deadline of the task.
+         */
+        T await() {
+            try {
+                long timeout = deadline - System.nanoTime();
+                return future.get(timeout, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException cause) {
+                throw new LogistException(
+                        "agent " + agentName + " was interrupted", cause);
+            } catch (ExecutionException cause) {
+                throw new LogistException(
+                        "agent " + agentName + " crashed", cause);
+            } catch (TimeoutException cause) {
+                throw new LogistException(
+                        "agent " + agentName + " timed out", cause);
+            }
         }
     }
     
-    static void schedule(String agentName, TimeoutKey key, Runnable task) {
+    void schedule(String agentName, TimeoutKey key, Runnable task) {
 
         try {
-            long timeout = LogistPlatform.getSettings().get(key);
+            long timeout = settings.get(key);
             executor.submit(task).get(timeout, TimeUnit.MILLISECONDS);
         } catch (InterruptedException cause) {
             throw new LogistException(
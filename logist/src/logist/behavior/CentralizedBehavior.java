@@ -44,7 +44,11 @@ public interface CentralizedBehavior {
      * Computes the joint plan for several vehicles.
      * <br>
      * The plans for each vehicle are returned as a list, in the same order than the vehicles.
-     * The agent can assume that no vehicle is carrying a task.
+     * The agent can assume that no vehicle is carrying a task, unless tasks
+     * arrive during the round: for each of them this method is called again
+     * for the tasks that are not picked up yet, and each plan starts where
+     * its vehicle is and delivers the tasks that the vehicle carries (see
+     * {@link Vehicle#getCurrentTasks()}).
      * 
      * @param vehicles The list of vehicles
      * @param tasks The list of tasks to be handled
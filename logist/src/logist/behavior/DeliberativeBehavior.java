@@ -42,7 +42,7 @@ public interface DeliberativeBehavior {
      * carrying no tasks. In a multi-agent system this method might be called
      * again during the execution of a plan (see
      * {@link behavior.DeliberativeBehavior#planCancelled(logist.task.TaskSet)}
-     * ).
+     * ), and so it is when a task arrives during the round.
      * 
      * @param vehicle
      *            The vehicle that the agent is controlling
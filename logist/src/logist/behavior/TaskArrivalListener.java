@@ -0,0 +1,37 @@
+package logist.behavior;
+
+import logist.task.Task;
+
+/**
+ * An optional callback for behaviors that want to be told about tasks that
+ * arrive during a round.
+ * <p>
+ * If the configuration sets an <tt>arrival-rate</tt> for the tasks, new tasks
+ * arrive while the vehicles move, up to the number of <tt>arrivals</tt>. Each
+ * task is admitted into the round when it arrives: it is auctioned, or added
+ * to the tasks of deliberative and centralized agents, and the agents that
+ * take it on plan again. A behavior of any kind that also implements this
+ * interface is then notified of it, in order of arrival.
+ * <p>
+ * The number of <tt>arrivals</tt> caps the tasks of a round on purpose. All
+ * task sets of a round range over the same tasks, so the tasks that may
+ * arrive are drawn when the round begins and take memory in proportion to
+ * the cap. A round ends once its vehicles are done and no task is left to
+ * arrive.
+ *
+ * @see logist.task.TaskStream
+ */
+public interface TaskArrivalListener {
+
+    /**
+     * Called for each task that arrives during the round.
+     *
+     * @param task
+     *            the task that has arrived, with the reward of its auction
+     * @param time
+     *            the arrival time in nanoseconds of simulated time since the
+     *            beginning of the round
+     */
+    void taskArrived(Task task, long time);
+
+}
@@ -11,6 +11,7 @@ import logist.agent.AgentImpl;
 
 import logist.LogistSettings;
 import logist.Measures;
+import logist.LogistSettings.FileKey;
 import logist.LogistSettings.SizeKey;
 import logist.simulation.Company;
 import logist.simulation.Manager;
@@ -33,7 +34,22 @@ class ConfigParser {
     private DefaultTaskDistribution taskDistribution;
     private Random random;
 
-    ConfigParser() {}
+    private final Manager shared;
+    private final long seed;
+
+    ConfigParser() {
+        this(null, 0L);
+    }
+
+    /**
+     * A parser that takes the topology and the task distribution tables from
+     * <tt>shared</tt> instead of parsing them, unless <tt>shared</tt> is
+     * <tt>null</tt>.
+     */
+    ConfigParser(Manager shared, long seed) {
+        this.shared = shared;
+        this.seed = seed;
+    }
 
     Manager parse(XMLTag configTag, String agentsFile, String[] agentNames) throws ParserException {
 
@@ -80,10 +96,13 @@ class ConfigParser {
 
     private void parseTopology(XMLTag topologyTag) throws ParserException {
 
-        if (topologyTag.hasAttribute("import")) {
+        if (shared != null) {
+            topology = shared.getTopology();
+        } else if (topologyTag.hasAttribute("import")) {
             // load from external file
             String topologyFile = topologyTag.getAttribute("import", String.class);
-            topology = Parsers.parseTopology(topologyFile);
+            topology = Parsers.parseTopology(topologyFile,
+                    settings.get(FileKey.TOPOLOGY_CACHE));
         } else {
             // parse directly
             topology = Parsers.parseTopology(topologyTag);
@@ -139,6 +158,15 @@ class ConfigParser {
         random = new Random(seed);
         settings.set(SizeKey.NUMBER_OF_TASKS, number);
 
+        if (shared != null) {
+            random = new Random(this.seed);
+            taskDistribution = ((DefaultTaskDistribution) shared
+                    .getTaskDistribution()).withRandom(random);
+            settings.set(SizeKey.NUMBER_OF_ARRIVALS, shared.getSettings()
+                    .get(SizeKey.NUMBER_OF_ARRIVALS));
+            return;
+        }
+
         double[][] p = parsePolicy(tasksTag.getUniqueChild("probability"));
         double[][] r = parsePolicy(tasksTag.getUniqueChild("reward"));
         double[][] w = parsePolicy(tasksTag.getUniqueChild("weight"));
@@ -151,6 +179,24 @@ class ConfigParser {
         }
 
         taskDistribution = new DefaultTaskDistribution(topology, random, p, r, w, n);
+
+        // optional arrival of tasks during the round, by default as many as
+        // there are tasks at the beginning; the number is a cap, since all
+        // tasks of a round are drawn when it begins
+        if (tasksTag.hasAttribute("arrival-rate")) {
+            double rate = tasksTag.getAttribute("arrival-rate", Double.class);
+            if (!(rate >= 0.0) || Double.isInfinite(rate))
+                throw ParserException.badFormat(String.valueOf(rate),
+                        "arrival-rate", "non-negative number");
+            taskDistribution.setArrivalRate(rate);
+
+            int arrivals = tasksTag.hasAttribute("arrivals") ? tasksTag
+                    .getAttribute("arrivals", Integer.class) : number;
+            if (arrivals < 0)
+                throw ParserException.badFormat(String.valueOf(arrivals),
+                        "arrivals", "non-negative number");
+            settings.set(SizeKey.NUMBER_OF_ARRIVALS, arrivals);
+        }
     }
 
     private double[] parseDistribution(XMLTag policyTag) throws ParserException {
@@ -1,54 +1,63 @@
 package logist.config;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import logist.agent.AgentStatistics;
+import logist.history.HistoryFiles;
+import logist.history.HistoryHandler;
 
 import logist.Measures;
 
+/**
+ * Reads the statistics of a history file in either format. The file is
+ * streamed and only the statistics are kept.
+ */
 class HistoryParser {
 
     private List<AgentStatistics> statistics;
-    
-    List<AgentStatistics> parse(XMLTag historyTag) throws ParserException {
+    private List<Integer> ranks;
 
-        statistics = new ArrayList<AgentStatistics>();
-
-        parseStatistics(historyTag.getUniqueChild("statistics"));
-
-        return statistics;
-    }
+    List<AgentStatistics> parse(File file) throws ParserException {
 
-    private void parseStatistics(XMLTag statisticsTag) throws ParserException {
-
-        int rank = 0;
-        XMLTag tag;
-        for (XMLTag statTag : statisticsTag.getAllChildren("stat")) {
-            rank++;
-            AgentRecord record = new AgentRecord();
+        statistics = new ArrayList<AgentStatistics>();
+        ranks = new ArrayList<Integer>();
+
+        try {
+            HistoryFiles.read(file, new HistoryHandler() {
+                @Override
+                public void stat(int rank, String agent, int totalTasks,
+                        double totalDistance, long totalCost,
+                        long totalReward, long totalProfit) {
+                    AgentRecord record = new AgentRecord();
+                    record.name = agent;
+                    record.totalTasks = totalTasks;
+                    record.totalDistance = Measures.kmToUnits(totalDistance);
+                    record.totalCost = totalCost;
+                    record.totalReward = totalReward;
+                    record.totalProfit = totalProfit;
+
+                    statistics.add(record);
+                    ranks.add(rank);
+                }
+            });
+        } catch (FileNotFoundException fnfEx) {
+            throw new ParserException("History file "
+                    + file.getAbsolutePath() + " does not exists.");
+        } catch (IOException ioEx) {
+            throw new ParserException("Failed to read " + file, ioEx);
+        }
 
-            int actualRank = statTag.getAttribute("rank", Integer.class);
+        for (int rank = 1; rank <= ranks.size(); rank++) {
+            int actualRank = ranks.get(rank - 1);
             if (rank != actualRank)
                 throw new ParserException("Expected rank = " + rank
                         + " but found rank = " + actualRank);
-
-            record.name = statTag.getAttribute("agent", String.class);
-
-            tag = statTag.getUniqueChild("total-tasks");
-            record.totalTasks = tag.getAttribute("value", Integer.class);
-            tag = statTag.getUniqueChild("total-distance");
-            double kilometers = tag.getAttribute("value", Double.class);
-            record.totalDistance = Measures.kmToUnits(kilometers);
-            tag = statTag.getUniqueChild("total-cost");
-            record.totalCost = tag.getAttribute("value", Long.class);
-            tag = statTag.getUniqueChild("total-reward");
-            record.totalReward = tag.getAttribute("value", Long.class);
-            tag = statTag.getUniqueChild("total-profit");
-            record.totalProfit = tag.getAttribute("value", Long.class);
-
-            statistics.add(record);
         }
+        return statistics;
     }
 
     private static class AgentRecord implements AgentStatistics {
@@ -31,6 +31,25 @@ public class Parsers {
         return new ConfigParser().parse(configTag, agentsFile, names);
     }
 
+    /**
+     * Parses a configuration for one of many runs of the same configuration
+     * file. The topology and the tables of the task distribution are shared
+     * with another manager of that file, only the tasks are drawn from a
+     * new random generator.
+     * 
+     * @param shared
+     *            a manager parsed from the same configuration file
+     * @param seed
+     *            the seed of the task generator, used instead of the
+     *            <tt>rngSeed</tt> of the configuration
+     */
+    public static Manager parseConfiguration(String configFile,
+            String agentsFile, String[] names, Manager shared, long seed)
+            throws ParserException {
+        return new ConfigParser(shared, seed).parse(
+                XMLTag.loadXMLFromFile(configFile), agentsFile, names);
+    }
+
     /* topology parser */
 
     public static Topology parseTopology(String topologyFile)
@@ -38,6 +57,23 @@ public class Parsers {
         return parseTopology(XMLTag.loadXMLFromFile(topologyFile));
     }
 
+    /**
+     * Loads a topology through a directory of snapshots. The topology file is
+     * only parsed if the directory has no snapshot of its current content.
+     * 
+     * @param topologyFile
+     *            the topology file
+     * @param cacheDirectory
+     *            the snapshot directory, or <tt>null</tt> to always parse the
+     *            file
+     */
+    public static Topology parseTopology(String topologyFile,
+            File cacheDirectory) throws ParserException {
+        if (cacheDirectory == null)
+            return parseTopology(topologyFile);
+        return new TopologyCache(cacheDirectory).load(topologyFile);
+    }
+
     static Topology parseTopology(XMLTag topologyTag)
             throws ParserException {
         return new TopologyParser().parseTopology(topologyTag);
@@ -81,14 +117,13 @@ public class Parsers {
 
     /* history parser */
 
+    /**
+     * Reads the statistics of a history file, which may be in the XML or in
+     * the binary format and compressed with gzip.
+     */
     public static List<AgentStatistics> parseHistory(File file)
             throws ParserException {
-        return parseHistory(XMLTag.loadXMLFromFile(file));
-    }
-
-    static List<AgentStatistics> parseHistory(XMLTag historyTag)
-            throws ParserException {
-        return new HistoryParser().parse(historyTag);
+        return new HistoryParser().parse(file);
     }
 
     /* helper */
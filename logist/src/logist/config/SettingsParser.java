@@ -6,6 +6,8 @@ import java.util.Map.Entry;
 
 import logist.LogistSettings;
 import logist.LogistSettings.ColorKey;
+import logist.LogistSettings.Detail;
+import logist.LogistSettings.DetailKey;
 import logist.LogistSettings.FileKey;
 import logist.LogistSettings.FlagKey;
 import logist.LogistSettings.SizeKey;
@@ -47,6 +49,12 @@ class SettingsParser {
                 boolean value = XMLTag.convert(entry.getValue(), key, Boolean.class);
                 settings.set(key, value);
             }
+            // parse details
+            else if (name.startsWith("DETAIL_")) {
+                DetailKey key = XMLTag.convert(name.substring(7), settingsTag, DetailKey.class);
+                Detail value = XMLTag.convert(entry.getValue().toUpperCase(), key, Detail.class);
+                settings.set(key, value);
+            }
             // parse sizes
             else {
                 SizeKey key = XMLTag.convert(name, settingsTag, SizeKey.class);
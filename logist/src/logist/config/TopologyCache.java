@@ -0,0 +1,103 @@
+package logist.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+
+import logist.topology.Topology;
+
+/**
+ * A directory of binary topology snapshots. Each snapshot is keyed by a
+ * content hash of the topology file it was computed from, so that a
+ * topology file is parsed and its shortest paths are computed only once.
+ * <p>
+ * The cache is an optimization only: if a snapshot cannot be read or written
+ * the topology is parsed as usual.
+ * 
+ * @see Topology#writeSnapshot(File, byte[])
+ */
+class TopologyCache {
+
+    private static final Logger LOG = Logger.getLogger(TopologyCache.class
+            .getName());
+
+    private final File directory;
+
+    TopologyCache(File directory) {
+        this.directory = directory;
+    }
+
+    Topology load(String topologyFile) throws ParserException {
+        byte[] key = hash(new File(topologyFile));
+        File snapshot = new File(directory, toHex(key) + ".topology");
+
+        if (snapshot.isFile()) {
+            try {
+                Topology topology = Topology.readSnapshot(snapshot, key);
+                if (topology != null)
+                    return topology;
+            } catch (IOException ioEx) {
+                LOG.warning("Ignoring topology snapshot " + snapshot + ": "
+                        + ioEx.getMessage());
+            }
+        }
+
+        Topology topology = Parsers.parseTopology(topologyFile);
+        if (topology.hasDistanceTables())
+            store(topology, snapshot, key);
+        return topology;
+    }
+
+    // writes to a temporary file first so that concurrent runs never read
+    // a partial snapshot
+    private void store(Topology topology, File snapshot, byte[] key) {
+        File tmp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("cannot create " + directory);
+
+            tmp = File.createTempFile("topology", ".tmp", directory);
+            topology.writeSnapshot(tmp, key);
+            if (tmp.renameTo(snapshot))
+                tmp = null;
+        } catch (IOException ioEx) {
+            LOG.warning("Could not write topology snapshot " + snapshot
+                    + ": " + ioEx.getMessage());
+        } finally {
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+
+    private static byte[] hash(File file) throws ParserException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) > 0)
+                    digest.update(buffer, 0, len);
+            } finally {
+                in.close();
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException nsaEx) {
+            throw new AssertionError(nsaEx);
+        } catch (IOException ioEx) {
+            throw new ParserException("Failed to read " + file, ioEx);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes)
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+                    Character.forDigit(b & 0xF, 16));
+        return builder.toString();
+    }
+}
@@ -2,11 +2,14 @@ package logist.config;
 
 import logist.topology.Topology;
 import logist.topology.Topology.Builder;
+import logist.topology.Topology.PathAlgorithm;
 import static logist.Measures.DISTANCE_UNITS_PER_KM;
 
 class TopologyParser {
 
     private Builder builder = new Builder();
+    private int numCities;
+    private int numRoutes;
 
     TopologyParser() {}
     
@@ -24,6 +27,9 @@ class TopologyParser {
         // parse routes tag
         parseRoutes(topologyTag.getUniqueChild("routes"));
 
+        // select the shortest-path algorithm
+        builder.setPathAlgorithm(parseAlgorithm(topologyTag));
+
         // create the topology
         return builder.build();
     }
@@ -45,6 +51,7 @@ class TopologyParser {
 
             // create city
             builder.addCity(name, x, y);
+            numCities++;
         }
     }
 
@@ -66,6 +73,34 @@ class TopologyParser {
             
             // create route
             builder.addRoute(from, to, distance);
+            numRoutes++;
+        }
+    }
+
+    /**
+     * Reads the optional <tt>algorithm</tt> attribute, e.g.
+     * <tt>algorithm="contraction-hierarchy"</tt>. Without the attribute, the
+     * algorithm is chosen by {@link PathAlgorithm#forGraph(int, int)}.
+     * 
+     * @param topologyTag
+     *            the topology tag, parsed after its cities and routes
+     * @return the shortest-path algorithm of the topology
+     * @throws ParserException
+     *             if the attribute does not name a known algorithm
+     */
+    private PathAlgorithm parseAlgorithm(XMLTag topologyTag)
+            throws ParserException {
+        if (topologyTag.hasAttribute("algorithm")) {
+            String value = topologyTag.getAttribute("algorithm", String.class);
+            try {
+                return PathAlgorithm.valueOf(value.toUpperCase().replace('-',
+                        '_'));
+            } catch (IllegalArgumentException iaEx) {
+                throw ParserException.badFormat(value, "algorithm",
+                        "floyd-warshall, dijkstra or contraction-hierarchy");
+            }
         }
+
+        return PathAlgorithm.forGraph(numCities, numRoutes);
     }
 }
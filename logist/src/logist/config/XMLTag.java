@@ -35,11 +35,12 @@ public class XMLTag {
     }
 
     static XMLTag loadXMLFromFile(File filename) throws ParserException {
+        FileInputStream stream = null;
         try {
             //System.out.println("Reading " + filename);
 
             // loads the stream from a file
-            FileInputStream stream = new FileInputStream(filename);
+            stream = new FileInputStream(filename);
 
             // creates a builder
             SAXBuilder documentBuilder = new SAXBuilder();
@@ -57,6 +58,14 @@ public class XMLTag {
             throw new ParserException("Failed to parse " + filename, jdomEx);
         } catch (IOException ioEx) {
             throw new ParserException("Failed to read " + filename, ioEx);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ioEx) {
+                    // the document has been read
+                }
+            }
         }
     }
 
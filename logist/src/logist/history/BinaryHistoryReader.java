@@ -0,0 +1,197 @@
+package logist.history;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import logist.LogistSettings.Detail;
+
+import static logist.history.BinaryHistoryWriter.*;
+
+/**
+ * Reads a history written by {@link BinaryHistoryWriter} and passes its
+ * records to a handler.
+ */
+class BinaryHistoryReader {
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+
+    private final List<String> strings = new ArrayList<String>();
+
+    // the columns of the current block
+    private int[] ids = new int[BLOCK];
+    private long[] times = new long[BLOCK];
+    private int[] vehicles = new int[BLOCK];
+    private byte[] types = new byte[BLOCK];
+    private int[] targets = new int[BLOCK];
+
+    BinaryHistoryReader(InputStream in) {
+        this.in = in;
+    }
+
+    void read(HistoryHandler handler) throws IOException {
+        if (readLong(4) != MAGIC)
+            throw new IOException("Not a binary history");
+        int version = get();
+        if (version != 1 && version != VERSION)
+            throw new IOException("Unsupported history version " + version);
+        String configuration = readString();
+        Detail detail = Detail.EVENTS;
+        if (version > 1) {
+            int level = get();
+            if (level >= Detail.values().length)
+                throw new IOException("Unknown detail " + level);
+            detail = Detail.values()[level];
+        }
+        handler.history(configuration, detail);
+
+        int lastId = -1;
+        long lastTime = 0L;
+        while (true) {
+            int tag = get();
+            switch (tag) {
+            case END:
+                handler.end();
+                return;
+            case STRING:
+                strings.add(readString());
+                break;
+            case AGENT:
+                handler.agent(string());
+                break;
+            case VEHICLE:
+                handler.vehicle(string());
+                break;
+            case ROUND:
+                handler.round(readInt());
+                lastId = -1;
+                lastTime = 0L;
+                break;
+            case TASK:
+                handler.task(readInt(), string(), string(),
+                        (int) readSigned(), readSigned());
+                break;
+            case BID:
+                handler.bid(string(), readSigned());
+                break;
+            case EVENTS:
+                int count = readInt();
+                ensureBlock(count);
+                for (int i = 0; i < count; i++)
+                    ids[i] = lastId += (int) readSigned();
+                for (int i = 0; i < count; i++)
+                    times[i] = lastTime += readSigned();
+                for (int i = 0; i < count; i++)
+                    vehicles[i] = readInt();
+                for (int i = 0; i < count; i++)
+                    types[i] = (byte) get();
+                for (int i = 0; i < count; i++)
+                    targets[i] = readInt();
+                for (int i = 0; i < count; i++)
+                    event(handler, i);
+                break;
+            case STAT:
+                handler.stat(readInt(), string(), (int) readSigned(),
+                        Double.longBitsToDouble(readLong(8)), readSigned(),
+                        readSigned(), readSigned());
+                break;
+            default:
+                throw new IOException("Unknown record " + tag);
+            }
+        }
+    }
+
+    private void event(HistoryHandler handler, int i) throws IOException {
+        String vehicle = string(vehicles[i]);
+        switch (types[i]) {
+        case MOVE:
+            handler.move(ids[i], times[i], vehicle, string(targets[i]));
+            break;
+        case PICKUP:
+            handler.pickup(ids[i], times[i], vehicle, targets[i]);
+            break;
+        case DELIVER:
+            handler.deliver(ids[i], times[i], vehicle, targets[i]);
+            break;
+        default:
+            throw new IOException("Unknown event type " + types[i]);
+        }
+    }
+
+    private void ensureBlock(int count) {
+        if (count > ids.length) {
+            ids = new int[count];
+            times = new long[count];
+            vehicles = new int[count];
+            types = new byte[count];
+            targets = new int[count];
+        }
+    }
+
+    /* Decoding */
+
+    private int get() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException("The history is truncated");
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed number");
+    }
+
+    private int readInt() throws IOException {
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE)
+            throw new IOException("Malformed number");
+        return (int) value;
+    }
+
+    private long readSigned() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readLong(int bytes) throws IOException {
+        long value = 0L;
+        for (int i = 0; i < bytes; i++)
+            value = (value << 8) | get();
+        return value;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readInt()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) get();
+        return new String(bytes, "UTF-8");
+    }
+
+    /** Reads an index into the string table */
+    private String string() throws IOException {
+        return string(readInt());
+    }
+
+    private String string(int index) throws IOException {
+        if (index >= strings.size())
+            throw new IOException("Unknown string " + index);
+        return strings.get(index);
+    }
+}
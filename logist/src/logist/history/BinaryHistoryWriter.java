@@ -0,0 +1,279 @@
+package logist.history;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import logist.LogistException;
+import logist.LogistSettings.Detail;
+
+/**
+ * Writes a history in the binary format of {@link BinaryHistoryReader}.
+ * <p>
+ * A file starts with {@link #MAGIC}, the {@link #VERSION} byte, the
+ * configuration and the ordinal of its {@link Detail}, followed by records
+ * that each start with a tag byte. Files of version 1 have no detail and
+ * include all events. The last record is {@link #END}. Numbers are written
+ * as variable-length integers of seven bits per byte, signed ones in zigzag
+ * encoding, and strings as their length and their UTF-8 bytes.
+ * <p>
+ * The names of agents, vehicles and cities are written once, as
+ * {@link #STRING} records that append them to a string table, and are
+ * referred to by their index in the table. The events are written in blocks
+ * of up to {@link #BLOCK} events, one column after the other: the ids and the
+ * times as differences to the previous event of the round, then the vehicles,
+ * the types and the cities or tasks of the events. A task that arrives during
+ * the round ends the block of the events before it.
+ */
+class BinaryHistoryWriter extends HistoryWriter {
+
+    static final int MAGIC = 0x4c4f4748; // "LOGH"
+    static final int VERSION = 2;
+
+    // record tags
+    static final int END = 0;
+    static final int STRING = 1;
+    static final int AGENT = 2;
+    static final int VEHICLE = 3;
+    static final int ROUND = 4;
+    static final int TASK = 5;
+    static final int BID = 6;
+    static final int EVENTS = 7;
+    static final int STAT = 8;
+
+    // event types
+    static final int MOVE = 0;
+    static final int PICKUP = 1;
+    static final int DELIVER = 2;
+
+    /** The largest number of events in a block */
+    static final int BLOCK = 4096;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[1 << 16];
+    private int length;
+
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    // the events of the current block
+    private final int[] ids = new int[BLOCK];
+    private final long[] times = new long[BLOCK];
+    private final int[] vehicles = new int[BLOCK];
+    private final byte[] types = new byte[BLOCK];
+    private final int[] targets = new int[BLOCK];
+    private int count;
+
+    // the last event of the round
+    private int lastId;
+    private long lastTime;
+
+    BinaryHistoryWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void history(String configuration, Detail detail) {
+        writeLong(MAGIC, 4);
+        put(VERSION);
+        writeString(configuration);
+        put(detail.ordinal());
+    }
+
+    @Override
+    public void agent(String name) {
+        int agent = index(name);
+        put(AGENT);
+        writeVarLong(agent);
+    }
+
+    @Override
+    public void vehicle(String name) {
+        int vehicle = index(name);
+        put(VEHICLE);
+        writeVarLong(vehicle);
+    }
+
+    @Override
+    public void round(int id) {
+        writeEvents();
+        put(ROUND);
+        writeVarLong(id);
+        lastId = -1;
+        lastTime = 0L;
+    }
+
+    @Override
+    public void task(int id, String pickup, String delivery, int weight,
+            long reward) {
+        // a task that arrived follows the events before it
+        writeEvents();
+        int from = index(pickup);
+        int to = index(delivery);
+        put(TASK);
+        writeVarLong(id);
+        writeVarLong(from);
+        writeVarLong(to);
+        writeSigned(weight);
+        writeSigned(reward);
+    }
+
+    @Override
+    public void bid(String agent, long bid) {
+        int bidder = index(agent);
+        put(BID);
+        writeVarLong(bidder);
+        writeSigned(bid);
+    }
+
+    @Override
+    public void move(int id, long time, String vehicle, String city) {
+        event(id, time, vehicle, MOVE, index(city));
+    }
+
+    @Override
+    public void pickup(int id, long time, String vehicle, int task) {
+        event(id, time, vehicle, PICKUP, task);
+    }
+
+    @Override
+    public void deliver(int id, long time, String vehicle, int task) {
+        event(id, time, vehicle, DELIVER, task);
+    }
+
+    private void event(int id, long time, String vehicle, int type,
+            int target) {
+        ids[count] = id;
+        times[count] = time;
+        vehicles[count] = index(vehicle);
+        types[count] = (byte) type;
+        targets[count] = target;
+        if (++count == BLOCK)
+            writeEvents();
+    }
+
+    @Override
+    public void stat(int rank, String agent, int totalTasks,
+            double totalDistance, long totalCost, long totalReward,
+            long totalProfit) {
+        writeEvents();
+        int name = index(agent);
+        put(STAT);
+        writeVarLong(rank);
+        writeVarLong(name);
+        writeSigned(totalTasks);
+        writeLong(Double.doubleToLongBits(totalDistance), 8);
+        writeSigned(totalCost);
+        writeSigned(totalReward);
+        writeSigned(totalProfit);
+    }
+
+    @Override
+    public void end() {
+        writeEvents();
+        put(END);
+        flush();
+        try {
+            out.close();
+        } catch (IOException ioEx) {
+            throw new LogistException("Could not write history", ioEx);
+        }
+    }
+
+    @Override
+    void flush() {
+        writeEvents();
+        try {
+            out.write(buffer, 0, length);
+            out.flush();
+        } catch (IOException ioEx) {
+            throw new LogistException("Could not write history", ioEx);
+        }
+        length = 0;
+    }
+
+    /**
+     * Writes the events of the current block, column by column.
+     */
+    private void writeEvents() {
+        if (count == 0)
+            return;
+
+        put(EVENTS);
+        writeVarLong(count);
+        for (int i = 0; i < count; i++) {
+            writeSigned(ids[i] - lastId);
+            lastId = ids[i];
+        }
+        for (int i = 0; i < count; i++) {
+            writeSigned(times[i] - lastTime);
+            lastTime = times[i];
+        }
+        for (int i = 0; i < count; i++)
+            writeVarLong(vehicles[i]);
+        for (int i = 0; i < count; i++)
+            put(types[i]);
+        for (int i = 0; i < count; i++)
+            writeVarLong(targets[i]);
+        count = 0;
+    }
+
+    /**
+     * Returns the index of a string in the string table, adding it first if
+     * it is new.
+     */
+    private int index(String string) {
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+            put(STRING);
+            writeString(string);
+        }
+        return index;
+    }
+
+    /* Encoding */
+
+    private void put(int b) {
+        if (length == buffer.length) {
+            try {
+                out.write(buffer, 0, length);
+            } catch (IOException ioEx) {
+                throw new LogistException("Could not write history", ioEx);
+            }
+            length = 0;
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            put((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        put((int) value);
+    }
+
+    private void writeSigned(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /** Writes the lowest bytes of a value, most significant first */
+    private void writeLong(long value, int bytes) {
+        for (int shift = 8 * (bytes - 1); shift >= 0; shift -= 8)
+            put((int) (value >>> shift));
+    }
+
+    private void writeString(String string) {
+        byte[] bytes;
+        try {
+            bytes = string.getBytes("UTF-8");
+        } catch (IOException ioEx) {
+            throw new LogistException("Could not write history", ioEx);
+        }
+        writeVarLong(bytes.length);
+        for (byte b : bytes)
+            put(b);
+    }
+}
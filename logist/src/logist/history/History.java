@@ -1,18 +1,32 @@
 package logist.history;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.zip.Deflater;
 
 import logist.agent.AgentStatistics;
 
+import logist.LogistSettings.Detail;
 import logist.task.Task;
+import logist.topology.Topology.City;
 
 import static logist.history.History.State.*;
 
 /**
- * Records the history of a simulation and writes it to an XML file.
+ * Records the history of a simulation and writes it to an XML file, or to a
+ * binary file as described in {@link HistoryFiles}.
+ * <p>
+ * The events, which make up most of a history, are not written by the thread
+ * of the simulation. They are put into a bounded ring buffer that a writer
+ * thread drains in batches; the simulation waits when the buffer is full. All
+ * other records first wait for the pending events, so the file is the same as
+ * if everything was written in order by one thread. {@link #flush()} and
+ * {@link #close()} return once everything has been written, and the writer
+ * thread only runs between them and the next event.
+ * <p>
+ * A history can leave out the auctions and the events with a lower
+ * {@link Detail}. Its records are still checked in the same order.
  * 
  * @author Robin Steiger
  */
@@ -21,151 +35,227 @@ public class History {
         INIT, AGENTS, ROUNDS, TASKS, EVENTS, STATS
     }
 
-    private XMLWriter writer;
+
+    /** The number of events that can be pending */
+    private static final int CAPACITY = 4096;
+
+    private final HistoryWriter writer;
     private State state = INIT;
+    private final Detail detail;
+
+    // the ring buffer of pending events, guarded by this history
+    private final int[] ids = new int[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private final Event.Type[] types = new Event.Type[CAPACITY];
+    private final String[] vehicles = new String[CAPACITY];
+    private final City[] cities = new City[CAPACITY];
+    private final int[] taskIds = new int[CAPACITY];
+    private int head;
+    private int count;
+
+    private Thread thread; // the writer thread, null when it is stopped
+    private RuntimeException failure; // thrown by the writer thread
 
     public History(File file, String config) {
+        this(file, config, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Writes the history to a file that is compressed with the given level
+     * if its name ends with {@link HistoryFiles#GZIP_EXTENSION}.
+     *
+     * @param level
+     *            the compression level from 0 to 9, or -1 for the default
+     *            level
+     */
+    public History(File file, String config, int level) {
+        this(file, config, level, Detail.EVENTS);
+    }
+
+    /**
+     * Writes the records of the given detail to a file that is compressed
+     * with the given level if its name ends with
+     * {@link HistoryFiles#GZIP_EXTENSION}.
+     */
+    public History(File file, String config, int level, Detail detail) {
+        this(open(file, level), config, detail);
+    }
+
+    /**
+     * Writes the history as XML to a character stream, which is closed along
+     * with the history.
+     */
+    public History(Writer out, String config) {
+        this(out, config, Detail.EVENTS);
+    }
+
+    /**
+     * Writes the records of the given detail as XML to a character stream,
+     * which is closed along with the history.
+     */
+    public History(Writer out, String config, Detail detail) {
+        this(new XMLHistoryWriter(out), config, detail);
+    }
+
+    private History(HistoryWriter writer, String config, Detail detail) {
+        this.writer = writer;
+        this.detail = detail;
+        writer.history(config, detail);
+    }
+
+    private static HistoryWriter open(File file, int level) {
         try {
-            this.writer = new XMLWriter(
-                    new BufferedWriter(new FileWriter(file)));
-            writer.writeTag("history");
-            writer.writeAttribute("configuration", config);
+            return HistoryFiles.open(file, level);
         } catch (IOException ioEx) {
             throw new XMLWritingException(ioEx);
         }
     }
 
+    /**
+     * Whether the records of a level are written. Callers can skip building
+     * the records that are left out.
+     */
+    public boolean includes(Detail level) {
+        return level.compareTo(detail) <= 0;
+    }
+
     public void addAgent(String name) {
-        if (state == INIT) {
-            writer.writeTag("agents");
-            state = AGENTS;
-        } else if (state == AGENTS) {
-            writer.endTag(); // close agent tag
-        } else
-            expectState(AGENTS); // will fail
+        drain();
+        if (state != INIT)
+            expectState(AGENTS);
 
-        writer.writeTag("agent");
-        writer.writeAttribute("name", name);
+        writer.agent(name);
+        state = AGENTS;
     }
 
     public void addVehicle(String name) {
+        drain();
         expectState(AGENTS);
 
-        writer.writeTag("vehicle");
-        writer.writeAttribute("name", name);
-        writer.endTag();
+        writer.vehicle(name);
     }
 
     public void addRound(int round) {
-        if (state == AGENTS) {
-            writer.endTag(); // close agent tag
-            writer.endTag(); // close agents tag
-            writer.writeTag("rounds");
-            state = ROUNDS;
-        } else if (state == EVENTS) {
-            writer.endTag(); // close events tag
-            writer.endTag(); // close round tag
-            state = ROUNDS;
-        } else
-            expectState(AGENTS); // will fail
-
-        writer.writeTag("round");
-        writer.writeAttribute("id", round);
+        drain();
+        if (state != EVENTS && state != TASKS)
+            expectState(AGENTS);
+
+        if (includes(Detail.AUCTIONS))
+            writer.round(round);
+        state = ROUNDS;
     }
 
+    /**
+     * Adds a task that is auctioned at the beginning of the round or, after
+     * some events, a task that arrived during the round.
+     */
     public void addTask(Task task) {
-        if (state == ROUNDS) {
-            writer.writeTag("tasks");
-            state = TASKS;
-        } else if (state == TASKS) {
-            writer.endTag(); // close tasks tag
-        } else
+        drain();
+        if (state != ROUNDS && state != EVENTS)
             expectState(TASKS);
 
-        writer.writeTag("task");
-        writer.writeAttribute("id", task.id);
-        writer.writeAttribute("pickup", task.pickupCity);
-        writer.writeAttribute("delivery", task.deliveryCity);
-        writer.writeAttribute("weight", task.weight);
-        writer.writeAttribute("reward", task.reward);
+        if (includes(Detail.AUCTIONS))
+            writer.task(task.id, task.pickupCity.name,
+                    task.deliveryCity.name, task.weight, task.reward);
+        state = TASKS;
     }
 
     public void addBid(String agent, long bid) {
+        drain();
         expectState(TASKS);
 
-        writer.writeTag("bid");
-        writer.writeAttribute("agent", agent);
-        writer.writeAttribute("bid", bid);
-        writer.endTag();
+        if (includes(Detail.AUCTIONS))
+            writer.bid(agent, bid);
     }
 
+    /**
+     * Queues an event for the writer thread, waiting while the buffer is
+     * full.
+     */
     public void addEvent(int id, Event event) {
-        if (state == TASKS) {
-            writer.endTag(); // close task tag
-            writer.endTag(); // close tasks tag
-            writer.writeTag("events");
+        if (state == TASKS)
             state = EVENTS;
-        } else
+        else
             expectState(EVENTS);
+        if (!includes(Detail.EVENTS))
+            return;
+
+        synchronized (this) {
+            boolean interrupted = false;
+            while (count == CAPACITY && failure == null)
+                interrupted |= await();
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (failure != null)
+                throw failure;
 
-        writer.writeTag("event");
-        writer.writeAttribute("id", id);
-        writer.writeAttribute("time", event.time);
-        writer.writeAttribute("vehicle", event.vehicle.name());
-        writer.writeAttribute(event.type.toString(), event.action());
-        writer.endTag();
+            int slot = (head + count) % CAPACITY;
+            ids[slot] = id;
+            times[slot] = event.time;
+            types[slot] = event.type;
+            vehicles[slot] = event.vehicle.name();
+            cities[slot] = event.city;
+            taskIds[slot] = (event.task == null) ? -1 : event.task.id;
+            if (count++ == 0)
+                notifyAll();
+
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeEvents();
+                    }
+                }, "History writer");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
     }
 
     public void addStat(int rank, AgentStatistics agent) {
-        if (state == EVENTS) {
-            writer.endTag(); // close events tag
-            writer.endTag(); // close round tag
-            writer.endTag(); // close rounds tag
-            writer.writeTag("statistics");
-            state = STATS;
-        } else if (state == TASKS) {
-            writer.endTag(); // close task tag
-            writer.endTag(); // close tasks tag
-            writer.endTag(); // close round tag
-            writer.endTag(); // close rounds tag
-            writer.writeTag("statistics");
-            state = STATS;
-        } else
+        drain();
+        if (state != EVENTS && state != TASKS)
             expectState(STATS);
 
-        writer.writeTag("stat");
-        writer.writeAttribute("rank", rank);
-        writer.writeAttribute("agent", agent.name());
-
-        writer.writeTag("total-tasks");
-        writer.writeAttribute("value", agent.getTotalTasks());
-        writer.endTag();
-        writer.writeTag("total-distance");
-        writer.writeAttribute("value", agent.getTotalDistance());
-        writer.endTag();
-        writer.writeTag("total-cost");
-        writer.writeAttribute("value", agent.getTotalCost());
-        writer.endTag();
-        writer.writeTag("total-reward");
-        writer.writeAttribute("value", agent.getTotalReward());
-        writer.endTag();
-        writer.writeTag("total-profit");
-        writer.writeAttribute("value", agent.getTotalProfit());
-        writer.endTag();
-
-        writer.endTag();
+        writer.stat(rank, agent.name(), agent.getTotalTasks(), agent
+                .getTotalDistance(), agent.getTotalCost(), agent
+                .getTotalReward(), agent.getTotalProfit());
+        state = STATS;
     }
 
+    /**
+     * Writes the pending events, stops the writer thread and flushes the
+     * underlying stream.
+     */
     public void flush() {
+        drain();
+
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (stopped != null) {
+            boolean interrupted = false;
+            while (stopped.isAlive()) {
+                try {
+                    stopped.join();
+                } catch (InterruptedException iEx) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
         writer.flush();
     }
 
     public void close() {
+        flush();
         expectState(STATS);
 
-        writer.endTag(); // close statistics tag
-        writer.endTag(); // close history tag
-        writer.close();
+        writer.end();
     }
 
     private void expectState(State expected) {
@@ -175,4 +265,97 @@ public class History {
                     + ", but expected " + expected);
         }
     }
+
+    /* Writer thread */
+
+    /**
+     * Waits until the writer thread has written all pending events.
+     * 
+     * @throws XMLWritingException
+     *             if the writer thread failed
+     */
+    private synchronized void drain() {
+        boolean interrupted = false;
+        while (count > 0 && failure == null)
+            interrupted |= await();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Waits on this history. The waits are not given up when the thread is
+     * interrupted, since the history would be incomplete; the caller restores
+     * the interrupt once it is done.
+     * 
+     * @return whether the thread was interrupted
+     */
+    private boolean await() {
+        try {
+            wait();
+            return false;
+        } catch (InterruptedException iEx) {
+            return true;
+        }
+    }
+
+    /**
+     * The loop of the writer thread. Each batch is a run of pending events
+     * that are consecutive in the buffer; their slots are only given back
+     * once they are written.
+     */
+    private void writeEvents() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            int first;
+            int batch;
+            synchronized (this) {
+                while (count == 0 && thread == self)
+                    await(); // nobody interrupts the writer thread
+                if (count == 0)
+                    return;
+                first = head;
+                batch = Math.min(count, CAPACITY - head);
+            }
+
+            try {
+                for (int slot = first; slot < first + batch; slot++)
+                    writeEvent(slot);
+            } catch (RuntimeException ex) {
+                synchronized (this) {
+                    failure = ex;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                for (int slot = first; slot < first + batch; slot++) {
+                    vehicles[slot] = null;
+                    cities[slot] = null;
+                }
+                head = (head + batch) % CAPACITY;
+                count -= batch;
+                notifyAll();
+            }
+        }
+    }
+
+    private void writeEvent(int slot) {
+        switch (types[slot]) {
+        case MOVE:
+            writer.move(ids[slot], times[slot], vehicles[slot],
+                    cities[slot].name);
+            break;
+        case PICKUP:
+            writer.pickup(ids[slot], times[slot], vehicles[slot],
+                    taskIds[slot]);
+            break;
+        case DELIVER:
+            writer.deliver(ids[slot], times[slot], vehicles[slot],
+                    taskIds[slot]);
+            break;
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package logist.history;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads, writes and converts history files. A history is written as XML, or
+ * in the more compact binary format if the name of the file ends with
+ * {@link #BINARY_EXTENSION}. Either format is compressed with gzip if the
+ * name ends with {@link #GZIP_EXTENSION} too, as in <tt>history.xml.gz</tt>.
+ * When reading, the format and the compression are told from the first bytes
+ * of the file.
+ *
+ * <pre>
+ * HistoryFiles.convert(new File("history.xml"), new File("history.bin.gz"));
+ * </pre>
+ */
+public final class HistoryFiles {
+
+    /** The extension of history files in the binary format */
+    public static final String BINARY_EXTENSION = ".bin";
+
+    /** The extension of compressed history files, after that of the format */
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private HistoryFiles() {
+    }
+
+    /**
+     * Whether a history file is in the binary format.
+     */
+    public static boolean isBinary(File file) throws IOException {
+        InputStream stream = input(file);
+        try {
+            return isBinary(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Passes the records of a history file to a handler.
+     *
+     * @throws IOException
+     *             if the file cannot be read or is not a complete history
+     */
+    public static void read(File file, HistoryHandler handler)
+            throws IOException {
+        InputStream stream = input(file);
+        try {
+            stream.mark(4);
+            boolean binary = isBinary(stream);
+            stream.reset();
+
+            if (binary)
+                new BinaryHistoryReader(stream).read(handler);
+            else
+                new XMLHistoryReader(stream).read(handler);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Opens a history file for reading. The stream is buffered and, if the
+     * file is compressed, decompresses it.
+     */
+    public static InputStream input(File file) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(file),
+                BUFFER_SIZE);
+        stream.mark(2);
+        int magic = stream.read() | (stream.read() << 8);
+        stream.reset();
+
+        if (magic == GZIPInputStream.GZIP_MAGIC)
+            stream = new BufferedInputStream(new GZIPInputStream(stream,
+                    BUFFER_SIZE), BUFFER_SIZE);
+        return stream;
+    }
+
+    /**
+     * Converts a history file into the format given by the name of the
+     * output file, compressed with the default level.
+     */
+    public static void convert(File from, File to) throws IOException {
+        read(from, open(to, Deflater.DEFAULT_COMPRESSION));
+    }
+
+    /**
+     * Opens a history file for writing in the format given by its name. The
+     * file is synced to the disk when the history ends.
+     *
+     * @param level
+     *            the compression level from 0 to 9 if the file is compressed,
+     *            or -1 for the default level
+     */
+    static HistoryWriter open(File file, int level) throws IOException {
+        OutputStream stream = new FileOutputStream(file) {
+            @Override
+            public void close() throws IOException {
+                getFD().sync();
+                super.close();
+            }
+        };
+
+        String name = file.getName();
+        if (name.endsWith(GZIP_EXTENSION)) {
+            stream = new ParallelGzipOutputStream(stream, level);
+            name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+        }
+
+        if (name.endsWith(BINARY_EXTENSION))
+            return new BinaryHistoryWriter(stream);
+        return new XMLHistoryWriter(stream);
+    }
+
+    private static boolean isBinary(InputStream stream) throws IOException {
+        int magic = 0;
+        for (int i = 0; i < 4; i++)
+            magic = (magic << 8) | (stream.read() & 0xff);
+        return magic == BinaryHistoryWriter.MAGIC;
+    }
+}
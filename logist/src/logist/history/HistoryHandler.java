@@ -0,0 +1,57 @@
+package logist.history;
+
+import logist.LogistSettings.Detail;
+
+/**
+ * Receives the records of a history in the order of the file: the
+ * configuration, the agents and their vehicles, then for each round its
+ * auctions and its events, then the statistics of the agents by rank. A
+ * history of a lower {@link Detail} leaves out the rounds or the events.
+ * <p>
+ * The history writers are handlers, and {@link HistoryFiles#read} passes the
+ * records of a file to a handler. The methods do nothing by default, so a
+ * handler only overrides the records it needs.
+ */
+public abstract class HistoryHandler {
+
+    /**
+     * @param detail
+     *            the records that the history includes
+     */
+    public void history(String configuration, Detail detail) {
+    }
+
+    public void agent(String name) {
+    }
+
+    public void vehicle(String name) {
+    }
+
+    public void round(int id) {
+    }
+
+    public void task(int id, String pickup, String delivery, int weight,
+            long reward) {
+    }
+
+    public void bid(String agent, long bid) {
+    }
+
+    public void move(int id, long time, String vehicle, String city) {
+    }
+
+    public void pickup(int id, long time, String vehicle, int task) {
+    }
+
+    public void deliver(int id, long time, String vehicle, int task) {
+    }
+
+    public void stat(int rank, String agent, int totalTasks,
+            double totalDistance, long totalCost, long totalReward,
+            long totalProfit) {
+    }
+
+    /** The end of the history */
+    public void end() {
+    }
+}
@@ -0,0 +1,11 @@
+package logist.history;
+
+/**
+ * A handler that writes the records of a history to a stream. The stream is
+ * closed at the end of the history.
+ */
+abstract class HistoryWriter extends HistoryHandler {
+
+    /** Writes the records so far to the underlying stream */
+    abstract void flush();
+}
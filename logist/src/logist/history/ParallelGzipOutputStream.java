@@ -0,0 +1,233 @@
+package logist.history;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that compresses its data in the gzip format, deflating
+ * blocks of the data in parallel.
+ * <p>
+ * Each block is deflated on its own, with the end of the previous block as
+ * dictionary, and all but the last block end with a sync flush on a byte
+ * boundary. The deflated blocks therefore form a single deflate stream when
+ * they are written one after the other. The blocks are deflated by a pool of
+ * daemon threads shared by all streams; the writing thread only computes the
+ * checksum and waits when too many blocks are pending.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK = 1 << 17;
+    private static final int DICTIONARY = 1 << 15;
+
+    private static final int THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    /** The number of blocks that can be pending per thread */
+    private static final int PENDING = 2;
+
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b,
+            Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static ExecutorService executor = Executors.newFixedThreadPool(
+            THREADS, new ThreadFactory() {
+                private final ThreadFactory factory = Executors
+                        .defaultThreadFactory();
+
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = factory.newThread(task);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final OutputStream out;
+    private final int level;
+
+    private final CRC32 crc = new CRC32();
+    private long size;
+
+    private byte[] block = new byte[BLOCK];
+    private int length;
+
+    // the last block handed to the pool, the dictionary of the next one
+    private byte[] previous;
+    private int previousLength;
+
+    // the pending blocks in order and their deflated bytes
+    private final LinkedList<byte[]> blocks = new LinkedList<byte[]>();
+    private final LinkedList<Future<byte[]>> deflated =
+            new LinkedList<Future<byte[]>>();
+
+    // the block of the last deflated bytes written, still a dictionary
+    private byte[] written;
+    private final List<byte[]> free = new ArrayList<byte[]>();
+
+    private boolean closed;
+
+    /**
+     * @param level
+     *            the compression level from 0 to 9, or -1 for the default
+     *            level of {@link Deflater}
+     */
+    ParallelGzipOutputStream(OutputStream out, int level) throws IOException {
+        if (level < -1 || level > 9)
+            throw new IllegalArgumentException("Invalid compression level "
+                    + level);
+        this.out = out;
+        this.level = level;
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[length++] = (byte) b;
+        if (length == BLOCK)
+            submit(false);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = Math.min(len, BLOCK - length);
+            System.arraycopy(b, off, block, length, count);
+            length += count;
+            off += count;
+            len -= count;
+            if (length == BLOCK)
+                submit(false);
+        }
+    }
+
+    /**
+     * Deflates the data so far, writes it to the underlying stream and
+     * flushes it.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (length > 0)
+            submit(false);
+        while (!deflated.isEmpty())
+            writeDeflated();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        submit(true);
+        while (!deflated.isEmpty())
+            writeDeflated();
+
+        writeInt((int) crc.getValue());
+        writeInt((int) size);
+        out.close();
+    }
+
+    /**
+     * Hands the current block to the pool.
+     */
+    private void submit(final boolean last) throws IOException {
+        final byte[] input = block;
+        final int inputLength = length;
+        final byte[] dictionary = previous;
+        final int dictionaryLength = previousLength;
+
+        crc.update(input, 0, inputLength);
+        size += inputLength;
+
+        deflated.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return deflate(input, inputLength, dictionary,
+                        dictionaryLength, last);
+            }
+        }));
+        blocks.add(input);
+        previous = input;
+        previousLength = inputLength;
+
+        block = free.isEmpty() ? new byte[BLOCK] : free
+                .remove(free.size() - 1);
+        length = 0;
+
+        while (deflated.size() > PENDING * THREADS)
+            writeDeflated();
+    }
+
+    /**
+     * Waits for the first pending block and writes its deflated bytes.
+     */
+    private void writeDeflated() throws IOException {
+        byte[] bytes;
+        try {
+            bytes = deflated.removeFirst().get();
+        } catch (InterruptedException iEx) {
+            throw new InterruptedIOException("Interrupted while deflating");
+        } catch (ExecutionException eEx) {
+            throw new IOException("Could not deflate: " + eEx.getCause());
+        }
+        out.write(bytes);
+
+        // the block before is no dictionary anymore
+        if (written != null)
+            free.add(written);
+        written = blocks.removeFirst();
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private byte[] deflate(byte[] input, int inputLength, byte[] dictionary,
+            int dictionaryLength, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int count = Math.min(DICTIONARY, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - count,
+                        count);
+            }
+            deflater.setInput(input, 0, inputLength);
+            if (last)
+                deflater.finish();
+
+            byte[] output = new byte[inputLength / 2 + 64];
+            int outputLength = 0;
+            while (true) {
+                if (outputLength == output.length)
+                    output = Arrays.copyOf(output, 2 * output.length);
+                int space = output.length - outputLength;
+                int count = last ? deflater.deflate(output, outputLength,
+                        space) : deflater.deflate(output, outputLength,
+                        space, Deflater.SYNC_FLUSH);
+                outputLength += count;
+
+                // a flush is complete when it leaves space in the output
+                if (last ? deflater.finished() : count < space)
+                    return Arrays.copyOf(output, outputLength);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package logist.history;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import logist.LogistSettings.Detail;
+
+/**
+ * Reads a history written by {@link XMLHistoryWriter} and passes its records
+ * to a handler. The file is streamed, so it is never held in memory.
+ */
+class XMLHistoryReader {
+
+    private final XMLStreamReader in;
+
+    // the statistics of the current agent
+    private int rank;
+    private String agent;
+    private int totalTasks;
+    private double totalDistance;
+    private long totalCost;
+    private long totalReward;
+    private long totalProfit;
+
+    XMLHistoryReader(InputStream stream) throws IOException {
+        try {
+            this.in = XMLInputFactory.newInstance().createXMLStreamReader(
+                    stream);
+        } catch (XMLStreamException xsEx) {
+            throw new IOException("Could not read history: "
+                    + xsEx.getMessage());
+        }
+    }
+
+    void read(HistoryHandler handler) throws IOException {
+        try {
+            while (in.hasNext()) {
+                int type = in.next();
+                if (type == XMLStreamConstants.START_ELEMENT)
+                    start(handler, in.getLocalName());
+                else if (type == XMLStreamConstants.END_ELEMENT)
+                    end(handler, in.getLocalName());
+            }
+            in.close();
+        } catch (XMLStreamException xsEx) {
+            throw new IOException("Could not read history: "
+                    + xsEx.getMessage());
+        }
+    }
+
+    private void start(HistoryHandler handler, String tag)
+            throws IOException {
+        if (tag.equals("history")) {
+            handler.history(attribute("configuration"), detail());
+        } else if (tag.equals("agent")) {
+            handler.agent(attribute("name"));
+        } else if (tag.equals("vehicle")) {
+            handler.vehicle(attribute("name"));
+        } else if (tag.equals("round")) {
+            handler.round(number("id"));
+        } else if (tag.equals("task")) {
+            handler.task(number("id"), attribute("pickup"),
+                    attribute("delivery"), number("weight"), amount("reward"));
+        } else if (tag.equals("bid")) {
+            handler.bid(attribute("agent"), amount("bid"));
+        } else if (tag.equals("event")) {
+            int id = number("id");
+            long time = amount("time");
+            String vehicle = attribute("vehicle");
+            if (in.getAttributeValue(null, "move") != null)
+                handler.move(id, time, vehicle, attribute("move"));
+            else if (in.getAttributeValue(null, "pickup") != null)
+                handler.pickup(id, time, vehicle, number("pickup"));
+            else
+                handler.deliver(id, time, vehicle, number("deliver"));
+        } else if (tag.equals("stat")) {
+            rank = number("rank");
+            agent = attribute("agent");
+        } else if (tag.equals("total-tasks")) {
+            totalTasks = number("value");
+        } else if (tag.equals("total-distance")) {
+            try {
+                totalDistance = Double.parseDouble(attribute("value"));
+            } catch (NumberFormatException nfEx) {
+                throw badNumber("value");
+            }
+        } else if (tag.equals("total-cost")) {
+            totalCost = amount("value");
+        } else if (tag.equals("total-reward")) {
+            totalReward = amount("value");
+        } else if (tag.equals("total-profit")) {
+            totalProfit = amount("value");
+        }
+    }
+
+    private void end(HistoryHandler handler, String tag) {
+        if (tag.equals("stat"))
+            handler.stat(rank, agent, totalTasks, totalDistance, totalCost,
+                    totalReward, totalProfit);
+        else if (tag.equals("history"))
+            handler.end();
+    }
+
+    /* Attributes */
+
+    private String attribute(String name) throws IOException {
+        String value = in.getAttributeValue(null, name);
+        if (value == null)
+            throw new IOException("Missing attribute " + name + " in <"
+                    + in.getLocalName() + ">");
+        return value;
+    }
+
+    // a history without detail has all events
+    private Detail detail() throws IOException {
+        String value = in.getAttributeValue(null, "detail");
+        if (value == null)
+            return Detail.EVENTS;
+        try {
+            return Detail.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException iaEx) {
+            throw new IOException("Unknown detail " + value);
+        }
+    }
+
+    private int number(String name) throws IOException {
+        try {
+            return Integer.parseInt(attribute(name));
+        } catch (NumberFormatException nfEx) {
+            throw badNumber(name);
+        }
+    }
+
+    private long amount(String name) throws IOException {
+        try {
+            return Long.parseLong(attribute(name));
+        } catch (NumberFormatException nfEx) {
+            throw badNumber(name);
+        }
+    }
+
+    private IOException badNumber(String name) {
+        return new IOException("Bad number " + name + "=\""
+                + in.getAttributeValue(null, name) + "\" in <"
+                + in.getLocalName() + ">");
+    }
+}
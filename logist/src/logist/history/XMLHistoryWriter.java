@@ -0,0 +1,204 @@
+package logist.history;
+
+import java.io.OutputStream;
+import java.io.Writer;
+
+import logist.LogistSettings.Detail;
+
+import static logist.history.History.State.*;
+
+/**
+ * Writes a history as XML. The tags of the agents, rounds, tasks and events
+ * are closed when the next record does not belong to them. A task that
+ * arrives during the round is written among the events, with its bids. The
+ * detail of a reduced history is an attribute of its root tag.
+ */
+class XMLHistoryWriter extends HistoryWriter {
+
+    private final XMLWriter writer;
+    private History.State state = INIT;
+    private boolean arrival; // whether a task among the events is open
+
+    XMLHistoryWriter(Writer out) {
+        this.writer = new XMLWriter(out);
+    }
+
+    XMLHistoryWriter(OutputStream out) {
+        this.writer = new XMLWriter(out);
+    }
+
+    @Override
+    public void history(String configuration, Detail detail) {
+        writer.writeTag("history");
+        writer.writeAttribute("configuration", configuration);
+        if (detail != Detail.EVENTS)
+            writer.writeAttribute("detail", detail.name().toLowerCase());
+    }
+
+    @Override
+    public void agent(String name) {
+        if (state == INIT) {
+            writer.writeTag("agents");
+            state = AGENTS;
+        } else
+            writer.endTag(); // close agent tag
+
+        writer.writeTag("agent");
+        writer.writeAttribute("name", name);
+    }
+
+    @Override
+    public void vehicle(String name) {
+        writer.writeTag("vehicle");
+        writer.writeAttribute("name", name);
+        writer.endTag();
+    }
+
+    @Override
+    public void round(int id) {
+        if (state == AGENTS) {
+            writer.endTag(); // close agent tag
+            writer.endTag(); // close agents tag
+            writer.writeTag("rounds");
+        } else if (state == EVENTS) {
+            endArrival();
+            writer.endTag(); // close events tag
+            writer.endTag(); // close round tag
+        } else if (state == TASKS) {
+            writer.endTag(); // close task tag
+            writer.endTag(); // close tasks tag
+            writer.endTag(); // close round tag
+        }
+        state = ROUNDS;
+
+        writer.writeTag("round");
+        writer.writeAttribute("id", id);
+    }
+
+    @Override
+    public void task(int id, String pickup, String delivery, int weight,
+            long reward) {
+        if (state == ROUNDS) {
+            writer.writeTag("tasks");
+            state = TASKS;
+        } else if (state == TASKS || arrival)
+            writer.endTag(); // close task tag
+        arrival = (state == EVENTS);
+
+        writer.writeTag("task");
+        writer.writeAttribute("id", id);
+        writer.writeAttribute("pickup", pickup);
+        writer.writeAttribute("delivery", delivery);
+        writer.writeAttribute("weight", weight);
+        writer.writeAttribute("reward", reward);
+    }
+
+    @Override
+    public void bid(String agent, long bid) {
+        writer.writeTag("bid");
+        writer.writeAttribute("agent", agent);
+        writer.writeAttribute("bid", bid);
+        writer.endTag();
+    }
+
+    @Override
+    public void move(int id, long time, String vehicle, String city) {
+        beginEvent(id, time, vehicle);
+        writer.writeAttribute("move", city);
+        writer.endTag();
+    }
+
+    @Override
+    public void pickup(int id, long time, String vehicle, int task) {
+        beginEvent(id, time, vehicle);
+        writer.writeAttribute("pickup", task);
+        writer.endTag();
+    }
+
+    @Override
+    public void deliver(int id, long time, String vehicle, int task) {
+        beginEvent(id, time, vehicle);
+        writer.writeAttribute("deliver", task);
+        writer.endTag();
+    }
+
+    private void beginEvent(int id, long time, String vehicle) {
+        if (state == TASKS) {
+            writer.endTag(); // close task tag
+            writer.endTag(); // close tasks tag
+            writer.writeTag("events");
+            state = EVENTS;
+        } else
+            endArrival();
+
+        writer.writeTag("event");
+        writer.writeAttribute("id", id);
+        writer.writeAttribute("time", time);
+        writer.writeAttribute("vehicle", vehicle);
+    }
+
+    private void endArrival() {
+        if (arrival) {
+            writer.endTag(); // close task tag
+            arrival = false;
+        }
+    }
+
+    @Override
+    public void stat(int rank, String agent, int totalTasks,
+            double totalDistance, long totalCost, long totalReward,
+            long totalProfit) {
+        if (state == AGENTS) {
+            writer.endTag(); // close agent tag
+            writer.endTag(); // close agents tag
+            writer.writeTag("statistics");
+        } else if (state == EVENTS) {
+            endArrival();
+            writer.endTag(); // close events tag
+            writer.endTag(); // close round tag
+            writer.endTag(); // close rounds tag
+            writer.writeTag("statistics");
+        } else if (state == TASKS) {
+            writer.endTag(); // close task tag
+            writer.endTag(); // close tasks tag
+            writer.endTag(); // close round tag
+            writer.endTag(); // close rounds tag
+            writer.writeTag("statistics");
+        }
+        state = STATS;
+
+        writer.writeTag("stat");
+        writer.writeAttribute("rank", rank);
+        writer.writeAttribute("agent", agent);
+
+        writer.writeTag("total-tasks");
+        writer.writeAttribute("value", totalTasks);
+        writer.endTag();
+        writer.writeTag("total-distance");
+        writer.writeAttribute("value", totalDistance);
+        writer.endTag();
+        writer.writeTag("total-cost");
+        writer.writeAttribute("value", totalCost);
+        writer.endTag();
+        writer.writeTag("total-reward");
+        writer.writeAttribute("value", totalReward);
+        writer.endTag();
+        writer.writeTag("total-profit");
+        writer.writeAttribute("value", totalProfit);
+        writer.endTag();
+
+        writer.endTag();
+    }
+
+    @Override
+    public void end() {
+        writer.endTag(); // close statistics tag
+        writer.endTag(); // close history tag
+        writer.close();
+    }
+
+    @Override
+    void flush() {
+        writer.flush();
+    }
+}
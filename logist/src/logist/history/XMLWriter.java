@@ -1,17 +1,30 @@
 package logist.history;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.util.Stack;
 
 /**
  * A simple writer for XML files.
+ * <p>
+ * The output is encoded in ISO-8859-1 into a reusable buffer, with
+ * characters outside of the charset written as character references. Tags,
+ * strings and whole numbers are written without creating any objects.
  */
 public class XMLWriter {
 
-    private Writer writer; // underlying writer
-    private Stack<String> stack; // stack of open XML tag names
-    private StringBuilder attrs; // current attribute string
+    private static final byte[] HEADER = bytes("<?xml version=\"1.0\" "
+            + "encoding=\"ISO-8859-1\"?>\n");
+
+    private final OutputStream stream; // underlying stream, or null
+    private final Writer writer; // underlying writer, or null
+
+    private final byte[] buffer = new byte[1 << 13];
+    private char[] chars; // the buffer as characters for the writer
+    private int length;
+
+    private String[] stack = new String[16]; // stack of open XML tag names
+    private int depth;
     private boolean empty; // whether the current node is empty
     private boolean closed; // whether the current node was closed
 
@@ -19,85 +32,88 @@ public class XMLWriter {
      * Create an XmlWriter on top of an existing java.io.Writer.
      */
     public XMLWriter(Writer writer) {
+        this(null, writer);
+    }
+
+    /**
+     * Create an XmlWriter that writes the bytes of the document to a stream.
+     */
+    public XMLWriter(OutputStream stream) {
+        this(stream, null);
+    }
+
+    private XMLWriter(OutputStream stream, Writer writer) {
+        this.stream = stream;
         this.writer = writer;
         this.closed = true;
         this.empty = false;
-        this.stack = new Stack<String>();
-        this.attrs = new StringBuilder();
 
-        try {
-            writer.append("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n");
-        } catch (IOException ioEx) {
-            throw new XMLWritingException(ioEx);
-        }
+        for (byte b : HEADER)
+            put(b);
     }
 
     /**
      * Begin to output a tag.
-     * 
+     *
      * @param name
      *            the name of the tag.
      */
     public XMLWriter writeTag(String name) {
-        try {
-            closeOpeningTag();
+        closeOpeningTag();
 
-            newLine();
-            writer.write("<");
-            writer.write(name);
-            stack.add(name);
+        newLine();
+        put('<');
+        putRaw(name);
+        if (depth == stack.length) {
+            String[] larger = new String[2 * depth];
+            System.arraycopy(stack, 0, larger, 0, depth);
+            stack = larger;
+        }
+        stack[depth++] = name;
 
-            closed = false;
-            empty = true;
+        closed = false;
+        empty = true;
 
-            return this;
-        } catch (IOException ioEx) {
-            throw new XMLWritingException(ioEx);
-        }
+        return this;
     }
 
     // close off the opening tag
-    private void closeOpeningTag() throws IOException {
+    private void closeOpeningTag() {
         if (!closed) {
-            writeAttributes();
-            writer.write(">");
+            put('>');
 
             closed = true;
             empty = false;
         }
     }
 
-    // write out all current attributes
-    private void writeAttributes() throws IOException {
-        if (attrs != null) {
-            writer.write(attrs.toString());
-            attrs.setLength(0);
-            empty = false;
-        }
+    private void newLine() {
+        put('\n');
+        for (int level = 0; level < depth; level++)
+            put('\t');
     }
 
-    private void newLine() throws IOException {
-        int level = stack.size();
-        writer.append('\n');
-        while (level-- > 0)
-            writer.append('\t');
+    // begin an attribute of the current tag
+    private void beginAttribute(String name) {
+        put(' ');
+        putRaw(name);
+        put('=');
+        put('"');
     }
 
     /**
      * Write an attribute out for the current tag. Any XML characters in the
      * value are escaped.
-     * 
+     *
      * @param name
      *            the name of the attribute
      * @param value
      *            the value of the attribute
      */
     public XMLWriter writeAttribute(String name, String value) {
-        attrs.append(" ");
-        attrs.append(name);
-        attrs.append("=\"");
-        attrs.append(escapeXml(value));
-        attrs.append("\"");
+        beginAttribute(name);
+        putEscaped(value);
+        put('"');
         return this;
     }
 
@@ -105,7 +121,7 @@ public class XMLWriter {
      * Write an attribute out for the current tag. The value is converted to a
      * string using the <tt>toString</tt> method. Any XML characters in the
      * value are escaped.
-     * 
+     *
      * @param name
      *            the name of the attribute
      * @param value
@@ -115,65 +131,110 @@ public class XMLWriter {
         return writeAttribute(name, value.toString());
     }
 
+    /**
+     * Write a whole number attribute out for the current tag.
+     *
+     * @param name
+     *            the name of the attribute
+     * @param value
+     *            the value of the attribute
+     */
+    public XMLWriter writeAttribute(String name, long value) {
+        beginAttribute(name);
+        putNumber(value);
+        put('"');
+        return this;
+    }
+
+    /**
+     * Write a whole number attribute out for the current tag.
+     *
+     * @param name
+     *            the name of the attribute
+     * @param value
+     *            the value of the attribute
+     */
+    public XMLWriter writeAttribute(String name, int value) {
+        return writeAttribute(name, (long) value);
+    }
+
+    /**
+     * Write a decimal attribute out for the current tag, in the format of
+     * {@link Double#toString(double)}.
+     *
+     * @param name
+     *            the name of the attribute
+     * @param value
+     *            the value of the attribute
+     */
+    public XMLWriter writeAttribute(String name, double value) {
+        beginAttribute(name);
+        putRaw(Double.toString(value));
+        put('"');
+        return this;
+    }
+
     /**
      * End the current tag.
-     * 
+     *
      * @throws XMLWritingException
      *             if there is no open tag
      */
     public XMLWriter endTag() {
-        try {
-            if (stack.empty()) {
-                flush();
-                throw new XMLWritingException(
-                        "Called endTag too many times. ");
-            }
+        if (depth == 0) {
+            flush();
+            throw new XMLWritingException("Called endTag too many times. ");
+        }
 
-            String name = stack.pop();
-            if (name != null) {
-                if (empty) {
-                    writeAttributes();
-                    writer.write("/>");
-                } else {
-                    newLine();
-                    writer.write("</");
-                    writer.write(name);
-                    writer.write(">");
-                }
-                empty = false;
-                closed = true;
-            }
-            return this;
-        } catch (IOException ioEx) {
-            throw new XMLWritingException(ioEx);
+        String name = stack[--depth];
+        stack[depth] = null;
+        if (empty) {
+            put('/');
+            put('>');
+        } else {
+            newLine();
+            put('<');
+            put('/');
+            putRaw(name);
+            put('>');
         }
+        empty = false;
+        closed = true;
+        return this;
     }
 
     public void flush() {
 
         try {
-            writer.flush();
+            drain();
+            if (stream != null)
+                stream.flush();
+            else
+                writer.flush();
         } catch (IOException ioEx) {
             throw new XMLWritingException(ioEx);
         }
     }
 
-    
+
     /**
      * Close this writer and its underlying writer
-     * 
+     *
      * @throws XMLWritingException
      *             if there are unclosed tags.
      */
     public void close() {
-        if (!this.stack.empty()) {
+        if (depth > 0) {
             flush();
-            throw new XMLWritingException("Unclosed tag " + stack.peek());
+            throw new XMLWritingException("Unclosed tag " + stack[depth - 1]);
         }
+        put('\n');
         try {
-            writer.append('\n');
-            writer.flush();
-            writer.close();
+            drain();
+            if (stream != null)
+                stream.close();
+            else
+                writer.close();
         } catch (IOException ioEx) {
             throw new XMLWritingException(ioEx);
         }
@@ -182,55 +243,158 @@ public class XMLWriter {
 
     /**
      * Output body text. Any XML characters are escaped.
-     * 
+     *
      * @param text
      *            the text to be written
      */
     public XMLWriter writeText(String text) {
-        try {
-            closeOpeningTag();
-            newLine();
-            writer.write(escapeXml(text));
+        closeOpeningTag();
+        newLine();
+        putEscaped(text);
 
-            return this;
-        } catch (IOException ioEx) {
-            throw new XMLWritingException(ioEx);
-        }
+        return this;
     }
 
     /**
      * Output a comment. Any XML characters are escaped.
-     * 
+     *
      * @param comment
      *            the text to be written
      */
     public XMLWriter writeComment(String comment) {
-        try {
-            closeOpeningTag();
-            newLine();
-            writer.write("<!-- "+ escapeXml(comment) + " -->");
+        closeOpeningTag();
+        newLine();
+        putRaw("<!-- ");
+        putEscaped(comment);
+        putRaw(" -->");
 
-            return this;
-        } catch (IOException ioEx) {
-            throw new XMLWritingException(ioEx);
-        }
+        return this;
     }
-    
+
     /**
      * @param string
      *            the string to be written to an XML file
      * @return the escaped string
      */
     public static String escapeXml(String string) {
-        string = string.replaceAll("&", "&amp;");
-        string = string.replaceAll("<", "&lt;");
-        string = string.replaceAll(">", "&gt;");
-        string = string.replaceAll("\"", "&quot;");
-        string = string.replaceAll("'", "&apos;");
-        return string;
+        StringBuilder escaped = null;
+        for (int i = 0; i < string.length(); i++) {
+            String entity = entity(string.charAt(i));
+            if (entity != null && escaped == null)
+                escaped = new StringBuilder(string.length() + 16).append(
+                        string, 0, i);
+            if (entity != null)
+                escaped.append(entity);
+            else if (escaped != null)
+                escaped.append(string.charAt(i));
+        }
+        return (escaped == null) ? string : escaped.toString();
     }
 
     public void writeText(Object object) {
         writeText(object.toString());
     }
+
+    /* Encoding */
+
+    private static String entity(char c) {
+        switch (c) {
+        case '&':
+            return "&amp;";
+        case '<':
+            return "&lt;";
+        case '>':
+            return "&gt;";
+        case '"':
+            return "&quot;";
+        case '\'':
+            return "&apos;";
+        default:
+            return null;
+        }
+    }
+
+    private void put(int b) {
+        if (length == buffer.length)
+            drain();
+        buffer[length++] = (byte) b;
+    }
+
+    // a name or a number, which need no escaping
+    private void putRaw(String string) {
+        for (int i = 0; i < string.length(); i++)
+            putChar(string.charAt(i));
+    }
+
+    private void putEscaped(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            String entity = entity(c);
+            if (entity != null)
+                putRaw(entity);
+            else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1)))
+                putReference(Character.toCodePoint(c, string.charAt(++i)));
+            else
+                putChar(c);
+        }
+    }
+
+    private void putChar(char c) {
+        if (c < 0x100)
+            put(c);
+        else
+            putReference(c);
+    }
+
+    // a character reference for a character outside of ISO-8859-1
+    private void putReference(int codePoint) {
+        put('&');
+        put('#');
+        putNumber(codePoint);
+        put(';');
+    }
+
+    private void putNumber(long value) {
+        if (value < 0) {
+            put('-');
+        } else {
+            // the digits of a negative value cover Long.MIN_VALUE too
+            value = -value;
+        }
+        long scale = -1;
+        while (value / 10 <= scale)
+            scale *= 10;
+        for (; scale != 0; scale /= 10) {
+            put('0' + (int) (value / scale));
+            value %= scale;
+        }
+    }
+
+    /**
+     * Writes the buffer to the underlying stream or writer.
+     */
+    private void drain() {
+        try {
+            if (stream != null) {
+                stream.write(buffer, 0, length);
+            } else {
+                if (chars == null)
+                    chars = new char[buffer.length];
+                for (int i = 0; i < length; i++)
+                    chars[i] = (char) (buffer[i] & 0xff);
+                writer.write(chars, 0, length);
+            }
+        } catch (IOException ioEx) {
+            throw new XMLWritingException(ioEx);
+        }
+        length = 0;
+    }
+
+    private static byte[] bytes(String string) {
+        byte[] bytes = new byte[string.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) string.charAt(i);
+        return bytes;
+    }
 }
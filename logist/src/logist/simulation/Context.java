@@ -21,5 +21,16 @@ public interface Context {
     int[] countPickup();
     int[] countDelivery();
 
+    /**
+     * Returns the arrival time of the next task that arrives during the
+     * round, or {@link Long#MAX_VALUE} if no more tasks arrive.
+     */
+    long nextArrival();
+
+    /**
+     * Admits the tasks that arrive before the given time into the round.
+     */
+    void admitArrivals(long end);
+
     void close();
 }
@@ -1,15 +1,31 @@
 package logist.simulation;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import logist.agent.Agent;
 import logist.agent.AgentImpl;
+import logist.agent.AgentStatistics;
 
 import logist.LogistException;
 import logist.LogistSettings;
+import logist.LogistSettings.DetailKey;
 import logist.LogistSettings.FileKey;
 import logist.LogistSettings.FlagKey;
 import logist.LogistSettings.SizeKey;
@@ -18,7 +34,9 @@ import logist.task.DefaultTaskDistribution;
 import logist.task.Task;
 import logist.task.TaskDistribution;
 import logist.task.TaskSet;
+import logist.task.TaskStream;
 import logist.topology.Topology;
+import logist.topology.Topology.City;
 
 /**
  * Does every part of the simulation except the simulation of actions. Assigns
@@ -28,11 +46,14 @@ import logist.topology.Topology;
  */
 public class Manager implements Context {
 
+    private static final int SNAPSHOT_MAGIC = 0x4c4f4753; // "LOGS"
+    private static final int SNAPSHOT_VERSION = 4;
+
     private final LogistSettings settings;
     private final Topology topology;
     private final List<AgentImpl> agents;
     private final List<Company> companies;
-    private final DefaultTaskDistribution taskDistribution;
+    private DefaultTaskDistribution taskDistribution;
 
     private History history;
     private Simulation simulation;
@@ -40,6 +61,23 @@ public class Manager implements Context {
     private TaskSet toBeDelivered;
     private TaskSet toBePickedUp;
 
+    // the tasks as offered and with the rewards of the auctions
+    private Task[] offered;
+    private Task[] taskArray;
+    private int[] winners;
+    private Long[][] bids;
+    private int auctions;
+
+    // the tasks from firstArrival on arrive during the round
+    private int firstArrival;
+    private long[] arrivalTimes;
+    private int arrived;
+
+    private int pauseAuctions = -1;
+    private long pauseTime = Long.MAX_VALUE;
+    private boolean paused;
+    private volatile List<AgentStatistics> statistics;
+
     public Manager(LogistSettings settings, Topology topology,
             List<AgentImpl> agents, List<Company> companies,
             DefaultTaskDistribution taskDistribution) {
@@ -54,12 +92,68 @@ public class Manager implements Context {
     public void run() {
         File configFile = settings.get(FileKey.CONFIGURATION);
         File histFile = settings.get(FileKey.HISTORY);
-        boolean showUI = settings.get(FlagKey.SHOW_UI);
-        history = new History(histFile, configFile.toString());
+        run(new History(histFile, configFile.toString(), settings
+                .get(SizeKey.COMPRESSION_LEVEL), settings
+                .get(DetailKey.HISTORY)));
+    }
+
+    /**
+     * Runs the simulation and writes its history to a character stream
+     * instead of the history file.
+     */
+    public void run(Writer historyWriter) {
+        File configFile = settings.get(FileKey.CONFIGURATION);
+        run(new History(historyWriter, configFile.toString(), settings
+                .get(DetailKey.HISTORY)));
+    }
+
+    private void run(History history) {
+        this.history = history;
 
         setup();
         beginRound();
-        simulation.run(showUI);
+        continueRound();
+    }
+
+    /**
+     * Plays the rest of the game: auctions the remaining tasks of the round,
+     * runs its simulation and begins the next round, until the last round is
+     * finished or the game is paused.
+     * <p>
+     * With the GUI only one round is played, the round ends when the window
+     * is closed.
+     */
+    private void continueRound() {
+        boolean showUI = settings.get(FlagKey.SHOW_UI);
+        boolean concurrentBids = settings.get(FlagKey.CONCURRENT_BIDS);
+        while (true) {
+            while (auctions != pauseAuctions && auctions < firstArrival)
+                auction(auctions++, concurrentBids);
+
+            if (auctions == pauseAuctions) {
+                pauseAuctions = -1;
+                paused = true;
+                history.flush();
+                return;
+            }
+
+            if (simulation.isStarted()) {
+                simulation.resume();
+            } else {
+                simulation.pauseAfter(pauseTime);
+                simulation.run(showUI);
+            }
+            pauseTime = Long.MAX_VALUE;
+            paused = simulation.isPaused();
+
+            if (paused || showUI)
+                return;
+            if (round >= settings.get(SizeKey.NUMBER_OF_ROUNDS)) {
+                close();
+                return;
+            }
+            beginRound();
+        }
     }
 
     public void close() {
@@ -72,9 +166,19 @@ public class Manager implements Context {
             history.addStat(rank + 1, ranking.get(rank));
 
         history.close();
+        this.statistics = Collections
+                .<AgentStatistics> unmodifiableList(ranking);
         //System.out.println("Wrote " + settings.get(FileKey.HISTORY));
     }
 
+    /**
+     * Returns the statistics of the agents ordered by rank, or <tt>null</tt>
+     * if the simulation has not finished yet.
+     */
+    public List<AgentStatistics> getStatistics() {
+        return statistics;
+    }
+
     private void setup() {
         // assign vehicles to agents (each agent controls a company)
         if (companies.size() < agents.size())
@@ -100,13 +204,73 @@ public class Manager implements Context {
         history.addRound(++round);
 
         int numTasks = settings.get(SizeKey.NUMBER_OF_TASKS);
-        Task[] taskArray = new Task[numTasks];
+        taskArray = new Task[numTasks];
         TaskSet tasks = taskDistribution.createTaskSet(taskArray);
+        drawArrivals(numTasks);
+        if (arrivalTimes.length > 0)
+            tasks = initialTasks();
 
         this.toBeDelivered = TaskSet.copyOf(tasks);
         this.toBePickedUp = TaskSet.copyOf(tasks);
 
+        // the task array and the sets belong to the round, but the records of
+        // the auctions are only read by the manager and can be reused
+        int size = taskArray.length;
+        if (offered == null || offered.length != size) {
+            offered = new Task[size];
+            winners = new int[size];
+            bids = new Long[size][];
+        }
+        System.arraycopy(taskArray, 0, offered, 0, size);
+        auctions = 0;
+
+        assignTasks(tasks);
+    }
+
+    /**
+     * Draws the tasks that arrive while the vehicles move, if any, and
+     * appends them to the task array. They belong to the task sets of the
+     * round from the beginning, but are only admitted at their arrival.
+     * Since the task sets range over a fixed array, the number of arrivals
+     * of a round is capped by {@link SizeKey#NUMBER_OF_ARRIVALS}.
+     */
+    private void drawArrivals(int firstId) {
+        firstArrival = firstId;
+        arrivalTimes = new long[0];
+        arrived = 0;
+
+        double arrivalRate = taskDistribution.getArrivalRate();
+        if (arrivalRate == 0.0)
+            return;
+        TaskStream stream = taskDistribution.createTaskStream(arrivalRate,
+                taskDistribution.getRandom().nextLong(), firstId);
+
+        int limit = settings.get(SizeKey.NUMBER_OF_ARRIVALS);
+        Task[] tasks = Arrays.copyOf(taskArray, firstId + limit);
+        long[] times = new long[limit];
+        int count = 0;
+        while (count < limit && stream.peekTime() != Long.MAX_VALUE) {
+            times[count] = stream.peekTime();
+            tasks[firstId + count++] = stream.poll();
+        }
+        if (count > 0) {
+            taskArray = Arrays.copyOf(tasks, firstId + count);
+            arrivalTimes = Arrays.copyOf(times, count);
+        }
+    }
 
+    /**
+     * Returns the set of the tasks that are known at the beginning of the
+     * round.
+     */
+    private TaskSet initialTasks() {
+        TaskSet tasks = TaskSet.create(taskArray);
+        for (int id = firstArrival; id < taskArray.length; id++)
+            tasks.remove(taskArray[id]);
+        return tasks;
+    }
+
+    private void assignTasks(TaskSet tasks) {
         TaskSet sharedTasks = TaskSet.copyOf(tasks);
         for (AgentImpl agent : agents) {
             switch (agent.type()) {
@@ -122,37 +286,297 @@ public class Manager implements Context {
                 break;
             }
         }
+    }
+
+    private void auction(int id, boolean concurrentBids) {
+        Task task = taskArray[id];
+        history.addTask(task);
+
+        // let all agents think at the same time, but collect the bids
+        // in the order of the agents
+        if (concurrentBids)
+            for (AgentImpl agent : agents)
+                agent.startBid(task);
+
+        int min = -1;
+        Long[] bids = this.bids[id] = new Long[agents.size()];
+        for (int i = 0; i < bids.length; i++) {
+            AgentImpl agent = agents.get(i);
+            Long bid = bids[i] = concurrentBids ? agent.finishBid()
+                    : agent.askBid(task);
+
+            if (bid != null) {
+                history.addBid(agent.getInfo().name(), bid);
+
+                if (min == -1 || bid < bids[min])
+                    min = i;
+            }
+        }
+
+//		if (min == -1)
+//			throw new LogistException("There are no bidders !");
+
+        winners[id] = min;
+        task = replaceTask(task, min, bids);
+        for (AgentImpl agent : agents)
+            agent.notifyResult(task, min, bids);
+    }
+
+    /**
+     * Replaces an auctioned task by a task whose reward is the winning bid.
+     */
+    private Task replaceTask(Task task, int winner, Long[] bids) {
+        if (winner >= 0) {
+            task = new Task(task.id, task.pickupCity, task.deliveryCity,
+                    bids[winner].longValue(), task.weight);
+            taskArray[task.id] = task;
+        }
+        return task;
+    }
+
+    /* Snapshots */
 
-        for (Task task : tasks) {
-            history.addTask(task);
+    /**
+     * Pauses the round once the given number of tasks has been auctioned,
+     * before the next auction or the beginning of the simulation.
+     */
+    public void pauseAfterAuctions(int count) {
+        this.pauseAuctions = count;
+    }
 
-            int min = -1;
-            Long[] bids = new Long[agents.size()];
-            for (int i = 0; i < bids.length; i++) {
-                AgentImpl agent = agents.get(i);
-                Long bid = bids[i] = agent.askBid(task);
+    /**
+     * Pauses a headless round before the first actions that take place after
+     * the given time.
+     *
+     * @param time
+     *            the time in nanoseconds of simulated time since the
+     *            beginning of the round
+     * @see Simulation#pauseAfter(long)
+     */
+    public void pauseAfter(long time) {
+        if (simulation != null && simulation.isStarted())
+            simulation.pauseAfter(time);
+        else
+            this.pauseTime = time;
+    }
 
-                if (bid != null) {
-                    history.addBid(agent.getInfo().name(), bid);
+    /** Whether the round is paused */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Continues a paused round. The round can be paused again before.
+     */
+    public void resume() {
+        if (!paused)
+            throw new IllegalStateException("The round is not paused");
+        paused = false;
+        continueRound();
+    }
+
+    /**
+     * Writes a snapshot of a paused round. The snapshot holds the tasks and
+     * auctions of the round, the state of the random generators, the totals
+     * of the agents in the previous rounds, the tasks of the vehicles and,
+     * once the simulation has begun, the positions of the vehicles and the
+     * rest of their plans as cities and task ids.
+     * <p>
+     * The behaviors of the agents are not part of the snapshot. Rounds with
+     * reactive agents, whose tasks are drawn at each step, cannot be saved.
+     *
+     * @see #restoreSnapshot(InputStream)
+     */
+    public void writeSnapshot(OutputStream stream) throws IOException {
+        if (!paused)
+            throw new IllegalStateException("The round is not paused");
+        for (AgentImpl agent : agents)
+            if (agent.type() == AgentImpl.Type.REACTIVE)
+                throw new IllegalStateException(
+                        "The tasks of reactive agents cannot be saved");
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(stream));
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(agents.size());
+        out.writeInt(round);
+
+        // the generator of the distribution after the round was created
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objects = new ObjectOutputStream(bytes);
+        objects.writeObject(taskDistribution.getRandom());
+        objects.close();
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+
+        out.writeInt(offered.length);
+        for (Task task : offered) {
+            out.writeInt(task.pickupCity.id);
+            out.writeInt(task.deliveryCity.id);
+            out.writeLong(task.reward);
+            out.writeInt(task.weight);
+        }
 
-                    if (min == -1 || bid < bids[min])
-                        min = i;
-                }
+        out.writeInt(arrivalTimes.length);
+        for (long time : arrivalTimes)
+            out.writeLong(time);
+
+        // the tasks that arrived were auctioned after all others
+        out.writeInt(auctions);
+        out.writeInt(arrived);
+        for (int id = 0; id < auctions + arrived; id++) {
+            out.writeInt(winners[id]);
+            for (Long bid : bids[id]) {
+                out.writeBoolean(bid != null);
+                if (bid != null)
+                    out.writeLong(bid);
             }
+        }
+
+        for (AgentImpl agent : agents)
+            agent.writeTotals(out);
+        VehicleImpl.writeTasks(out, toBeDelivered);
+        VehicleImpl.writeTasks(out, toBePickedUp);
+        for (VehicleImpl vehicle : simulation.getVehicles())
+            vehicle.writeState(out);
+        for (AgentImpl agent : agents)
+            agent.writePlans(out);
+
+        out.writeBoolean(simulation.isStarted());
+        if (simulation.isStarted())
+            simulation.writeState(out);
+        out.flush();
+    }
+
+    /**
+     * Restores a snapshot written by {@link #writeSnapshot(OutputStream)} into
+     * a manager that has not run yet and leaves the round paused. The agents
+     * must be those of the snapshot. Their behaviors are set up anew and
+     * learn the results of the past auctions. The vehicles continue the rest
+     * of their plans, so a behavior only plans when it has not done so yet
+     * in the round, as without the snapshot.
+     * <p>
+     * The history of the restored round starts with the past auctions and
+     * continues with the events after the snapshot.
+     */
+    public void restoreSnapshot(InputStream stream) throws IOException {
+        File configFile = settings.get(FileKey.CONFIGURATION);
+        File histFile = settings.get(FileKey.HISTORY);
+        restoreSnapshot(stream, new History(histFile, configFile.toString(),
+                settings.get(SizeKey.COMPRESSION_LEVEL), settings
+                        .get(DetailKey.HISTORY)));
+    }
+
+    /**
+     * Restores a snapshot and writes the history to a character stream
+     * instead of the history file.
+     */
+    public void restoreSnapshot(InputStream stream, Writer historyWriter)
+            throws IOException {
+        File configFile = settings.get(FileKey.CONFIGURATION);
+        restoreSnapshot(stream, new History(historyWriter, configFile
+                .toString(), settings.get(DetailKey.HISTORY)));
+    }
 
-//			if (min == -1)
-//				throw new LogistException("There are no bidders !");
+    private void restoreSnapshot(InputStream stream, History history)
+            throws IOException {
+        if (this.history != null)
+            throw new IllegalStateException("The manager has already run");
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                stream));
+        if (in.readInt() != SNAPSHOT_MAGIC)
+            throw new IOException("Not a snapshot");
+        if (in.readInt() != SNAPSHOT_VERSION)
+            throw new IOException("Unsupported snapshot version");
+        if (in.readInt() != agents.size())
+            throw new IOException("The snapshot has different agents");
+        int round = in.readInt();
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        ObjectInputStream objects = new ObjectInputStream(
+                new ByteArrayInputStream(bytes));
+        try {
+            taskDistribution = taskDistribution.withRandom((Random) objects
+                    .readObject());
+        } catch (ClassNotFoundException cnfEx) {
+            throw new IOException("Invalid random generator", cnfEx);
+        }
 
-            // replace task
-            if (min >= 0) {
-                task = new Task(task.id, task.pickupCity, task.deliveryCity,
-                        bids[min].longValue(), task.weight);
-                taskArray[task.id] = task;
+        this.history = history;
+        setup();
+        this.round = round;
+        history.addRound(round);
+
+        List<City> cities = topology.cities();
+        offered = new Task[in.readInt()];
+        for (int id = 0; id < offered.length; id++) {
+            int pickup = in.readInt();
+            int delivery = in.readInt();
+            if (Math.max(pickup, delivery) >= cities.size())
+                throw new IOException("The snapshot has a different topology");
+            offered[id] = new Task(id, cities.get(pickup),
+                    cities.get(delivery), in.readLong(), in.readInt());
+        }
+        taskArray = offered.clone();
+        arrivalTimes = new long[in.readInt()];
+        if (arrivalTimes.length > offered.length)
+            throw new IOException("Invalid number of arrivals");
+        for (int i = 0; i < arrivalTimes.length; i++)
+            arrivalTimes[i] = in.readLong();
+        firstArrival = offered.length - arrivalTimes.length;
+
+        TaskSet tasks = initialTasks();
+        toBeDelivered = TaskSet.copyOf(tasks);
+        toBePickedUp = TaskSet.copyOf(tasks);
+        assignTasks(tasks);
+
+        // replay the past auctions to the new behaviors
+        winners = new int[offered.length];
+        bids = new Long[offered.length][];
+        auctions = in.readInt();
+        arrived = in.readInt();
+        if (auctions + arrived > offered.length)
+            throw new IOException("Invalid number of auctions");
+        for (int id = 0; id < auctions + arrived; id++) {
+            history.addTask(offered[id]);
+            winners[id] = in.readInt();
+            bids[id] = new Long[agents.size()];
+            for (int i = 0; i < agents.size(); i++) {
+                if (!in.readBoolean())
+                    continue;
+                bids[id][i] = in.readLong();
+                history.addBid(agents.get(i).getInfo().name(), bids[id][i]);
             }
 
+            Task task = replaceTask(offered[id], winners[id], bids[id]);
             for (AgentImpl agent : agents)
-                agent.notifyResult(task, min, bids);
+                agent.notifyResult(task, winners[id], bids[id]);
         }
+
+        for (AgentImpl agent : agents)
+            agent.readTotals(in);
+        VehicleImpl.readTasks(in, taskArray, toBeDelivered);
+        VehicleImpl.readTasks(in, taskArray, toBePickedUp);
+        for (VehicleImpl vehicle : simulation.getVehicles())
+            vehicle.readState(in, taskArray);
+        for (AgentImpl agent : agents)
+            agent.readPlans(in, taskArray);
+
+        if (in.readBoolean())
+            simulation.readState(in, topology);
+        history.flush();
+        paused = true;
+    }
+
+    List<AgentImpl> getAgents() {
+        return agents;
+    }
+
+    List<Company> getCompanies() {
+        return companies;
     }
 
     @Override
@@ -180,19 +604,41 @@ public class Manager implements Context {
         toBePickedUp.remove(task);
     }
 
+    @Override
+    public long nextArrival() {
+        return (arrived < arrivalTimes.length) ? arrivalTimes[arrived]
+                : Long.MAX_VALUE;
+    }
+
+    /**
+     * Auctions the tasks that arrive before the given time and hands them to
+     * the agents as at the beginning of the round.
+     */
+    @Override
+    public void admitArrivals(long end) {
+        boolean concurrentBids = settings.get(FlagKey.CONCURRENT_BIDS);
+        while (nextArrival() < end) {
+            long time = arrivalTimes[arrived];
+            int id = firstArrival + arrived++;
+            auction(id, concurrentBids);
+
+            Task task = taskArray[id];
+            toBeDelivered.add(task);
+            toBePickedUp.add(task);
+            for (AgentImpl agent : agents)
+                agent.taskArrived(task, time);
+        }
+    }
+
     @Override
     public int[] countDelivery() {
-        int[] count = new int[topology.size()];
-        for (Task task : toBeDelivered)
-            count[task.deliveryCity.id]++;
-        return count;
+        return Arrays.copyOf(toBeDelivered.countByDeliveryCity(),
+                topology.size());
     }
 
     @Override
     public int[] countPickup() {
-        int[] count = new int[topology.size()];
-        for (Task task : toBePickedUp)
-            count[task.pickupCity.id]++;
-        return count;
+        return Arrays.copyOf(toBePickedUp.countByPickupCity(),
+                topology.size());
     }
 }
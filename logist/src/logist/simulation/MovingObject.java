@@ -3,6 +3,7 @@ package logist.simulation;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import uchicago.src.sim.gui.Drawable;
 import uchicago.src.sim.gui.SimGraphics;
@@ -10,54 +11,78 @@ import uchicago.src.sim.gui.SimGraphics;
 import logist.Measures;
 import logist.topology.Topology.City;
 
+/**
+ * A handle to the moving state of a vehicle in a {@link VehicleStore}. Until
+ * it is attached to the store of a simulation, an object keeps its state in a
+ * store of its own.
+ */
 abstract class MovingObject implements Drawable, Comparable<MovingObject> {
-    private static int nextUID;
+    private static final AtomicInteger nextUID = new AtomicInteger();
 
-    private final int uid = nextUID++;
+    private final int uid = nextUID.getAndIncrement();
     private final long speed;
     private final Color color;
-    private final Polygon polygon;
 
-    private long unusedNanos;
-    private long target;
-    private long progress;
+    private VehicleStore store;
+    private int slot;
 
-    protected City previousCity;
-    protected City nextCity;
+    // the city of departure of the last move, for drawing
+    private City departure;
+
+    // drawing state, only allocated once the object is drawn
+    private Polygon polygon;
+    private City polygonFrom;
+    private City polygonTo;
 
     protected MovingObject(long speed, Color color) {
         this.speed = speed;
         this.color = color;
-        this.polygon = new Polygon(new int[3], new int[3], 3);
+        attach(new VehicleStore(1), 0);
     }
 
-    protected void reset(City initial) {
-        unusedNanos = 0;
-        progress = target = 1;
-
-        previousCity = nextCity = initial;
-        recomputePolygon();
+    /**
+     * Moves the state of this object to a slot of another store.
+     */
+    void attach(VehicleStore newStore, int newSlot) {
+        if (store != null) {
+            newStore.unusedNanos[newSlot] = store.unusedNanos[slot];
+            newStore.target[newSlot] = store.target[slot];
+            newStore.progress[newSlot] = store.progress[slot];
+            newStore.previousCity[newSlot] = store.previousCity[slot];
+            newStore.nextCity[newSlot] = store.nextCity[slot];
+        }
+        newStore.uid[newSlot] = uid;
+        newStore.speed[newSlot] = speed;
+        this.store = newStore;
+        this.slot = newSlot;
     }
 
-    public void step(long nanos) {
-        unusedNanos += nanos;
+    protected void reset(City initial) {
+        store.unusedNanos[slot] = 0;
+        store.progress[slot] = store.target[slot] = 1;
 
-        if (progress < target) {
-            long move = Math.min(target - progress, unusedNanos * speed
-                    / Measures.NANOS_PER_SIM_HOUR);
+        store.previousCity[slot] = store.nextCity[slot] = initial;
+        departure = initial;
+    }
 
-            progress += move;
-            unusedNanos -= (move * Measures.NANOS_PER_SIM_HOUR) / speed;
-        }
+    /**
+     * Called after the state of this object has been restored from a
+     * snapshot.
+     */
+    void restored() {
+        departure = getPreviousCity();
+    }
 
+    public void step(long nanos) {
+        store.step(slot, nanos);
     }
 
     protected double getProgressRatio() {
-        return progress / (double) target;
+        return store.progress[slot] / (double) store.target[slot];
     }
 
     protected boolean hasArrived() {
-        return (progress == target);
+        return store.hasArrived(slot);
     }
 
     public long getSpeed() {
@@ -69,7 +94,15 @@ abstract class MovingObject implements Drawable, Comparable<MovingObject> {
     }
 
     public long getUnusedNanos() {
-        return unusedNanos;
+        return store.unusedNanos[slot];
+    }
+
+    protected City getPreviousCity() {
+        return store.previousCity[slot];
+    }
+
+    protected City getNextCity() {
+        return store.nextCity[slot];
     }
 
     protected long setWait(long waitNanos) {
@@ -77,9 +110,9 @@ abstract class MovingObject implements Drawable, Comparable<MovingObject> {
             throw new IllegalStateException(
                     "Cannot wait before previous target was reached !");
 
-        this.target = (waitNanos * speed) / Measures.NANOS_PER_SIM_HOUR;
-        this.progress = 0L;
-        previousCity = nextCity;
+        store.target[slot] = (waitNanos * speed) / Measures.NANOS_PER_SIM_HOUR;
+        store.progress[slot] = 0L;
+        store.previousCity[slot] = store.nextCity[slot];
         // step(0L);
 
         return 0L;
@@ -90,22 +123,25 @@ abstract class MovingObject implements Drawable, Comparable<MovingObject> {
             throw new IllegalStateException(
                     "Cannot set new target before previous target was reached !");
 
-        previousCity = nextCity;
-        nextCity = city;
-        recomputePolygon();
+        City previousCity = store.nextCity[slot];
+        store.previousCity[slot] = previousCity;
+        store.nextCity[slot] = city;
+        departure = previousCity;
 
-        long distance = previousCity.distanceUnitsTo(nextCity);
-        this.target = distance;
-        this.progress = 0L;
+        long distance = previousCity.distanceUnitsTo(city);
+        store.target[slot] = distance;
+        store.progress[slot] = 0L;
         // step(0L);
 
         return distance;
     }
 
     public int compareTo(MovingObject that) {
-        if (this.unusedNanos > that.unusedNanos)
+        long unused = getUnusedNanos();
+        long thatUnused = that.getUnusedNanos();
+        if (unused > thatUnused)
             return -1;
-        else if (this.unusedNanos < that.unusedNanos)
+        else if (unused < thatUnused)
             return 1;
         else
             return this.uid - that.uid;
@@ -117,6 +153,14 @@ abstract class MovingObject implements Drawable, Comparable<MovingObject> {
     public void draw(SimGraphics g) {
         Graphics2D g2d = g.getGraphics();
 
+        City nextCity = getNextCity();
+        if (polygon == null || polygonFrom != departure
+                || polygonTo != nextCity) {
+            recomputePolygon(departure, nextCity);
+            polygonFrom = departure;
+            polygonTo = nextCity;
+        }
+
         int tx = getX();
         int ty = getY();
 
@@ -128,6 +172,8 @@ abstract class MovingObject implements Drawable, Comparable<MovingObject> {
 
     @Override
     public int getX() {
+        City previousCity = getPreviousCity();
+        City nextCity = getNextCity();
         double t = getProgressRatio();
         return (int) Math.round(previousCity.xPos + t
                 * (nextCity.xPos - previousCity.xPos));
@@ -135,12 +181,17 @@ abstract class MovingObject implements Drawable, Comparable<MovingObject> {
 
     @Override
     public int getY() {
+        City previousCity = getPreviousCity();
+        City nextCity = getNextCity();
         double t = getProgressRatio();
         return (int) Math.round(previousCity.yPos + t
                 * (nextCity.yPos - previousCity.yPos));
     }
 
-    private void recomputePolygon() {
+    private void recomputePolygon(City previousCity, City nextCity) {
+        if (polygon == null)
+            polygon = new Polygon(new int[3], new int[3], 3);
+
         double dx = nextCity.xPos - previousCity.xPos;
         double dy = nextCity.yPos - previousCity.yPos;
 
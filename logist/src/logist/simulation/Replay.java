@@ -0,0 +1,656 @@
+package logist.simulation;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import logist.agent.AgentImpl;
+import logist.agent.AgentStatistics;
+
+import logist.LogistException;
+import logist.LogistSettings.Detail;
+import logist.Measures;
+import logist.config.ParserException;
+import logist.config.Parsers;
+import logist.history.HistoryFiles;
+import logist.history.HistoryHandler;
+import logist.plan.Action;
+import logist.plan.IllegalPlanException;
+import logist.plan.Plan;
+import logist.plan.PlanVerifier;
+import logist.task.DefaultTaskDistribution;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Replays a history file without running the agents. The recorded auctions
+ * and actions are applied to the vehicles of the configuration in the order
+ * of the file. Each action is checked by a {@link PlanVerifier} and by the
+ * vehicle, and the time of each event is checked against the movement of the
+ * vehicle in a headless round. At the end of the file the statistics are
+ * computed anew and compared with the recorded ones.
+ * <p>
+ * The history is streamed through {@link HistoryFiles#read} in either
+ * format, so a replay runs at the speed at which the file can be read. The
+ * behaviors of the agents are never set up, but their classes must be found
+ * to tell how the tasks of a round were shared. Rounds of reactive agents,
+ * whose tasks are drawn on the fly, cannot be replayed, and neither can
+ * rounds in which tasks arrive.
+ *
+ * <pre>
+ * Replay replay = new Replay(null, true);
+ * if (!replay.run(new File("history.xml")))
+ *     System.out.println(replay.getDivergence());
+ * </pre>
+ */
+public class Replay {
+
+    private final String agentsFile;
+    private final boolean checkTimes;
+
+    // the agents and vehicles of the configuration
+    private Topology topology;
+    private List<AgentImpl> agents;
+    private List<VehicleImpl> vehicles;
+    private int[] agentOf;
+    private Map<String, Integer> slots;
+    private VehicleStore store;
+    private Controller[] controllers;
+
+    // the agents and vehicles of the history
+    private String configFile;
+    private List<String> agentNames;
+    private List<List<String>> vehicleNames;
+
+    // the round being replayed
+    private List<Task> offered;
+    private List<Long[]> bids;
+    private int bidCursor;
+    private Task[] taskArray;
+    private TaskSet[] agentTasks;
+    private PlanVerifier[] verifiers;
+    private int nextEvent;
+
+    // the totals of each agent in the finished rounds
+    private int[] pastTasks;
+    private long[] pastReward;
+    private long[] pastDistance;
+    private long[] pastCost;
+
+    // the recorded statistics: name, tasks, distance, cost, reward, profit
+    private List<String[]> recorded;
+
+    private String divergence;
+    private List<AgentStatistics> statistics;
+
+    /**
+     * @param agentsFile
+     *            the file of agent definitions, or <tt>null</tt> to use the
+     *            agents of the configuration
+     * @param checkTimes
+     *            whether to check the times of the events, which only match
+     *            for rounds that were run without a GUI
+     */
+    public Replay(String agentsFile, boolean checkTimes) {
+        this.agentsFile = agentsFile;
+        this.checkTimes = checkTimes;
+    }
+
+    /**
+     * Replays a history file. The configuration file is taken from the
+     * history and resolved against the current directory. Only histories
+     * with all events can be replayed.
+     *
+     * @throws LogistException
+     *             if the history was recorded with a lower detail
+     *
+     * @return <tt>true</tt> if the history was replayed without divergence
+     * @throws ParserException
+     *             if the history or its configuration cannot be parsed
+     */
+    public boolean run(File historyFile) throws ParserException {
+        configFile = null;
+        agents = null;
+        agentNames = new ArrayList<String>();
+        vehicleNames = new ArrayList<List<String>>();
+        offered = null;
+        recorded = new ArrayList<String[]>();
+
+        divergence = null;
+        statistics = null;
+        try {
+            HistoryFiles.read(historyFile, new Player(historyFile));
+            return true;
+        } catch (Divergence d) {
+            divergence = d.getMessage();
+            return false;
+        } catch (ConfigurationFailure cf) {
+            throw cf.getCause();
+        } catch (FileNotFoundException fnfEx) {
+            throw ParserException.missing(historyFile.toString());
+        } catch (IOException ioEx) {
+            throw new LogistException("Could not read " + historyFile, ioEx);
+        }
+    }
+
+    /**
+     * Returns the first divergence of the last replay, or <tt>null</tt> if
+     * there was none.
+     */
+    public String getDivergence() {
+        return divergence;
+    }
+
+    /**
+     * Returns the statistics of the agents ordered by rank as computed by the
+     * last replay, or <tt>null</tt> if it diverged before the end.
+     */
+    public List<AgentStatistics> getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Passes the records of the history to the replay. The agents are set
+     * up at the first round, and a round ends at the next round or at the
+     * end of the history.
+     */
+    private class Player extends HistoryHandler {
+        private final File file;
+
+        Player(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void history(String configuration, Detail detail) {
+            if (detail != Detail.EVENTS)
+                throw new LogistException(file + " only records the "
+                        + detail.name().toLowerCase()
+                        + ", all events are needed to replay it");
+            configFile = configuration;
+        }
+
+        @Override
+        public void agent(String name) {
+            agentNames.add(name);
+            vehicleNames.add(new ArrayList<String>());
+        }
+
+        @Override
+        public void vehicle(String name) {
+            vehicleNames.get(vehicleNames.size() - 1).add(name);
+        }
+
+        @Override
+        public void round(int id) {
+            if (agents == null)
+                setup();
+            else
+                endRound();
+            beginRound();
+        }
+
+        @Override
+        public void task(int id, String pickup, String delivery, int weight,
+                long reward) {
+            addTask(id, pickup, delivery, weight, reward);
+        }
+
+        @Override
+        public void bid(String agent, long bid) {
+            addBid(agent, bid);
+        }
+
+        @Override
+        public void move(int id, long time, String vehicle, String city) {
+            endAuctions();
+            replayEvent(id, time, vehicle, new Action.Move(city(city)));
+        }
+
+        @Override
+        public void pickup(int id, long time, String vehicle, int task) {
+            endAuctions();
+            replayEvent(id, time, vehicle, new Action.Pickup(roundTask(id,
+                    task)));
+        }
+
+        @Override
+        public void deliver(int id, long time, String vehicle, int task) {
+            endAuctions();
+            replayEvent(id, time, vehicle, new Action.Delivery(roundTask(id,
+                    task)));
+        }
+
+        @Override
+        public void stat(int rank, String agent, int totalTasks,
+                double totalDistance, long totalCost, long totalReward,
+                long totalProfit) {
+            if (rank != recorded.size() + 1)
+                throw new Divergence("Expected rank = "
+                        + (recorded.size() + 1) + " but found rank = " + rank);
+            recorded.add(new String[] { agent, String.valueOf(totalTasks),
+                    String.valueOf(totalDistance), String.valueOf(totalCost),
+                    String.valueOf(totalReward),
+                    String.valueOf(totalProfit) });
+        }
+
+        @Override
+        public void end() {
+            if (agents == null)
+                setup();
+            else if (offered != null)
+                endRound();
+            endStatistics();
+        }
+    }
+
+    /* Setup */
+
+    private void setup() {
+        Manager manager;
+        try {
+            manager = Parsers.parseConfiguration(configFile, agentsFile,
+                    agentNames.toArray(new String[agentNames.size()]));
+        } catch (ParserException pEx) {
+            throw new ConfigurationFailure(pEx);
+        }
+        topology = manager.getTopology();
+        agents = manager.getAgents();
+        if (((DefaultTaskDistribution) manager.getTaskDistribution())
+                .getArrivalRate() > 0.0)
+            throw new LogistException(
+                    "Rounds in which tasks arrive cannot be replayed");
+
+        List<Company> companies = manager.getCompanies();
+        if (companies.size() < agents.size())
+            throw new LogistException("There are more agents than companies !");
+
+        vehicles = new ArrayList<VehicleImpl>();
+        slots = new HashMap<String, Integer>();
+        controllers = new Controller[agents.size()];
+        List<Integer> owners = new ArrayList<Integer>();
+        for (int i = 0; i < agents.size(); i++) {
+            if (agents.get(i).type() == AgentImpl.Type.REACTIVE)
+                throw new LogistException(
+                        "Rounds of reactive agents cannot be replayed");
+
+            List<String> names = new ArrayList<String>();
+            controllers[i] = new Controller();
+            for (VehicleImpl vehicle : companies.get(i).vehicles) {
+                String name = vehicle.getInfo().name();
+                if (slots.put(name, vehicles.size()) != null)
+                    throw new ConfigurationFailure(ParserException.duplicate(
+                            "vehicle", name));
+
+                names.add(name);
+                vehicle.setController(controllers[i]);
+                vehicles.add(vehicle);
+                owners.add(i);
+            }
+            if (!names.equals(vehicleNames.get(i)))
+                throw new Divergence("Agent " + agentNames.get(i)
+                        + " has vehicles " + names + " instead of "
+                        + vehicleNames.get(i));
+        }
+
+        pastTasks = new int[agents.size()];
+        pastReward = new long[agents.size()];
+        pastDistance = new long[agents.size()];
+        pastCost = new long[agents.size()];
+
+        store = new VehicleStore(vehicles.size());
+        agentOf = new int[vehicles.size()];
+        for (int slot = 0; slot < vehicles.size(); slot++) {
+            vehicles.get(slot).attach(store, slot);
+            agentOf[slot] = owners.get(slot);
+        }
+    }
+
+    /* Rounds */
+
+    private void beginRound() {
+        offered = new ArrayList<Task>();
+        bids = new ArrayList<Long[]>();
+        taskArray = null;
+        nextEvent = 0;
+    }
+
+    private void addTask(int id, String pickup, String delivery, int weight,
+            long reward) {
+        if (id != offered.size())
+            throw new Divergence("Expected task " + offered.size()
+                    + " but found task " + id);
+
+        offered.add(new Task(id, city(pickup), city(delivery), reward,
+                weight));
+        bids.add(new Long[agents.size()]);
+        bidCursor = 0;
+    }
+
+    /**
+     * Assigns a bid to the next agent of that name. The bids of a task are
+     * recorded in the order of the agents, so names need not be unique.
+     */
+    private void addBid(String name, long bid) {
+        Long[] taskBids = bids.get(bids.size() - 1);
+        for (int i = bidCursor; i < agents.size(); i++) {
+            if (agents.get(i).getInfo().name().equals(name)) {
+                taskBids[i] = bid;
+                bidCursor = i + 1;
+                return;
+            }
+        }
+        throw new Divergence("Task " + (bids.size() - 1)
+                + " has an unexpected bid of " + name);
+    }
+
+    /**
+     * Settles the auctions and hands the tasks to the agents as the
+     * {@link Manager} does.
+     */
+    private void endAuctions() {
+        if (taskArray != null)
+            return;
+
+        taskArray = new Task[offered.size()];
+        int[] winners = new int[taskArray.length];
+        for (int id = 0; id < taskArray.length; id++) {
+            Task task = offered.get(id);
+            Long[] taskBids = bids.get(id);
+
+            int min = -1;
+            for (int i = 0; i < taskBids.length; i++)
+                if (taskBids[i] != null
+                        && (min == -1 || taskBids[i] < taskBids[min]))
+                    min = i;
+
+            if (min >= 0)
+                task = new Task(task.id, task.pickupCity, task.deliveryCity,
+                        taskBids[min].longValue(), task.weight);
+            taskArray[id] = task;
+            winners[id] = min;
+        }
+
+        TaskSet tasks = TaskSet.create(taskArray);
+        TaskSet sharedTasks = TaskSet.copyOf(tasks);
+        agentTasks = new TaskSet[agents.size()];
+        for (int i = 0; i < agents.size(); i++) {
+            switch (agents.get(i).type()) {
+            case REACTIVE:
+            case AUCTION:
+                agentTasks[i] = TaskSet.noneOf(tasks);
+                break;
+            case DELIBERATIVE:
+                agentTasks[i] = sharedTasks;
+                break;
+            case CENTRALIZED:
+                agentTasks[i] = TaskSet.copyOf(tasks);
+                break;
+            }
+        }
+        for (int id = 0; id < taskArray.length; id++)
+            if (winners[id] >= 0)
+                agentTasks[winners[id]].add(taskArray[id]);
+
+        verifiers = new PlanVerifier[agents.size()];
+        for (int i = 0; i < agents.size(); i++)
+            verifiers[i] = new PlanVerifier(topology, agentTasks[i]);
+
+        // every vehicle starts with an action in the first step
+        for (int slot = 0; slot < vehicles.size(); slot++) {
+            vehicles.get(slot).beginRound(agentTasks[agentOf[slot]]);
+            store.step(slot, Simulation.STEP_NANOS);
+            store.wakeStep[slot] = 1L;
+        }
+    }
+
+    private void replayEvent(int id, long time, String name, Action action) {
+        if (id != nextEvent)
+            throw new Divergence("Expected event " + nextEvent
+                    + " but found event " + id);
+        nextEvent++;
+
+        Integer slot = slots.get(name);
+        if (slot == null)
+            throw new Divergence("Event " + id + ": unknown vehicle " + name);
+        VehicleImpl vehicle = vehicles.get(slot);
+
+        long expected = store.wakeStep[slot] * Simulation.STEP_NANOS
+                - store.unusedNanos[slot];
+        if (checkTimes && time != expected)
+            throw new Divergence("Event " + id + ": " + name + " acts at "
+                    + time + " instead of " + expected);
+
+        Controller controller = controllers[agentOf[slot]];
+        try {
+            verifiers[agentOf[slot]].verifyPlan(vehicle.getInfo(), new Plan(
+                    vehicle.getCurrentCity(), action));
+        } catch (IllegalPlanException ipEx) {
+            throw new Divergence("Event " + id + ": " + ipEx);
+        }
+
+        controller.action = action;
+        if (vehicle.executeNextAction() == null)
+            throw new Divergence("Event " + id + ": " + name + " cannot "
+                    + action.toLongString());
+
+        // move on to the step in which the vehicle arrives
+        store.step(slot, 0);
+        if (!store.hasArrived(slot))
+            store.wakeStep[slot] += store.stepUntilArrived(slot,
+                    Simulation.STEP_NANOS);
+    }
+
+    /**
+     * Checks that all tasks of the round were picked up and delivered, and
+     * adds the statistics of the round to the totals of the agents.
+     */
+    private void endRound() {
+        endAuctions();
+
+        for (int slot = 0; slot < vehicles.size(); slot++) {
+            VehicleImpl vehicle = vehicles.get(slot);
+            try {
+                PlanVerifier verifier = verifiers[agentOf[slot]];
+                verifier.verifyPlan(vehicle.getInfo(), Plan.EMPTY);
+                verifier.verifyDelivery();
+            } catch (IllegalPlanException ipEx) {
+                throw new Divergence(vehicle.getInfo().name() + ": " + ipEx);
+            }
+        }
+        for (int i = 0; i < agents.size(); i++) {
+            if (!agentTasks[i].isEmpty())
+                throw new Divergence("Agent " + agentNames.get(i)
+                        + " did not pick up " + agentTasks[i]);
+            pastTasks[i] += agentTasks[i].size();
+        }
+
+        for (int slot = 0; slot < vehicles.size(); slot++) {
+            VehicleImpl vehicle = vehicles.get(slot);
+            Vehicle info = vehicle.getInfo();
+            int agent = agentOf[slot];
+            pastTasks[agent] += vehicle.numTasks();
+            pastReward[agent] += info.getReward();
+            pastDistance[agent] += info.getDistanceUnits();
+            pastCost[agent] += info.getDistanceUnits() * info.costPerKm();
+        }
+    }
+
+    /* Statistics */
+
+    private void endStatistics() {
+        List<Totals> ranking = new ArrayList<Totals>();
+        for (int i = 0; i < agents.size(); i++)
+            ranking.add(new Totals(i));
+        Collections.sort(ranking);
+
+        if (recorded.size() != ranking.size())
+            throw new Divergence("Expected " + ranking.size()
+                    + " stat entries but found " + recorded.size());
+
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            Totals totals = ranking.get(rank);
+            String[] actual = { totals.name(),
+                    String.valueOf(totals.getTotalTasks()),
+                    String.valueOf(totals.getTotalDistance()),
+                    String.valueOf(totals.getTotalCost()),
+                    String.valueOf(totals.getTotalReward()),
+                    String.valueOf(totals.getTotalProfit()) };
+            String[] expected = recorded.get(rank);
+            for (int i = 0; i < actual.length; i++)
+                if (!actual[i].equals(expected[i]))
+                    throw new Divergence("Rank " + (rank + 1) + ": "
+                            + STAT_NAMES[i] + " is " + actual[i]
+                            + " instead of " + expected[i]);
+        }
+        statistics = Collections.<AgentStatistics> unmodifiableList(ranking);
+    }
+
+    private static final String[] STAT_NAMES = { "agent", "total-tasks",
+            "total-distance", "total-cost", "total-reward", "total-profit" };
+
+    /**
+     * The statistics of an agent over all rounds as computed by the agent
+     * itself.
+     */
+    private class Totals implements AgentStatistics {
+        private final int agent;
+        private final long distance;
+        private final long cost;
+        private final long reward;
+        private final int tasks;
+
+        Totals(int agent) {
+            this.agent = agent;
+            this.tasks = pastTasks[agent];
+            this.reward = pastReward[agent];
+            this.distance = pastDistance[agent];
+            this.cost = Math.round(Measures.unitsToKM(pastCost[agent]));
+        }
+
+        @Override
+        public String name() {
+            return agentNames.get(agent);
+        }
+
+        @Override
+        public long getTotalDistanceUnits() {
+            return distance;
+        }
+
+        @Override
+        public double getTotalDistance() {
+            return Measures.unitsToKM(distance);
+        }
+
+        @Override
+        public long getTotalCost() {
+            return cost;
+        }
+
+        @Override
+        public long getTotalReward() {
+            return reward;
+        }
+
+        @Override
+        public long getTotalProfit() {
+            return reward - cost;
+        }
+
+        @Override
+        public int getTotalTasks() {
+            return tasks;
+        }
+
+        @Override
+        public int compareTo(AgentStatistics that) {
+            long myProfit = this.getTotalProfit();
+            long hisProfit = that.getTotalProfit();
+
+            if (myProfit > hisProfit)
+                return -1;
+            if (myProfit < hisProfit)
+                return 1;
+            return 0;
+        }
+    }
+
+    /* Helpers */
+
+    private City city(String name) {
+        try {
+            return topology.parseCity(name);
+        } catch (IllegalArgumentException iaEx) {
+            throw new Divergence(iaEx.getMessage());
+        }
+    }
+
+    private Task roundTask(int event, int id) {
+        if (id < 0 || id >= taskArray.length)
+            throw new Divergence("Event " + event + ": unknown task " + id);
+        return taskArray[id];
+    }
+
+    /**
+     * Feeds the recorded actions to the vehicles of an agent.
+     */
+    private static class Controller implements VehicleController {
+        Action action;
+
+        @Override
+        public Action nextAction(int vid) {
+            Action next = action;
+            action = null;
+            return next;
+        }
+
+        @Override
+        public void stuckAction(int vid, Action action) {
+        }
+
+        @Override
+        public void notifyPickup(Task task) {
+        }
+
+        @Override
+        public void notifyDelivery(Task task) {
+        }
+    }
+
+    /**
+     * The first difference between a history and its replay. It is
+     * unchecked to be thrown through {@link HistoryFiles#read}.
+     */
+    private static class Divergence extends RuntimeException {
+        private static final long serialVersionUID = 4223516427281618957L;
+
+        Divergence(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Carries a problem with the configuration of the history through
+     * {@link HistoryFiles#read}.
+     */
+    private static class ConfigurationFailure extends RuntimeException {
+        private static final long serialVersionUID = -2795196244325811523L;
+
+        ConfigurationFailure(ParserException pEx) {
+            super(pEx);
+        }
+
+        @Override
+        public ParserException getCause() {
+            return (ParserException) super.getCause();
+        }
+    }
+}
@@ -1,14 +1,17 @@
 package logist.simulation;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import logist.agent.AgentImpl;
 
 import uchicago.src.sim.engine.SimInit;
 
 import logist.LogistSettings;
+import logist.LogistSettings.Detail;
 import logist.gui.SimulationModel;
 import logist.history.Event;
 import logist.history.History;
@@ -23,17 +26,24 @@ import logist.topology.Topology;
  */
 public class Simulation {
 
+    /** The length of a step in headless mode */
+    static final long STEP_NANOS = 1000000000L;
+
     private final Context sim;
     private final SimulationModel model;
     private final History history;
 
-    private final PriorityQueue<VehicleImpl> queue;
     private final List<VehicleImpl> allVehicles;
-    private final List<VehicleImpl> activeVehicles;
+    private final VehicleStore store;
 
     private long simulationTime;
     private int eventCounter;
 
+    // headless rounds can be paused before a given time
+    private boolean started;
+    private boolean paused;
+    private long pauseTime = Long.MAX_VALUE;
+
     public Simulation(Context sim, List<AgentImpl> agents, History history) {
         this.history = history;
         this.sim = sim;
@@ -41,20 +51,22 @@ public class Simulation {
         this.simulationTime = 0;
         this.eventCounter = 0;
         this.model = new SimulationModel(this);
-        this.queue = new PriorityQueue<VehicleImpl>();
         this.allVehicles = new ArrayList<VehicleImpl>();
         for (AgentImpl agent : agents)
             allVehicles.addAll(agent.getVehicles());
-        this.activeVehicles = new ArrayList<VehicleImpl>(allVehicles.size());
+
+        this.store = new VehicleStore(allVehicles.size());
+        for (int i = 0; i < allVehicles.size(); i++)
+            allVehicles.get(i).attach(store, i);
     }
 
     private void reset() {
 
         simulationTime = 0;
         eventCounter = 0;
-        queue.clear();
-        activeVehicles.clear();
-        activeVehicles.addAll(allVehicles);
+        store.ready.clear();
+        store.waiting.clear();
+        store.activateAll();
     }
 
     public synchronized void run(boolean gui) {
@@ -74,13 +86,43 @@ public class Simulation {
                 e.printStackTrace();
             }
         } else {
-            while (!isRoundFinished())
-                step(1000000000L);
-            
-            close();
+            startEvents();
+            runEvents();
         }
 
     }
+
+    /**
+     * Pauses a headless round before the first actions that take place after
+     * the given time.
+     *
+     * @param time
+     *            the time in nanoseconds of simulated time since the
+     *            beginning of the round
+     */
+    public void pauseAfter(long time) {
+        this.pauseTime = time;
+    }
+
+    /** Whether the round has begun and is not finished yet */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /** Whether the round has been paused by {@link #pauseAfter(long)} */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Continues a paused round.
+     */
+    public synchronized void resume() {
+        if (!paused)
+            throw new IllegalStateException("The round is not paused");
+        paused = false;
+        runEvents();
+    }
     
     public synchronized void close() {
         sim.close();
@@ -88,40 +130,154 @@ public class Simulation {
     }
 
     public boolean isRoundFinished() {
-        return activeVehicles.isEmpty();
+        return store.numActive() == 0 && sim.nextArrival() == Long.MAX_VALUE;
     }
 
     public void step(long nanos) {
 //		System.out.println("step " +nanos);
         
         // move vehicles
-        queue.clear();
-        for (VehicleImpl vehicle : activeVehicles) {
-            vehicle.step(nanos);
-            if (vehicle.hasNextAction())
-                queue.add(vehicle);
+        store.ready.clear();
+        for (int slot = store.nextActive(0); slot >= 0; slot = store
+                .nextActive(slot + 1)) {
+            store.step(slot, nanos);
+            if (store.hasArrived(slot))
+                store.ready.add(slot);
         }
         simulationTime += nanos;
 
-        // execute actions
-        while (!queue.isEmpty()) {
-            VehicleImpl vehicle = queue.poll();
+        admitArrivals(false, 0L);
+        executeActions(false, 0L);
+    }
+
+    /**
+     * Runs the round without a GUI. The result is the same as calling
+     * {@link #step(long)} with one second steps until the round is finished,
+     * but instead of moving all vehicles in every step, the vehicles are kept
+     * in a heap ordered by the step in which they next arrive, and the
+     * simulation jumps from one such step to the next. A step in which a
+     * task arrives is not skipped even if no vehicle arrives.
+     */
+    private void runEvents() {
+        VehicleStore.SlotHeap waiting = store.waiting;
+
+        while (!waiting.isEmpty() || sim.nextArrival() != Long.MAX_VALUE) {
+            // a task is admitted at the end of the step in which it arrives
+            long step = sim.nextArrival() / STEP_NANOS + 1;
+            if (!waiting.isEmpty())
+                step = Math.min(step, store.wakeStep[waiting.peek()]);
+            if (step * STEP_NANOS > pauseTime) {
+                pauseTime = Long.MAX_VALUE;
+                paused = true;
+                history.flush();
+                return;
+            }
+            simulationTime = step * STEP_NANOS;
+            admitArrivals(true, step);
+
+            store.ready.clear();
+            while (!waiting.isEmpty()
+                    && store.wakeStep[waiting.peek()] == step)
+                store.ready.add(waiting.poll());
+
+            executeActions(true, step);
+        }
+        started = false;
+        history.flush();
+    }
+
+    private void startEvents() {
+        started = true;
+
+        // every vehicle starts with an action in the first step
+        for (int slot = 0; slot < store.size; slot++) {
+            store.step(slot, STEP_NANOS);
+            store.wakeStep[slot] = 1L;
+            store.waiting.add(slot);
+        }
+    }
+
+    /**
+     * Writes the state of a paused round.
+     */
+    void writeState(DataOutput out) throws IOException {
+        out.writeLong(simulationTime);
+        out.writeInt(eventCounter);
+        store.writeState(out);
+    }
+
+    /**
+     * Restores the state of a paused round. The round remains paused until
+     * it is resumed.
+     */
+    void readState(DataInput in, Topology topology) throws IOException {
+        simulationTime = in.readLong();
+        eventCounter = in.readInt();
+        store.readState(in, topology);
+        for (VehicleImpl vehicle : allVehicles)
+            vehicle.restored();
+        started = paused = true;
+    }
+
+    /**
+     * Executes the next actions of the vehicles that are ready until all of
+     * them are on their way. In headless mode the vehicles are then moved up
+     * to the step in which they arrive and put back into the waiting heap.
+     */
+    private void executeActions(boolean headless, long step) {
+        VehicleStore.SlotHeap ready = store.ready;
+        while (!ready.isEmpty()) {
+            int slot = ready.poll();
+            VehicleImpl vehicle = allVehicles.get(slot);
             Action action = vehicle.executeNextAction();
 
             if (action == null) {
                 // a null action terminates the round for this vehicle
-                activeVehicles.remove(vehicle);
+                store.deactivate(slot);
             } else {
                 // time-stamp action and add it to history
-                long time = simulationTime - vehicle.getUnusedNanos();
-                Event event = Event.fromAction(time, vehicle.getInfo(), action);
+                if (history.includes(Detail.EVENTS)) {
+                    long time = simulationTime - vehicle.getUnusedNanos();
+                    Event event = Event.fromAction(time, vehicle.getInfo(),
+                            action);
+
+                    // pastEvents.add(event);
+                    history.addEvent(eventCounter, event);
+                }
+                eventCounter++;
+
+                store.step(slot, 0);
+                if (store.hasArrived(slot)) {
+                    ready.add(slot);
+                } else if (headless) {
+                    store.wakeStep[slot] = step
+                            + store.stepUntilArrived(slot, STEP_NANOS);
+                    store.waiting.add(slot);
+                }
+            }
+        }
+    }
 
-                // pastEvents.add(event);
-                history.addEvent(eventCounter++, event);
+    /**
+     * Admits the tasks that arrived before the current time. The vehicles
+     * that had finished are woken, since their agents may have new tasks for
+     * them; those without any stop again at their next action.
+     */
+    private void admitArrivals(boolean headless, long step) {
+        if (sim.nextArrival() >= simulationTime)
+            return;
+        sim.admitArrivals(simulationTime);
 
-                vehicle.step(0);
-                if (vehicle.hasNextAction())
-                    queue.add(vehicle);
+        for (int slot = 0; slot < store.size; slot++) {
+            if (store.isActive(slot))
+                continue;
+            store.activate(slot);
+            store.unusedNanos[slot] = 0L;
+            if (headless) {
+                store.wakeStep[slot] = step;
+                store.waiting.add(slot);
+            } else {
+                store.ready.add(slot);
             }
         }
     }
@@ -1,6 +1,9 @@
 package logist.simulation;
 
 import java.awt.Color;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import logist.Measures;
 import logist.plan.Action;
@@ -71,7 +74,7 @@ public class VehicleImpl extends MovingObject implements ActionHandler<Boolean>
     }
 
     public City getCurrentCity() {
-        return nextCity;
+        return getNextCity();
     }
 
     public boolean hasNextAction() {
@@ -101,6 +104,54 @@ public class VehicleImpl extends MovingObject implements ActionHandler<Boolean>
         return currentTasks.size() + finishedTasks.size();
     }
     
+    /**
+     * Writes the tasks and totals of this vehicle to a snapshot.
+     */
+    void writeState(DataOutput out) throws IOException {
+        writeTasks(out, availableTasks);
+        writeTasks(out, currentTasks);
+        writeTasks(out, finishedTasks);
+        out.writeLong(totalReward);
+        out.writeLong(totalDistance);
+    }
+
+    /**
+     * Restores the tasks and totals of this vehicle after
+     * {@link #beginRound(TaskSet)}. The set of available tasks is shared with
+     * the agent, so it is overwritten rather than replaced.
+     */
+    void readState(DataInput in, Task[] universe) throws IOException {
+        readTasks(in, universe, availableTasks);
+        readTasks(in, universe, currentTasks);
+        readTasks(in, universe, finishedTasks);
+        totalReward = in.readLong();
+        totalDistance = in.readLong();
+    }
+
+    /**
+     * Writes a task set as its size followed by the ids of its tasks.
+     */
+    static void writeTasks(DataOutput out, TaskSet tasks) throws IOException {
+        out.writeInt(tasks.size());
+        for (Task task : tasks)
+            out.writeInt(task.id);
+    }
+
+    /**
+     * Replaces the content of a task set with the tasks written by
+     * {@link #writeTasks(DataOutput, TaskSet)}.
+     */
+    static void readTasks(DataInput in, Task[] universe, TaskSet tasks)
+            throws IOException {
+        tasks.clear();
+        for (int n = in.readInt(); n > 0; n--) {
+            int id = in.readInt();
+            if (id < 0 || id >= universe.length)
+                throw new IOException("The snapshot has a different round");
+            tasks.add(universe[id]);
+        }
+    }
+
     /* ActionHandler<Boolean> */
 
     @Override
@@ -167,7 +218,7 @@ public class VehicleImpl extends MovingObject implements ActionHandler<Boolean>
 
         @Override
         public City getCurrentCity() {
-            return nextCity;
+            return getNextCity();
         }
 
         @Override
@@ -0,0 +1,299 @@
+package logist.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import logist.Measures;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * The moving state of the vehicles of a simulation, kept in primitive arrays
+ * indexed by the slot of each vehicle. A {@link MovingObject} is only a handle
+ * to its slot, so stepping a fleet touches a few arrays instead of one object
+ * per vehicle.
+ * <p>
+ * The store also keeps the set of active vehicles as a bit set and the two
+ * queues of the simulation as heaps of slots, so that neither removing a
+ * vehicle nor queueing it allocates any memory.
+ */
+final class VehicleStore {
+
+    final int size;
+
+    final int[] uid;
+    final long[] speed;
+    final long[] unusedNanos;
+    final long[] target;
+    final long[] progress;
+    final City[] previousCity;
+    final City[] nextCity;
+
+    /** The step in which each waiting vehicle arrives */
+    final long[] wakeStep;
+
+    private final long[] active;
+    private int numActive;
+
+    /** The vehicles that have arrived, by most unused time and then by uid */
+    final SlotHeap ready;
+
+    /** The vehicles on their way, by the step in which they arrive */
+    final SlotHeap waiting;
+
+    VehicleStore(int size) {
+        this.size = size;
+        this.uid = new int[size];
+        this.speed = new long[size];
+        this.unusedNanos = new long[size];
+        this.target = new long[size];
+        this.progress = new long[size];
+        this.previousCity = new City[size];
+        this.nextCity = new City[size];
+        this.wakeStep = new long[size];
+        this.active = new long[(size + 63) >>> 6];
+
+        this.ready = new SlotHeap(size) {
+            @Override
+            boolean less(int a, int b) {
+                if (unusedNanos[a] != unusedNanos[b])
+                    return unusedNanos[a] > unusedNanos[b];
+                return uid[a] < uid[b];
+            }
+        };
+        this.waiting = new SlotHeap(size) {
+            @Override
+            boolean less(int a, int b) {
+                return wakeStep[a] < wakeStep[b];
+            }
+        };
+    }
+
+    /* Movement */
+
+    void step(int slot, long nanos) {
+        unusedNanos[slot] += nanos;
+
+        if (progress[slot] < target[slot]) {
+            long move = Math.min(target[slot] - progress[slot],
+                    unusedNanos[slot] * speed[slot]
+                            / Measures.NANOS_PER_SIM_HOUR);
+
+            progress[slot] += move;
+            unusedNanos[slot] -= (move * Measures.NANOS_PER_SIM_HOUR)
+                    / speed[slot];
+        }
+    }
+
+    /**
+     * Takes steps of the given length until the vehicle has arrived. The state
+     * afterwards is the same as after that many calls to
+     * {@link #step(int, long)}.
+     *
+     * @return the number of steps taken, 0 if the vehicle has already arrived
+     */
+    long stepUntilArrived(int slot, long nanos) {
+        long steps = 0;
+        while (progress[slot] != target[slot]) {
+            step(slot, nanos);
+            steps++;
+        }
+        return steps;
+    }
+
+    boolean hasArrived(int slot) {
+        return progress[slot] == target[slot];
+    }
+
+    /* Active vehicles */
+
+    void activateAll() {
+        for (int i = 0; i < active.length; i++)
+            active[i] = -1L;
+        if ((size & 63) != 0)
+            active[active.length - 1] = (1L << size) - 1;
+        numActive = size;
+    }
+
+    void activate(int slot) {
+        long bit = 1L << slot;
+        if ((active[slot >>> 6] & bit) == 0) {
+            active[slot >>> 6] |= bit;
+            numActive++;
+        }
+    }
+
+    void deactivate(int slot) {
+        long bit = 1L << slot;
+        if ((active[slot >>> 6] & bit) != 0) {
+            active[slot >>> 6] &= ~bit;
+            numActive--;
+        }
+    }
+
+    boolean isActive(int slot) {
+        return (active[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    int numActive() {
+        return numActive;
+    }
+
+    /**
+     * Returns the first active slot from <tt>slot</tt> on, or <tt>-1</tt> if
+     * there is none.
+     */
+    int nextActive(int slot) {
+        int i = slot >>> 6;
+        if (i >= active.length)
+            return -1;
+        long word = active[i] & (-1L << slot);
+        while (word == 0) {
+            if (++i == active.length)
+                return -1;
+            word = active[i];
+        }
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /* Snapshots */
+
+    /**
+     * Writes the state of all vehicles. The vehicles that are waiting must
+     * be exactly the active ones, as between two steps of a headless round.
+     */
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (long word : active)
+            out.writeLong(word);
+        for (int slot = 0; slot < size; slot++) {
+            out.writeLong(wakeStep[slot]);
+            out.writeLong(unusedNanos[slot]);
+            out.writeLong(progress[slot]);
+            out.writeLong(target[slot]);
+            out.writeInt(previousCity[slot].id);
+            out.writeInt(nextCity[slot].id);
+        }
+    }
+
+    /**
+     * Reads the state written by {@link #writeState(DataOutput)} and puts
+     * the active vehicles back into the waiting heap.
+     */
+    void readState(DataInput in, Topology topology) throws IOException {
+        if (in.readInt() != size)
+            throw new IOException("The snapshot has a different fleet");
+
+        numActive = 0;
+        for (int i = 0; i < active.length; i++) {
+            active[i] = in.readLong();
+            numActive += Long.bitCount(active[i]);
+        }
+
+        List<City> cities = topology.cities();
+        for (int slot = 0; slot < size; slot++) {
+            wakeStep[slot] = in.readLong();
+            unusedNanos[slot] = in.readLong();
+            progress[slot] = in.readLong();
+            target[slot] = in.readLong();
+            previousCity[slot] = city(cities, in.readInt());
+            nextCity[slot] = city(cities, in.readInt());
+        }
+
+        ready.clear();
+        waiting.clear();
+        for (int slot = nextActive(0); slot >= 0; slot = nextActive(slot + 1))
+            waiting.add(slot);
+    }
+
+    private static City city(List<City> cities, int id) throws IOException {
+        if (id < 0 || id >= cities.size())
+            throw new IOException("The snapshot has a different topology");
+        return cities.get(id);
+    }
+
+    /**
+     * A binary heap of slots in which each slot appears at most once. The
+     * order is given by the store arrays at the time of insertion.
+     */
+    abstract static class SlotHeap {
+        private final int[] heap;
+        private final int[] position;
+        private int count;
+
+        SlotHeap(int size) {
+            this.heap = new int[size];
+            this.position = new int[size];
+            for (int i = 0; i < size; i++)
+                position[i] = -1;
+        }
+
+        /** Whether slot <tt>a</tt> comes before slot <tt>b</tt> */
+        abstract boolean less(int a, int b);
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        boolean contains(int slot) {
+            return position[slot] >= 0;
+        }
+
+        void add(int slot) {
+            if (position[slot] >= 0)
+                return;
+            siftUp(count++, slot);
+        }
+
+        int peek() {
+            return heap[0];
+        }
+
+        int poll() {
+            int first = heap[0];
+            position[first] = -1;
+            int last = heap[--count];
+            if (count > 0)
+                siftDown(0, last);
+            return first;
+        }
+
+        void clear() {
+            for (int i = 0; i < count; i++)
+                position[heap[i]] = -1;
+            count = 0;
+        }
+
+        private void siftUp(int i, int slot) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(slot, heap[parent]))
+                    break;
+                place(i, heap[parent]);
+                i = parent;
+            }
+            place(i, slot);
+        }
+
+        private void siftDown(int i, int slot) {
+            int half = count >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < count && less(heap[child + 1], heap[child]))
+                    child++;
+                if (!less(heap[child], slot))
+                    break;
+                place(i, heap[child]);
+                i = child;
+            }
+            place(i, slot);
+        }
+
+        private void place(int i, int slot) {
+            heap[i] = slot;
+            position[slot] = i;
+        }
+    }
+}
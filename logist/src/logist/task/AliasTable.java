@@ -0,0 +1,87 @@
+package logist.task;
+
+/**
+ * A table for sampling from a discrete distribution in constant time with
+ * Vose's alias method. Each of the <tt>n</tt> columns holds the probability
+ * of keeping its own outcome and the alias that is taken otherwise.
+ */
+class AliasTable {
+
+    private final double[] keep;
+    private final int[] alias;
+
+    /**
+     * Builds the table for outcomes <tt>0 .. weights.length - 1</tt> with
+     * probabilities proportional to the given non-negative weights. If all
+     * weights are zero (or not finite), the table returns <tt>-1</tt>.
+     */
+    AliasTable(double[] weights) {
+        int n = weights.length;
+        this.keep = new double[n];
+        this.alias = new int[n];
+
+        double sum = 0.0;
+        for (double w : weights)
+            sum += w;
+        if (!(sum > 0.0) || Double.isInfinite(sum)) {
+            for (int i = 0; i < n; i++)
+                alias[i] = -1;
+            return;
+        }
+
+        // split the scaled weights into small and large ones
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0, numLarge = 0;
+        int heaviest = 0;
+        for (int i = 0; i < n; i++) {
+            if (weights[i] > weights[heaviest])
+                heaviest = i;
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1.0)
+                small[numSmall++] = i;
+            else
+                large[numLarge++] = i;
+        }
+
+        // fill each small column with a large outcome
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            keep[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0)
+                small[numSmall++] = l;
+            else
+                large[numLarge++] = l;
+        }
+
+        // the remaining columns are full, up to rounding errors
+        while (numLarge > 0) {
+            int l = large[--numLarge];
+            keep[l] = 1.0;
+            alias[l] = l;
+        }
+        while (numSmall > 0) {
+            int s = small[--numSmall];
+            keep[s] = (weights[s] > 0.0) ? 1.0 : 0.0;
+            alias[s] = (weights[s] > 0.0) ? s : heaviest;
+        }
+    }
+
+    /**
+     * Returns the outcome for a uniform random number in <tt>[0, 1)</tt>, or
+     * <tt>-1</tt> if the distribution is empty.
+     */
+    int sample(double uniform) {
+        if (keep.length == 0)
+            return -1;
+        double x = uniform * keep.length;
+        int column = (int) x;
+        if (column >= keep.length) // rounding
+            column = keep.length - 1;
+        return (x - column < keep[column]) ? column : alias[column];
+    }
+}
@@ -1,17 +1,28 @@
 package logist.task;
 
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import logist.topology.Topology;
 import logist.topology.Topology.City;
 
 /**
  * A task distribution and a task generator that are based on task frequencies.
+ * <p>
+ * Tasks are drawn from alias tables that are built once, so that each task
+ * takes constant time and a single random number regardless of the size of
+ * the topology.
  * 
  * @author Robin Steiger
  */
 public class DefaultTaskDistribution implements TaskDistribution {
 
+    /** Number of tasks generated by one fork/join task */
+    private static final int TASKS_PER_CHUNK = 1024;
+
     private final Topology topology;
     private final Random random;
 
@@ -21,8 +32,13 @@ public class DefaultTaskDistribution implements TaskDistribution {
     private final double[] notask;
 
     private final double[][] probability;
-    private final double[] frequenceSum;
-    private final double frequenceSumGlobal;
+
+    /** The pairs <tt>from * numC + to</tt> weighted by frequency */
+    private final AliasTable pairs;
+    /** The destinations from each city, where <tt>numC</tt> means no task */
+    private final AliasTable[] destinations;
+
+    private double arrivalRate = 0.0;
 
     public DefaultTaskDistribution(Topology topology, Random random,
             double[][] f, double[][] r, double[][] w, double[] n) {
@@ -36,20 +52,49 @@ public class DefaultTaskDistribution implements TaskDistribution {
         // normalize probabilities
         int numC = f.length;
         this.probability = new double[numC][numC];
-        this.frequenceSum = new double[numC];
+        this.destinations = new AliasTable[numC];
+        double[] pairWeights = new double[numC * numC];
 
-        double sum = 0;
         for (int i = 0; i < numC; i++) {
+            double frequenceSum = 0;
             for (int j = 0; j < numC; j++)
-                frequenceSum[i] += frequence[i][j];
+                frequenceSum += frequence[i][j];
+            System.arraycopy(frequence[i], 0, pairWeights, i * numC, numC);
 
-            sum += frequenceSum[i];
-
-            double factor = (1.0 - notask[i]) / frequenceSum[i];
-            for (int j = 0; j < numC; j++)
+            double factor = (1.0 - notask[i]) / frequenceSum;
+            double[] destinationWeights = new double[numC + 1];
+            for (int j = 0; j < numC; j++) {
                 probability[i][j] = frequence[i][j] * factor;
+                if (frequenceSum > 0)
+                    destinationWeights[j] = probability[i][j];
+            }
+            destinationWeights[numC] = notask[i];
+            destinations[i] = new AliasTable(destinationWeights);
         }
-        this.frequenceSumGlobal = sum;
+        this.pairs = new AliasTable(pairWeights);
+    }
+
+    private DefaultTaskDistribution(DefaultTaskDistribution tables,
+            Random random) {
+        this.topology = tables.topology;
+        this.random = random;
+        this.frequence = tables.frequence;
+        this.notask = tables.notask;
+        this.reward = tables.reward;
+        this.weight = tables.weight;
+        this.probability = tables.probability;
+        this.destinations = tables.destinations;
+        this.pairs = tables.pairs;
+        this.arrivalRate = tables.arrivalRate;
+    }
+
+    /**
+     * Returns a distribution with the same probabilities, rewards and weights
+     * that draws its tasks from another random generator. The tables are
+     * shared with this distribution and are not copied.
+     */
+    public DefaultTaskDistribution withRandom(Random random) {
+        return new DefaultTaskDistribution(this, random);
     }
 
     @Override
@@ -68,18 +113,24 @@ public class DefaultTaskDistribution implements TaskDistribution {
     }
 
     public Task createTask(City from) {
-        double prob = random.nextDouble();
+        return createTask(0, from.id, random.nextDouble());
+    }
 
-        for (City to : topology) {
-            prob -= probability[from.id][to.id];
-            if (prob <= 0.0) {
-                double rew = reward[from.id][to.id];
-                double wgt = weight[from.id][to.id];
+    /**
+     * Creates a task from a city for a uniform random number, or returns
+     * <tt>null</tt> if there is no task.
+     */
+    Task createTask(int id, int from, double uniform) {
+        int to = destinations[from].sample(uniform);
+        if (to < 0 || to == frequence.length)
+            return null;
 
-                return new Task(0, from, to, (int) rew, (int) wgt);
-            }
-        }
-        return null;
+        double rew = reward[from][to];
+        double wgt = weight[from][to];
+
+        List<City> cities = topology.cities();
+        return new Task(id, cities.get(from), cities.get(to), (int) rew,
+                (int) wgt);
     }
 
     public TaskSet createTaskSet(int size) {
@@ -89,38 +140,119 @@ public class DefaultTaskDistribution implements TaskDistribution {
     public TaskSet createTaskSet(Task[] tasks) {
         
         for (int i = 0; i < tasks.length; i++)
-            tasks[i] = createTask(i);
+            tasks[i] = createTask(i, random.nextDouble());
+
+        return TaskSet.create(tasks);
+    }
+
+    /**
+     * Creates a set of tasks independently of the random number generator of
+     * this distribution. The tasks are generated in parallel in chunks, each
+     * with its own random stream split from the seed, so the result only
+     * depends on the size and the seed.
+     * 
+     * @param size
+     *            the number of tasks
+     * @param seed
+     *            the seed of the random streams
+     */
+    public TaskSet createTaskSet(int size, long seed) {
+        Task[] tasks = new Task[size];
 
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[(size
+                + TASKS_PER_CHUNK - 1) / TASKS_PER_CHUNK];
+        for (int c = 0; c < streams.length; c++)
+            streams[c] = root.split();
+
+        ForkJoinPool.commonPool().invoke(
+                new ChunkRange(tasks, streams, 0, streams.length));
         return TaskSet.create(tasks);
     }
 
+    /**
+     * Creates a stream of tasks that arrive over time, independently of the
+     * random number generator of this distribution.
+     * 
+     * @param ratePerHour
+     *            the mean number of task offers per city and simulated hour
+     * @param seed
+     *            the seed of the stream
+     * @param firstId
+     *            the id of the first task
+     * @throws IllegalArgumentException
+     *             if the rate is not positive
+     */
+    public TaskStream createTaskStream(double ratePerHour, long seed,
+            int firstId) {
+        return new TaskStream(this, frequence.length, ratePerHour, seed,
+                firstId);
+    }
+
+    /**
+     * Returns the mean number of task offers per city and simulated hour
+     * during a round, or 0 if all tasks are created at the beginning.
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    public void setArrivalRate(double arrivalRate) {
+        this.arrivalRate = arrivalRate;
+    }
+
     public Task createTask() {
-        return createTask(0);
-    }
-
-    private Task createTask(int id) {
-        double pivot = random.nextDouble() * frequenceSumGlobal;
-
-        for (City from : topology) {
-            pivot -= frequenceSum[from.id];
-            if (pivot < 0) {
-                for (City to : topology) {
-                    pivot += frequence[from.id][to.id];
-                    if (pivot >= 0) {
-//						@SuppressWarnings("unused")
-                        double rew = reward[from.id][to.id];
-                        double wgt = weight[from.id][to.id];
-
-//						return new Task(id, from, to, (long) 0, (int) wgt);
-                        return new Task(id, from, to, (long) rew, (int) wgt);
-                    }
-                }
-            }
-        }
-        throw new AssertionError("no task was created");
+        return createTask(0, random.nextDouble());
+    }
+
+    private Task createTask(int id, double uniform) {
+        int pair = pairs.sample(uniform);
+        if (pair < 0)
+            throw new AssertionError("no task was created");
+
+        int numC = frequence.length;
+        int from = pair / numC;
+        int to = pair % numC;
+        double rew = reward[from][to];
+        double wgt = weight[from][to];
+
+        List<City> cities = topology.cities();
+        return new Task(id, cities.get(from), cities.get(to), (long) rew,
+                (int) wgt);
     }
 
     public Random getRandom() {
         return random;
     }
+
+    private class ChunkRange extends RecursiveAction {
+        private static final long serialVersionUID = -2047739157424096416L;
+
+        private final Task[] tasks;
+        private final SplittableRandom[] streams;
+        private final int lo, hi;
+
+        ChunkRange(Task[] tasks, SplittableRandom[] streams, int lo, int hi) {
+            this.tasks = tasks;
+            this.streams = streams;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ChunkRange(tasks, streams, lo, mid),
+                        new ChunkRange(tasks, streams, mid, hi));
+                return;
+            }
+
+            for (int c = lo; c < hi; c++) {
+                int end = Math.min(tasks.length, (c + 1) * TASKS_PER_CHUNK);
+                for (int i = c * TASKS_PER_CHUNK; i < end; i++)
+                    tasks[i] = createTask(i, streams[c].nextDouble());
+            }
+        }
+    }
 }
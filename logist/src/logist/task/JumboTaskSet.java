@@ -29,18 +29,17 @@ class JumboTaskSet extends TaskSet {
 
     @Override
     void addAll() {
-        for (int i = 0; i < elements.length; i++)
-            elements[i] = -1;
-        elements[elements.length - 1] >>>= -universe.length;
-        size = universe.length;
+        for (int i = 0; i < elements.length - 1; i++)
+            set(i, -1L);
+        set(elements.length - 1, -1L >>> -universe.length);
     }
 
     @Override
     void complement() {
-        for (int i = 0; i < elements.length; i++)
-            elements[i] = ~elements[i];
-        elements[elements.length - 1] &= (-1L >>> -universe.length);
-        size = universe.length - size;
+        for (int i = 0; i < elements.length - 1; i++)
+            set(i, ~elements[i]);
+        set(elements.length - 1, ~elements[elements.length - 1]
+                & (-1L >>> -universe.length));
     }
 
     /**
@@ -106,6 +105,8 @@ class JumboTaskSet extends TaskSet {
                 throw new IllegalStateException();
             elements[lastReturnedIndex] -= lastReturned;
             size--;
+            count(universe[(lastReturnedIndex << 6)
+                    + Long.numberOfTrailingZeros(lastReturned)], -1);
             lastReturned = 0;
         }
     }
@@ -169,8 +170,10 @@ class JumboTaskSet extends TaskSet {
         long oldElements = elements[eWordNum];
         elements[eWordNum] |= (1L << eOrdinal);
         boolean result = (elements[eWordNum] != oldElements);
-        if (result)
+        if (result) {
             size++;
+            count(e, 1);
+        }
         return result;
     }
 
@@ -195,8 +198,10 @@ class JumboTaskSet extends TaskSet {
         long oldElements = elements[eWordNum];
         elements[eWordNum] &= ~(1L << eOrdinal);
         boolean result = (elements[eWordNum] != oldElements);
-        if (result)
+        if (result) {
             size--;
+            count(task, -1);
+        }
         return result;
     }
 
@@ -220,10 +225,7 @@ class JumboTaskSet extends TaskSet {
         JumboTaskSet ts = (JumboTaskSet) c;
         check(ts);
 
-        for (int i = 0; i < elements.length; i++)
-            if ((ts.elements[i] & ~elements[i]) != 0)
-                return false;
-        return true;
+        return containsAllFast(ts);
     }
 
     /**
@@ -242,9 +244,7 @@ class JumboTaskSet extends TaskSet {
         JumboTaskSet ts = (JumboTaskSet) c;
         check(ts);
 
-        for (int i = 0; i < elements.length; i++)
-            elements[i] |= ts.elements[i];
-        return recalculateSize();
+        return ts.unionInto(this);
     }
 
     /**
@@ -265,9 +265,7 @@ class JumboTaskSet extends TaskSet {
         JumboTaskSet ts = (JumboTaskSet) c;
         check(ts);
 
-        for (int i = 0; i < elements.length; i++)
-            elements[i] &= ~ts.elements[i];
-        return recalculateSize();
+        return andNot(ts);
     }
 
     /**
@@ -287,9 +285,10 @@ class JumboTaskSet extends TaskSet {
         JumboTaskSet ts = (JumboTaskSet) c;
         check(ts);
 
+        boolean changed = false;
         for (int i = 0; i < elements.length; i++)
-            elements[i] &= ts.elements[i];
-        return recalculateSize();
+            changed |= set(i, elements[i] & ts.elements[i]);
+        return changed;
     }
 
     /**
@@ -298,6 +297,7 @@ class JumboTaskSet extends TaskSet {
     public void clear() {
         Arrays.fill(elements, 0);
         size = 0;
+        weightSum = 0;
     }
 
     /**
@@ -330,16 +330,101 @@ class JumboTaskSet extends TaskSet {
         return hash;
     }
 
+    @Override
+    public boolean intersects(TaskSet s) {
+        check(s);
+        long[] other = ((JumboTaskSet) s).elements;
+        for (int i = 0; i < elements.length; i++)
+            if ((elements[i] & other[i]) != 0)
+                return true;
+        return false;
+    }
+
+    @Override
+    public boolean andNot(TaskSet s) {
+        check(s);
+        long[] other = ((JumboTaskSet) s).elements;
+        boolean changed = false;
+        for (int i = 0; i < elements.length; i++)
+            if ((elements[i] & other[i]) != 0)
+                changed |= set(i, elements[i] & ~other[i]);
+        return changed;
+    }
+
+    @Override
+    public boolean unionInto(TaskSet target) {
+        check(target);
+        JumboTaskSet ts = (JumboTaskSet) target;
+        boolean changed = false;
+        for (int i = 0; i < elements.length; i++)
+            if ((elements[i] & ~ts.elements[i]) != 0)
+                changed |= ts.set(i, ts.elements[i] | elements[i]);
+        return changed;
+    }
+
+    @Override
+    public boolean containsAllFast(TaskSet s) {
+        check(s);
+        long[] other = ((JumboTaskSet) s).elements;
+        for (int i = 0; i < elements.length; i++)
+            if ((other[i] & ~elements[i]) != 0)
+                return false;
+        return true;
+    }
+
+    @Override
+    public int weightSumOf(TaskSet mask) {
+        check(mask);
+        long[] other = ((JumboTaskSet) mask).elements;
+        int sum = 0;
+        for (int i = 0; i < elements.length; i++)
+            sum += weightSumOf(i, elements[i] & other[i]);
+        return sum;
+    }
+
+    @Override
+    long word(int index) {
+        return elements[index];
+    }
+
+    @Override
+    void load(long[] words, int weightSum) {
+        System.arraycopy(words, 0, elements, 0, elements.length);
+        this.size = 0;
+        for (long word : elements)
+            this.size += Long.bitCount(word);
+        this.weightSum = weightSum;
+    }
+
+    @Override
+    TaskSet masked(long[] mask) {
+        JumboTaskSet result = (JumboTaskSet) super.clone();
+        result.elements = new long[elements.length];
+        result.size = 0;
+        result.weightSum = 0;
+        for (int i = 0; i < elements.length; i++) {
+            long word = elements[i] & mask[i];
+            if (word != 0) {
+                result.elements[i] = word;
+                result.size += Long.bitCount(word);
+                result.weightSum += weightSumOf(i, word);
+            }
+        }
+        return result;
+    }
+
     /**
-     * Recalculates the size of the set. Returns true if it's changed.
+     * Replaces a word of the bit vector and updates the size and the sums.
+     * Returns true if it's changed.
      */
-    private boolean recalculateSize() {
-        int oldSize = size;
-        size = 0;
-        for (long elt : elements)
-            size += Long.bitCount(elt);
-
-        return size != oldSize;
+    private boolean set(int i, long word) {
+        long oldWord = elements[i];
+        if (word == oldWord)
+            return false;
+        elements[i] = word;
+        size += Long.bitCount(word) - Long.bitCount(oldWord);
+        update(i, oldWord, word);
+        return true;
     }
 
     @Override
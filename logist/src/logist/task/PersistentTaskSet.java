@@ -0,0 +1,441 @@
+package logist.task;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import logist.topology.Topology.City;
+
+/**
+ * An immutable set of {@link Task} objects for use as (part of) a search
+ * key. Like {@link TaskSet}, all elements must come from the same task batch.
+ *
+ * <p>
+ * Instead of modifying the set, {@link #with(Task)} and
+ * {@link #without(Task)} return a new set that shares all but a few words of
+ * its bit vector with the original. The bit vector is stored as a trie of
+ * 16 words per node, so an update copies one node per level and takes
+ * constant time for batches of up to 1024 tasks.
+ *
+ * <p>
+ * Each set carries a 64-bit Zobrist hash, the exclusive or of a fixed random
+ * key per task id, which is updated along with the set. Two equal sets have
+ * the same {@link #zobristHash()}, which makes the sets cheap to compare and
+ * a good key for hash tables of search states. {@link #hashCode()} follows
+ * the contract of {@link java.util.Set}. Like {@link #rewardSum()}, it is
+ * computed from the tasks on each call, since an auction replaces the task
+ * of an id.
+ *
+ * <p>
+ * A persistent set is not a {@link TaskSet}: task sets are modified in
+ * place, also by their bulk operations, which an immutable set cannot
+ * support. {@link #copyOf(TaskSet)} and {@link #toTaskSet()} convert between
+ * the two by copying the bit vector word by word, and a persistent set
+ * equals a task set of the same tasks.
+ *
+ * <p>
+ * The iterator traverses the elements in order of increasing task id.
+ */
+public final class PersistentTaskSet extends AbstractSet<Task> {
+
+    /** The number of bits of a word index consumed per trie level */
+    private static final int BITS = 4;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private final Task[] universe;
+    private final TaskIndex index;
+    private final TaskSet empty; // an empty task set of the universe
+
+    /** The number of trie levels above the words */
+    private final int depth;
+
+    /** The root node, a long[] if depth is zero, an Object[] otherwise */
+    private final Object root;
+
+    private final int size;
+    private final int weightSum;
+    private final long hash;
+
+    private PersistentTaskSet(PersistentTaskSet s, Object root, int size,
+            int weightSum, long hash) {
+        this(s.universe, s.index, s.empty, s.depth, root, size, weightSum,
+                hash);
+    }
+
+    private PersistentTaskSet(Task[] universe, TaskIndex index,
+            TaskSet empty, int depth, Object root, int size, int weightSum,
+            long hash) {
+        this.universe = universe;
+        this.index = index;
+        this.empty = empty;
+        this.depth = depth;
+        this.root = root;
+        this.size = size;
+        this.weightSum = weightSum;
+        this.hash = hash;
+    }
+
+    /**
+     * Creates a persistent task set containing the same elements as the
+     * specified task set.
+     *
+     * @param s
+     *            the set from which to initialize this set
+     */
+    public static PersistentTaskSet copyOf(TaskSet s) {
+        long[] words = new long[Math.max(1, (s.universe.length + 63) >>> 6)];
+        for (int i = 0; i < (s.universe.length + 63) >>> 6; i++)
+            words[i] = s.word(i);
+        return create(s.universe, s.index(), TaskSet.noneOf(s), words,
+                s.weightSum());
+    }
+
+    /**
+     * Creates an empty persistent task set ranging over the same universe as
+     * the specified task set.
+     *
+     * @param s
+     *            the set from which to take the universe
+     */
+    public static PersistentTaskSet noneOf(TaskSet s) {
+        return copyOf(TaskSet.noneOf(s));
+    }
+
+    /**
+     * Returns a set that contains the tasks of this set and the specified
+     * task. This set is returned if it already contains the task.
+     *
+     * @param task
+     *            the task to be added
+     * @throws IllegalArgumentException
+     *             if the task is from a different round
+     */
+    public PersistentTaskSet with(Task task) {
+        check(task);
+        long word = word(task.id >>> 6);
+        if ((word & (1L << task.id)) != 0)
+            return this;
+
+        Object newRoot = update(root, depth, task.id >>> 6,
+                word | (1L << task.id));
+        return new PersistentTaskSet(this, newRoot, size + 1, weightSum
+                + task.weight, hash ^ key(task.id));
+    }
+
+    /**
+     * Returns a set that contains the tasks of this set except the specified
+     * task. This set is returned if it does not contain the task.
+     *
+     * @param task
+     *            the task to be removed
+     * @throws IllegalArgumentException
+     *             if the task is from a different round
+     */
+    public PersistentTaskSet without(Task task) {
+        check(task);
+        long word = word(task.id >>> 6);
+        if ((word & (1L << task.id)) == 0)
+            return this;
+
+        Object newRoot = update(root, depth, task.id >>> 6,
+                word & ~(1L << task.id));
+        return new PersistentTaskSet(this, newRoot, size - 1, weightSum
+                - task.weight, hash ^ key(task.id));
+    }
+
+    /**
+     * Returns the tasks of this set that are picked up in a city.
+     * 
+     * @param city
+     *            the pickup city
+     * @return the set of tasks to be picked up in <tt>city</tt>
+     */
+    public PersistentTaskSet pickupsAt(City city) {
+        return retain(index.pickups(universe).mask(city));
+    }
+
+    /**
+     * Returns the tasks of this set that are delivered in a city.
+     * 
+     * @param city
+     *            the delivery city
+     * @return the set of tasks to be delivered in <tt>city</tt>
+     */
+    public PersistentTaskSet deliveriesAt(City city) {
+        return retain(index.deliveries(universe).mask(city));
+    }
+
+    private PersistentTaskSet retain(long[] mask) {
+        long[] words = new long[mask.length];
+        int weightSum = 0;
+        for (int i = 0; i < words.length; i++) {
+            words[i] = word(i) & mask[i];
+            weightSum += empty.weightSumOf(i, words[i]);
+        }
+        return create(universe, index, empty, words, weightSum);
+    }
+
+    /**
+     * Returns a new mutable task set containing the elements of this set.
+     * The bit vector is copied word by word.
+     */
+    public TaskSet toTaskSet() {
+        TaskSet result = empty.clone();
+        result.load(words(), weightSum);
+        return result;
+    }
+
+    /**
+     * Sums the weights of all tasks.
+     * @return The sum of weights of all tasks in the set.
+     */
+    public int weightSum() {
+        return weightSum;
+    }
+
+    /**
+     * Sums the rewards of all tasks.
+     * @return The sum of rewards of all tasks in the set.
+     */
+    public int rewardSum() {
+        int sum = 0;
+        for (Task task : this)
+            sum += task.reward;
+        return sum;
+    }
+
+    /**
+     * Returns the Zobrist hash of this set, the exclusive or of the keys of
+     * all its tasks.
+     */
+    public long zobristHash() {
+        return hash;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(Object e) {
+        if (!(e instanceof Task))
+            return false;
+
+        Task task = (Task) e;
+        check(task);
+
+        return (word(task.id >>> 6) & (1L << task.id)) != 0;
+    }
+
+    /**
+     * Returns an iterator over the elements contained in this set. The iterator
+     * traverses the elements in the order of increasing task ids.
+     *
+     * @return an iterator over the elements contained in this set
+     */
+    @Override
+    public Iterator<Task> iterator() {
+        return new TaskIterator();
+    }
+
+    private class TaskIterator implements Iterator<Task> {
+        final int numWords = (universe.length + 63) >>> 6;
+        long unseen;
+        int unseenIndex = 0;
+
+        TaskIterator() {
+            unseen = (numWords == 0) ? 0L : word(0);
+        }
+
+        public boolean hasNext() {
+            while (unseen == 0 && unseenIndex < numWords - 1)
+                unseen = word(++unseenIndex);
+            return unseen != 0;
+        }
+
+        public Task next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            long lastReturned = unseen & -unseen;
+            unseen -= lastReturned;
+            return universe[(unseenIndex << 6)
+                    + Long.numberOfTrailingZeros(lastReturned)];
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Compares the specified object with this set for equality. Persistent
+     * sets of the same round are compared by hash and then word by word,
+     * skipping the nodes they share.
+     *
+     * @param o
+     *            object to be compared for equality with this set
+     * @return <tt>true</tt> if the specified object is equal to this set
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof TaskSet && ((TaskSet) o).universe == universe)
+            return Arrays.equals(words(), ((TaskSet) o).words());
+        if (!(o instanceof PersistentTaskSet))
+            return super.equals(o);
+
+        PersistentTaskSet s = (PersistentTaskSet) o;
+        if (s.universe != universe)
+            throw new IllegalArgumentException(
+                    "You cannot combine Tasksets from different rounds !");
+
+        return s.hash == hash && s.size == size
+                && equal(root, s.root, depth);
+    }
+
+    /**
+     * Returns the hash code of this set as specified by
+     * {@link java.util.Set#hashCode()}, so that it stays consistent with
+     * {@link #equals(Object)} for any other set. It is computed from the
+     * tasks on each call, use {@link #zobristHash()} for a 64-bit hash of the
+     * set that takes constant time.
+     */
+    @Override
+    public int hashCode() {
+        int sum = 0;
+        for (Task task : this)
+            sum += task.hashCode();
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /* Trie */
+
+    /**
+     * Creates a set from a plain bit vector with at least one word and the
+     * sum of the weights of its tasks.
+     */
+    private static PersistentTaskSet create(Task[] universe, TaskIndex index,
+            TaskSet empty, long[] words, int weightSum) {
+        int size = 0;
+        long hash = 0L;
+        for (int i = 0; i < words.length; i++) {
+            size += Long.bitCount(words[i]);
+            for (long bits = words[i]; bits != 0; bits &= bits - 1)
+                hash ^= key((i << 6) + Long.numberOfTrailingZeros(bits));
+        }
+
+        int depth = 0;
+        while ((long) WIDTH << (BITS * depth) < words.length)
+            depth++;
+
+        return new PersistentTaskSet(universe, index, empty, depth, build(
+                words, depth, 0), size, weightSum, hash);
+    }
+
+    /** The bit vector of this set as a plain array */
+    private long[] words() {
+        long[] words = new long[(universe.length + 63) >>> 6];
+        for (int i = 0; i < words.length; i++)
+            words[i] = word(i);
+        return words;
+    }
+
+    private long word(int index) {
+        Object node = root;
+        for (int level = depth; level > 0; level--) {
+            node = ((Object[]) node)[(index >>> (BITS * level)) & MASK];
+            if (node == null)
+                return 0L;
+        }
+        return ((long[]) node)[index & MASK];
+    }
+
+    /**
+     * Returns a copy of a node in which the word with the given index is
+     * replaced. Absent nodes stand for all-zero words.
+     */
+    private static Object update(Object node, int level, int index,
+            long word) {
+        if (level == 0) {
+            long[] words = (node == null) ? new long[WIDTH]
+                    : ((long[]) node).clone();
+            words[index & MASK] = word;
+            return words;
+        }
+        Object[] children = (node == null) ? new Object[WIDTH]
+                : ((Object[]) node).clone();
+        int slot = (index >>> (BITS * level)) & MASK;
+        children[slot] = update(children[slot], level - 1, index, word);
+        return children;
+    }
+
+    /**
+     * Builds the node holding the words starting at <tt>offset</tt> from a
+     * plain bit vector. Nodes with all-zero words are left out.
+     */
+    private static Object build(long[] words, int level, int offset) {
+        if (level == 0) {
+            long[] node = new long[WIDTH];
+            System.arraycopy(words, offset, node, 0,
+                    Math.min(WIDTH, words.length - offset));
+            return node;
+        }
+        Object[] children = new Object[WIDTH];
+        int span = 1 << (BITS * level);
+        for (int i = 0; i < WIDTH && offset + i * span < words.length; i++)
+            if (!isZero(words, offset + i * span, span))
+                children[i] = build(words, level - 1, offset + i * span);
+        return children;
+    }
+
+    private static boolean isZero(long[] words, int from, int count) {
+        for (int i = from; i < Math.min(words.length, from + count); i++)
+            if (words[i] != 0L)
+                return false;
+        return true;
+    }
+
+    private static boolean equal(Object a, Object b, int level) {
+        if (a == b)
+            return true;
+        if (level == 0)
+            return Arrays.equals((long[]) (a == null ? new long[WIDTH] : a),
+                    (long[]) (b == null ? new long[WIDTH] : b));
+        Object[] ca = (Object[]) a;
+        Object[] cb = (Object[]) b;
+        for (int i = 0; i < WIDTH; i++)
+            if (!equal(ca == null ? null : ca[i], cb == null ? null : cb[i],
+                    level - 1))
+                return false;
+        return true;
+    }
+
+    /**
+     * The Zobrist key of a task id, a SplitMix64 mix of the id.
+     */
+    private static long key(int id) {
+        long z = (id + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void check(Task task) {
+        if (0 > task.id || task.id >= universe.length
+                || universe[task.id] != task)
+            throw new IllegalArgumentException(
+                    "You cannot use a task from a different round !");
+    }
+}
@@ -22,14 +22,13 @@ class RegularTaskSet extends TaskSet {
     @Override
     void addAll() {
         if (universe.length != 0)
-            elements = -1L >>> -universe.length;
+            set(-1L >>> -universe.length);
     }
 
     @Override
     void complement() {
         if (universe.length != 0) {
-            elements = ~elements;
-            elements &= -1L >>> -universe.length; // Mask unused bits
+            set(~elements & (-1L >>> -universe.length)); // Mask unused bits
         }
     }
 
@@ -71,6 +70,7 @@ class RegularTaskSet extends TaskSet {
             if (lastReturned == 0)
                 throw new IllegalStateException();
             elements -= lastReturned;
+            count(universe[Long.numberOfTrailingZeros(lastReturned)], -1);
             lastReturned = 0;
         }
     }
@@ -131,7 +131,10 @@ class RegularTaskSet extends TaskSet {
 
         long oldElements = elements;
         elements |= (1L << e.id);
-        return elements != oldElements;
+        if (elements == oldElements)
+            return false;
+        count(e, 1);
+        return true;
     }
 
     /**
@@ -150,7 +153,10 @@ class RegularTaskSet extends TaskSet {
 
         long oldElements = elements;
         elements &= ~(1L << task.id);
-        return elements != oldElements;
+        if (elements == oldElements)
+            return false;
+        count(task, -1);
+        return true;
     }
 
     // Bulk Operations
@@ -194,9 +200,7 @@ class RegularTaskSet extends TaskSet {
         RegularTaskSet taskset = (RegularTaskSet) c;
         check(taskset);
 
-        long oldElements = elements;
-        elements |= taskset.elements;
-        return elements != oldElements;
+        return set(elements | taskset.elements);
     }
 
     /**
@@ -217,9 +221,7 @@ class RegularTaskSet extends TaskSet {
         RegularTaskSet taskset = (RegularTaskSet) c;
         check(taskset);
 
-        long oldElements = elements;
-        elements &= ~taskset.elements;
-        return elements != oldElements;
+        return set(elements & ~taskset.elements);
     }
 
     /**
@@ -240,9 +242,68 @@ class RegularTaskSet extends TaskSet {
         RegularTaskSet taskset = (RegularTaskSet) c;
         check(taskset);
 
+        return set(elements & taskset.elements);
+    }
+
+    @Override
+    public boolean intersects(TaskSet s) {
+        check(s);
+        return (elements & ((RegularTaskSet) s).elements) != 0;
+    }
+
+    @Override
+    public boolean andNot(TaskSet s) {
+        check(s);
+        return set(elements & ~((RegularTaskSet) s).elements);
+    }
+
+    @Override
+    public boolean unionInto(TaskSet target) {
+        check(target);
+        RegularTaskSet taskset = (RegularTaskSet) target;
+        return taskset.set(taskset.elements | elements);
+    }
+
+    @Override
+    public boolean containsAllFast(TaskSet s) {
+        check(s);
+        return (((RegularTaskSet) s).elements & ~elements) == 0;
+    }
+
+    @Override
+    public int weightSumOf(TaskSet mask) {
+        check(mask);
+        return weightSumOf(0, elements & ((RegularTaskSet) mask).elements);
+    }
+
+    @Override
+    long word(int index) {
+        return elements;
+    }
+
+    @Override
+    void load(long[] words, int weightSum) {
+        this.elements = (words.length == 0) ? 0L : words[0];
+        this.weightSum = weightSum;
+    }
+
+    @Override
+    TaskSet masked(long[] mask) {
+        RegularTaskSet result = (RegularTaskSet) super.clone();
+        result.elements = elements & mask[0];
+        result.weightSum = weightSumOf(0, result.elements);
+        return result;
+    }
+
+    /**
+     * Replaces the bit vector and updates the sums. Returns true if it's
+     * changed.
+     */
+    private boolean set(long newElements) {
         long oldElements = elements;
-        elements &= taskset.elements;
-        return elements != oldElements;
+        elements = newElements;
+        update(0, oldElements, newElements);
+        return newElements != oldElements;
     }
 
     /**
@@ -251,6 +312,7 @@ class RegularTaskSet extends TaskSet {
     @Override
     public void clear() {
         elements = 0L;
+        weightSum = 0;
     }
 
     /**
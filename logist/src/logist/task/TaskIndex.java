@@ -0,0 +1,111 @@
+package logist.task;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import logist.topology.Topology.City;
+
+/**
+ * The pickup and delivery cities of a task batch, shared by all task sets of
+ * the batch. For each city the index holds the bit vector of the tasks that
+ * are picked up (or delivered) there, in the word layout of the task sets.
+ * <p>
+ * There is one index per universe, see {@link #of(Task[])}. The two halves of
+ * the index are built on first use. They are immutable once published, so
+ * racing threads at worst build the same half twice.
+ */
+class TaskIndex {
+
+    // the index of each universe, the indices do not refer to their universe
+    // so that an entry goes away with it
+    private static final Map<Task[], TaskIndex> INDICES =
+            new WeakHashMap<Task[], TaskIndex>();
+
+    private final int numWords;
+
+    private Cities pickups;
+    private Cities deliveries;
+
+    private TaskIndex(int numTasks) {
+        this.numWords = Math.max(1, (numTasks + 63) >>> 6);
+    }
+
+    /**
+     * Returns the index of a universe, which is created on first use.
+     */
+    static TaskIndex of(Task[] universe) {
+        synchronized (INDICES) {
+            TaskIndex index = INDICES.get(universe);
+            if (index == null) {
+                index = new TaskIndex(universe.length);
+                INDICES.put(universe, index);
+            }
+            return index;
+        }
+    }
+
+    Cities pickups(Task[] universe) {
+        Cities cities = pickups;
+        if (cities == null)
+            pickups = cities = new Cities(universe, true);
+        return cities;
+    }
+
+    Cities deliveries(Task[] universe) {
+        Cities cities = deliveries;
+        if (cities == null)
+            deliveries = cities = new Cities(universe, false);
+        return cities;
+    }
+
+    /**
+     * The tasks of the batch grouped by either pickup or delivery city.
+     */
+    final class Cities {
+
+        /** The city id of each task */
+        final int[] cityOf;
+
+        /** The bit vector of each city id, or null if it has no tasks */
+        private final long[][] masks;
+
+        private final long[] none;
+
+        private Cities(Task[] universe, boolean pickup) {
+            int n = universe.length;
+            this.cityOf = new int[n];
+
+            int numCities = 0;
+            for (int i = 0; i < n; i++) {
+                City city = pickup ? universe[i].pickupCity
+                        : universe[i].deliveryCity;
+                cityOf[i] = city.id;
+                numCities = Math.max(numCities, city.id + 1);
+            }
+
+            this.masks = new long[numCities][];
+            for (int i = 0; i < n; i++) {
+                if (masks[cityOf[i]] == null)
+                    masks[cityOf[i]] = new long[numWords];
+                masks[cityOf[i]][i >>> 6] |= 1L << i;
+            }
+            this.none = new long[numWords];
+        }
+
+        /** One more than the largest city id of a task */
+        int numCities() {
+            return masks.length;
+        }
+
+        /**
+         * Returns the bit vector of the tasks at a city. The returned array is
+         * shared and must not be modified.
+         */
+        long[] mask(City city) {
+            if (city.id < 0 || city.id >= masks.length
+                    || masks[city.id] == null)
+                return none;
+            return masks[city.id];
+        }
+    }
+}
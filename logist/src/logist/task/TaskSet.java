@@ -4,6 +4,8 @@ import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import logist.topology.Topology.City;
+
 /**
  * A specialized Set implementation for use with {@link Task} objects. All
  * elements in a TaskSet must come from the same task batch that is generated
@@ -19,6 +21,21 @@ import java.util.Iterator;
  * cannot be combined.
  * 
  * <p>
+ * The sum of weights is maintained as elements are added and removed, so
+ * {@link #weightSum()} takes constant time. The rewards are summed on each
+ * call of {@link #rewardSum()}, since the task of an id is replaced by one
+ * with a different reward when it is auctioned. The bulk operations
+ * {@link #intersects}, {@link #andNot}, {@link #unionInto},
+ * {@link #containsAllFast} and {@link #weightSumOf} operate on whole words
+ * of the bit vectors.
+ * 
+ * <p>
+ * All sets of a batch share one index with the bit vectors of the tasks per
+ * pickup and per delivery city, which are computed on first use.
+ * {@link #pickupsAt(City)} and {@link #deliveriesAt(City)} intersect this set
+ * with one of them word by word and only sum the tasks they keep.
+ * 
+ * <p>
  * The implementation of this class is based on Joshua Bloch's EnumSet from the
  * Java Collections Framework.
  * 
@@ -28,6 +45,10 @@ import java.util.Iterator;
 public abstract class TaskSet extends AbstractSet<Task> implements Cloneable {
 
     final Task[] universe;
+    private TaskIndex index; // looked up on first use
+
+    // Redundant - maintained for performance
+    int weightSum = 0;
 
     TaskSet(Task[] universe) {
         this.universe = universe;
@@ -140,10 +161,7 @@ public abstract class TaskSet extends AbstractSet<Task> implements Cloneable {
      * @return The sum of weights of all tasks in the set.
      */
     public int weightSum() {
-        int sum = 0;
-        for (Task task : this)
-            sum += task.weight;
-        return sum;
+        return weightSum;
     }
     
     /**
@@ -152,11 +170,161 @@ public abstract class TaskSet extends AbstractSet<Task> implements Cloneable {
      */
     public int rewardSum() {
         int sum = 0;
-        for (Task task : this)
-            sum += task.reward;
+        int numWords = (universe.length + 63) >>> 6;
+        for (int word = 0; word < numWords; word++)
+            for (long bits = word(word); bits != 0; bits &= bits - 1)
+                sum += universe[(word << 6)
+                        + Long.numberOfTrailingZeros(bits)].reward;
         return sum;
     }
-    
+
+    /**
+     * Returns <tt>true</tt> if this set and the specified set have at least
+     * one task in common.
+     * 
+     * @param s
+     *            the set to be checked for intersection
+     * @throws IllegalArgumentException
+     *             if s is a task set from a different round
+     */
+    public abstract boolean intersects(TaskSet s);
+
+    /**
+     * Removes from this set all tasks contained in the specified set.
+     * 
+     * @param s
+     *            the tasks to be removed from this set
+     * @return <tt>true</tt> if this set changed as a result of the call
+     * @throws IllegalArgumentException
+     *             if s is a task set from a different round
+     */
+    public abstract boolean andNot(TaskSet s);
+
+    /**
+     * Adds all tasks of this set to the specified set.
+     * 
+     * @param target
+     *            the set to which the tasks are added
+     * @return <tt>true</tt> if the target set changed as a result of the call
+     * @throws IllegalArgumentException
+     *             if target is a task set from a different round
+     */
+    public abstract boolean unionInto(TaskSet target);
+
+    /**
+     * Returns <tt>true</tt> if this set contains all tasks of the specified
+     * set. Unlike {@link #containsAll}, the tasks are compared word by word.
+     * 
+     * @param s
+     *            the set to be checked for containment in this set
+     * @throws IllegalArgumentException
+     *             if s is a task set from a different round
+     */
+    public abstract boolean containsAllFast(TaskSet s);
+
+    /**
+     * Sums the weights of the tasks that are contained both in this set and
+     * in the specified set.
+     * 
+     * @param mask
+     *            the set of tasks to be considered
+     * @return The sum of weights of all tasks in the intersection.
+     * @throws IllegalArgumentException
+     *             if mask is a task set from a different round
+     */
+    public abstract int weightSumOf(TaskSet mask);
+
+    /**
+     * Returns the tasks of this set that are picked up in a city.
+     * 
+     * @param city
+     *            the pickup city
+     * @return a new set with the tasks to be picked up in <tt>city</tt>
+     */
+    public TaskSet pickupsAt(City city) {
+        return masked(index().pickups(universe).mask(city));
+    }
+
+    /**
+     * Returns the tasks of this set that are delivered in a city.
+     * 
+     * @param city
+     *            the delivery city
+     * @return a new set with the tasks to be delivered in <tt>city</tt>
+     */
+    public TaskSet deliveriesAt(City city) {
+        return masked(index().deliveries(universe).mask(city));
+    }
+
+    /**
+     * Counts the tasks of this set by pickup city.
+     * 
+     * @return the number of tasks per pickup city, indexed by city id. The
+     *         array length is one more than the largest such city id in the
+     *         batch.
+     */
+    public int[] countByPickupCity() {
+        return countBy(index().pickups(universe));
+    }
+
+    /**
+     * Counts the tasks of this set by delivery city.
+     * 
+     * @return the number of tasks per delivery city, indexed by city id. The
+     *         array length is one more than the largest such city id in the
+     *         batch.
+     */
+    public int[] countByDeliveryCity() {
+        return countBy(index().deliveries(universe));
+    }
+
+    private int[] countBy(TaskIndex.Cities cities) {
+        int[] count = new int[cities.numCities()];
+        int numWords = (universe.length + 63) >>> 6;
+        for (int word = 0; word < numWords; word++)
+            for (long bits = word(word); bits != 0; bits &= bits - 1)
+                count[cities.cityOf[(word << 6)
+                        + Long.numberOfTrailingZeros(bits)]]++;
+        return count;
+    }
+
+    /**
+     * Returns the word of the bit vector with the given index.
+     */
+    abstract long word(int index);
+
+    /**
+     * Returns a new set with the elements of this set whose bits are set in
+     * the given bit vector.
+     */
+    abstract TaskSet masked(long[] mask);
+
+    /**
+     * Replaces the elements of this set by those whose bits are set in the
+     * given bit vector, whose tasks weigh <tt>weightSum</tt> in total.
+     */
+    abstract void load(long[] words, int weightSum);
+
+    /**
+     * Returns the bit vector of this set as a new array.
+     */
+    final long[] words() {
+        long[] words = new long[(universe.length + 63) >>> 6];
+        for (int i = 0; i < words.length; i++)
+            words[i] = word(i);
+        return words;
+    }
+
+    /**
+     * Returns the index of the universe of this set.
+     */
+    final TaskIndex index() {
+        TaskIndex result = index;
+        if (result == null)
+            index = result = TaskIndex.of(universe);
+        return result;
+    }
+
     /**
      * Returns an iterator over the elements contained in this set. The iterator
      * traverses the elements in the order of increasing task ids.
@@ -185,6 +353,41 @@ public abstract class TaskSet extends AbstractSet<Task> implements Cloneable {
         }
     }
 
+    /* Redundant sums */
+
+    /**
+     * Updates the sums after the word with the given index changed from
+     * <tt>oldWord</tt> to <tt>newWord</tt>.
+     */
+    final void update(int word, long oldWord, long newWord) {
+        long added = newWord & ~oldWord;
+        long removed = oldWord & ~newWord;
+        for (; added != 0; added &= added - 1)
+            count(universe[(word << 6) + Long.numberOfTrailingZeros(added)], 1);
+        for (; removed != 0; removed &= removed - 1)
+            count(universe[(word << 6) + Long.numberOfTrailingZeros(removed)],
+                    -1);
+    }
+
+    /**
+     * Adds (<tt>sign = 1</tt>) or subtracts (<tt>sign = -1</tt>) a task to
+     * the sums.
+     */
+    final void count(Task task, int sign) {
+        weightSum += sign * task.weight;
+    }
+
+    /**
+     * Sums the weights of the tasks in a word of the bit vector.
+     */
+    final int weightSumOf(int word, long bits) {
+        int sum = 0;
+        for (; bits != 0; bits &= bits - 1)
+            sum += universe[(word << 6) + Long.numberOfTrailingZeros(bits)]
+                    .weight;
+        return sum;
+    }
+
     /* Integrity checks */
     
     final void check(TaskSet taskset) {
@@ -0,0 +1,120 @@
+package logist.task;
+
+import java.util.SplittableRandom;
+
+import logist.Measures;
+
+/**
+ * An unbounded stream of tasks that arrive over simulated time. In each city
+ * tasks are offered as a Poisson process with the same rate; an offer becomes
+ * a task with the probabilities of the {@link TaskDistribution}, or is dropped
+ * if the distribution draws "no task".
+ *
+ * <p>
+ * Tasks are generated lazily, one at a time, so a stream takes constant memory
+ * regardless of how many tasks it produces. The task ids are consecutive
+ * starting from a given id, so that the tasks can follow those of a batch.
+ * They can only be put into a {@link TaskSet} whose universe includes them,
+ * which is why a simulation round draws a fixed number of them when it
+ * begins.
+ *
+ * <p>
+ * A stream is deterministic for a given distribution, rate and seed.
+ *
+ * @see DefaultTaskDistribution#createTaskStream(double, long, int)
+ */
+public class TaskStream {
+
+    private final DefaultTaskDistribution distribution;
+    private final SplittableRandom random;
+    private final long seed;
+    private final int numC;
+
+    /** The mean time between two offers in all cities */
+    private final double meanNanos;
+
+    private double time;
+    private int nextId;
+    private int count;
+
+    private long nextTime;
+    private Task nextTask;
+
+    TaskStream(DefaultTaskDistribution distribution, int numC,
+            double ratePerHour, long seed, int firstId) {
+        if (!(ratePerHour > 0.0) || Double.isInfinite(ratePerHour))
+            throw new IllegalArgumentException("Invalid arrival rate "
+                    + ratePerHour);
+
+        this.distribution = distribution;
+        this.random = new SplittableRandom(seed);
+        this.seed = seed;
+        this.numC = numC;
+        this.meanNanos = Measures.NANOS_PER_SIM_HOUR / (ratePerHour * numC);
+        this.nextId = firstId;
+    }
+
+    /**
+     * Returns the arrival time of the next task in nanoseconds of simulated
+     * time, or {@link Long#MAX_VALUE} if no task will ever arrive.
+     */
+    public long peekTime() {
+        advance();
+        return nextTime;
+    }
+
+    /**
+     * Returns the next task and moves on to the following one. Use
+     * {@link #peekTime()} before to obtain its arrival time.
+     *
+     * @return the next task, or <tt>null</tt> if no task will ever arrive
+     */
+    public Task poll() {
+        advance();
+        Task task = nextTask;
+        if (task != null)
+            count++;
+        nextTask = null;
+        return task;
+    }
+
+    /**
+     * Returns the seed of this stream.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of tasks returned by {@link #poll()} so far.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Draws offers until one becomes a task.
+     */
+    private void advance() {
+        if (nextTask != null || nextTime == Long.MAX_VALUE)
+            return;
+
+        // give up if the distribution has (almost) no tasks at all
+        for (int attempts = 0; attempts < 1000 * numC; attempts++) {
+            time -= Math.log(1.0 - random.nextDouble()) * meanNanos;
+            if (time >= Long.MAX_VALUE)
+                break;
+
+            int from = random.nextInt(numC);
+            Task task = distribution.createTask(nextId, from,
+                    random.nextDouble());
+            if (task != null) {
+                nextId++;
+                nextTime = (long) time;
+                nextTask = task;
+                return;
+            }
+        }
+        nextTime = Long.MAX_VALUE;
+    }
+}
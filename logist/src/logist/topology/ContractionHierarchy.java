@@ -0,0 +1,733 @@
+package logist.topology;
+
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy over the route graph. It answers shortest-distance
+ * and shortest-path queries with two small searches instead of looking them
+ * up in the quadratic tables, so its memory grows with the number of routes
+ * only, apart from a core table of fixed size.
+ *
+ * <p>
+ * The cities are contracted one by one, cheapest first. Contracting a city
+ * removes it from the graph and adds a shortcut between two of its
+ * neighbors whenever the path through the city may be the only shortest
+ * path between them. A query then runs a Dijkstra search from both ends that
+ * only follows routes and shortcuts towards cities that were contracted
+ * later. Shortcuts remember the city they bypass so that paths can be
+ * unpacked into routes.
+ *
+ * <p>
+ * The last contracted cities form the core of the hierarchy, which nearly
+ * every search would explore. The distances between core cities are stored
+ * in a table instead, so that distance queries stop where they enter the
+ * core. The searches run on the cities renumbered in contraction order.
+ *
+ * <p>
+ * Distances are exact. If there are several shortest paths between two
+ * cities, the path that is returned may differ from the one chosen by
+ * {@link Dijkstra} or Floyd-Warshall.
+ */
+class ContractionHierarchy {
+
+    /** The number of cities a witness search may settle before it gives up */
+    private static final int WITNESS_LIMIT = 500;
+
+    /** The witness search limit when estimating the cost of a contraction */
+    private static final int ESTIMATE_LIMIT = 50;
+
+    /** The number of core cities, the core table holds its square */
+    private static final int CORE_SIZE = 1024;
+
+    private static final long INFINITY = Long.MAX_VALUE;
+
+    private final int numC;
+
+    /** The original route graph, for searches that visit all routes */
+    final Dijkstra graph;
+
+    // the cities in contraction order, and the position of each city in it
+    private final int[] cityAt;
+    private final int[] rank;
+
+    // upward routes and shortcuts in compressed row format, all indexed by
+    // contraction order
+    private final int[] upFirst;
+    private final int[] upTarget;
+    private final long[] upLength;
+    private final int[] upMiddle; // -1 for routes
+
+    // the first city of the core in contraction order, and the row-major
+    // table of the distances between core cities
+    private final int coreStart;
+    private final long[] coreDist;
+
+    private final ThreadLocal<Query> queries = new ThreadLocal<Query>() {
+        @Override
+        protected Query initialValue() {
+            return new Query();
+        }
+    };
+
+    ContractionHierarchy(int numC, int[] from, int[] to, long[] length) {
+        this.numC = numC;
+        this.graph = new Dijkstra(numC, from, to, length, Topology.NO_ROUTE);
+
+        Contraction contraction = new Contraction();
+        for (int r = 0; r < from.length; r++)
+            if (from[r] != to[r])
+                contraction.addEdge(from[r], to[r], length[r], -1);
+        contraction.run();
+
+        this.cityAt = contraction.order;
+        this.rank = new int[numC];
+        for (int r = 0; r < numC; r++)
+            rank[cityAt[r]] = r;
+
+        // collect the edges to later contracted cities
+        this.upFirst = new int[numC + 1];
+        for (int r = 0; r < numC; r++)
+            upFirst[r + 1] = upFirst[r]
+                    + contraction.upTarget[cityAt[r]].length;
+
+        this.upTarget = new int[upFirst[numC]];
+        this.upLength = new long[upFirst[numC]];
+        this.upMiddle = new int[upFirst[numC]];
+        for (int r = 0; r < numC; r++) {
+            int v = cityAt[r];
+            for (int i = 0, e = upFirst[r]; e < upFirst[r + 1]; i++, e++) {
+                int mid = contraction.upMiddle[v][i];
+                upTarget[e] = rank[contraction.upTarget[v][i]];
+                upLength[e] = contraction.upLength[v][i];
+                upMiddle[e] = (mid < 0) ? -1 : rank[mid];
+            }
+        }
+
+        this.coreStart = Math.max(0, numC - CORE_SIZE);
+        this.coreDist = computeCoreDistances();
+    }
+
+    // One pass upwards and one downwards in contraction order per core city
+    // (PHAST). The shortest path between two core cities runs through the
+    // core only, since the cities of a path up and down a hierarchy are
+    // contracted later than its ends.
+    private long[] computeCoreDistances() {
+        int size = numC - coreStart;
+        long[] table = new long[size * size];
+        long[] dist = new long[size];
+        for (int s = 0; s < size; s++) {
+            Arrays.fill(dist, INFINITY);
+            dist[s] = 0L;
+            for (int v = s; v < size; v++) {
+                if (dist[v] == INFINITY)
+                    continue;
+                int c = coreStart + v;
+                for (int e = upFirst[c]; e < upFirst[c + 1]; e++) {
+                    int w = upTarget[e] - coreStart;
+                    dist[w] = Math.min(dist[w], dist[v] + upLength[e]);
+                }
+            }
+            for (int v = size - 1; v >= 0; v--) {
+                int c = coreStart + v;
+                for (int e = upFirst[c]; e < upFirst[c + 1]; e++) {
+                    long d = dist[upTarget[e] - coreStart];
+                    if (d != INFINITY)
+                        dist[v] = Math.min(dist[v], d + upLength[e]);
+                }
+            }
+            System.arraycopy(dist, 0, table, s * size, size);
+        }
+        return table;
+    }
+
+    /**
+     * Returns the length of the shortest path between two cities, or
+     * <tt>Long.MAX_VALUE</tt> if there is none.
+     */
+    long distance(int from, int to) {
+        if (from == to)
+            return 0L;
+        Query query = queries.get();
+        query.run(rank[from], rank[to], true);
+        return query.best;
+    }
+
+    /**
+     * Returns the ids of the cities on a shortest path from one city
+     * (excluding) to another (including), or <tt>null</tt> if there is none.
+     */
+    int[] path(int from, int to) {
+        if (from == to)
+            return new int[0];
+        Query query = queries.get();
+        query.run(rank[from], rank[to], false);
+        return (query.meet < 0) ? null : query.unpack(rank[from], rank[to]);
+    }
+
+    /**
+     * Returns the ids of the (up to) <tt>count</tt> cities closest to a city
+     * by road distance that are at most <tt>maxDistance</tt> units away,
+     * sorted by increasing distance and then by id. The city itself is not
+     * included.
+     */
+    int[] nearest(int source, int count, long maxDistance) {
+        return queries.get().nearest(source, count, maxDistance);
+    }
+
+    // the middle city of the route or shortcut between a city and a later
+    // contracted city, all in contraction order
+    private int middle(int low, int high) {
+        for (int e = upFirst[low]; e < upFirst[low + 1]; e++)
+            if (upTarget[e] == high)
+                return upMiddle[e];
+        throw new IllegalStateException("No edge " + low + " -> " + high);
+    }
+
+    /*
+     * A growable binary min-heap of (key, city) entries. Entries are not
+     * updated but added again, stale entries are skipped by the caller.
+     */
+    private static class Heap {
+        long[] keys = new long[64];
+        int[] nodes = new int[64];
+        int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long minKey() {
+            return keys[0];
+        }
+
+        void push(long key, int node) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                nodes = Arrays.copyOf(nodes, 2 * size);
+            }
+            int i = size++;
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (keys[p] <= key)
+                    break;
+                keys[i] = keys[p];
+                nodes[i] = nodes[p];
+                i = p;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+
+        /** Removes the minimum and returns its city */
+        int pop() {
+            int top = nodes[0];
+            long key = keys[--size];
+            int node = nodes[size];
+            int i = 0;
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= size)
+                    break;
+                if (c + 1 < size && keys[c + 1] < keys[c])
+                    c++;
+                if (key <= keys[c])
+                    break;
+                keys[i] = keys[c];
+                nodes[i] = nodes[c];
+                i = c;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+            return top;
+        }
+    }
+
+    /*
+     * The preprocessing. The remaining graph is kept in adjacency arrays with
+     * at most one edge per pair of cities.
+     */
+    private class Contraction {
+        final int[][] adjacent = new int[numC][];
+        final long[][] length = new long[numC][];
+        final int[][] middle = new int[numC][];
+        final int[] degree = new int[numC];
+
+        final int[][] upTarget = new int[numC][];
+        final long[][] upLength = new long[numC][];
+        final int[][] upMiddle = new int[numC][];
+
+        // the number of contracted neighbors, spreads the contraction evenly
+        final int[] deleted = new int[numC];
+
+        // an upper bound on the depth of the hierarchy below each city
+        final int[] level = new int[numC];
+
+        // the indexed priority queue of the remaining cities
+        final int[] priority = new int[numC];
+        final int[] queue = new int[numC];
+        final int[] position = new int[numC];
+        int size;
+
+        // the cities in the order of their contraction
+        final int[] order = new int[numC];
+        int contracted;
+
+        // the witness search
+        final long[] dist = new long[numC];
+        final int[] touched = new int[numC];
+        final Heap heap = new Heap();
+
+        Contraction() {
+            for (int v = 0; v < numC; v++) {
+                adjacent[v] = new int[4];
+                length[v] = new long[4];
+                middle[v] = new int[4];
+            }
+            Arrays.fill(dist, INFINITY);
+        }
+
+        /** Adds an edge or shortens the existing edge between two cities */
+        void addEdge(int a, int b, long len, int mid) {
+            addArc(a, b, len, mid);
+            addArc(b, a, len, mid);
+        }
+
+        private void addArc(int a, int b, long len, int mid) {
+            for (int i = 0; i < degree[a]; i++) {
+                if (adjacent[a][i] == b) {
+                    if (len < length[a][i]) {
+                        length[a][i] = len;
+                        middle[a][i] = mid;
+                    }
+                    return;
+                }
+            }
+            int d = degree[a]++;
+            if (d == adjacent[a].length) {
+                adjacent[a] = Arrays.copyOf(adjacent[a], 2 * d);
+                length[a] = Arrays.copyOf(length[a], 2 * d);
+                middle[a] = Arrays.copyOf(middle[a], 2 * d);
+            }
+            adjacent[a][d] = b;
+            length[a][d] = len;
+            middle[a][d] = mid;
+        }
+
+        private void removeArc(int a, int b) {
+            for (int i = 0; i < degree[a]; i++) {
+                if (adjacent[a][i] == b) {
+                    int last = --degree[a];
+                    adjacent[a][i] = adjacent[a][last];
+                    length[a][i] = length[a][last];
+                    middle[a][i] = middle[a][last];
+                    return;
+                }
+            }
+        }
+
+        void run() {
+            for (int v = 0; v < numC; v++) {
+                priority[v] = computePriority(v);
+                queue[size] = v;
+                position[v] = size;
+                siftUp(size++);
+            }
+
+            while (size > 0) {
+                int v = queue[0];
+
+                // lazy update: contract v only if it is still the cheapest
+                int p = computePriority(v);
+                if (p > priority[v]) {
+                    priority[v] = p;
+                    siftDown(0);
+                    if (queue[0] != v)
+                        continue;
+                }
+
+                removeMin();
+                order[contracted++] = v;
+                contract(v, false);
+
+                for (int i = 0; i < degree[v]; i++) {
+                    int u = adjacent[v][i];
+                    // a cheap update, the edge difference is recomputed
+                    // when u reaches the top of the queue
+                    int raise = 1 + Math.max(0, level[v] + 1 - level[u]);
+                    deleted[u]++;
+                    level[u] = Math.max(level[u], level[v] + 1);
+                    priority[u] += raise;
+                    siftDown(position[u]);
+                }
+            }
+        }
+
+        // the edge difference dominates, the other terms keep the hierarchy
+        // flat
+        private int computePriority(int v) {
+            return 2 * (contract(v, true) - degree[v]) + deleted[v] + level[v];
+        }
+
+        /**
+         * Contracts a city, or only counts the shortcuts that its
+         * contraction would add.
+         */
+        int contract(int v, boolean simulate) {
+            int deg = degree[v];
+            int[] adj = Arrays.copyOf(adjacent[v], deg);
+            long[] len = Arrays.copyOf(length[v], deg);
+            int shortcuts = 0;
+
+            for (int i = 0; i < deg; i++) {
+                long limit = 0L;
+                for (int j = i + 1; j < deg; j++)
+                    limit = Math.max(limit, len[i] + len[j]);
+                if (limit == 0L)
+                    continue;
+
+                int numTouched = witnessSearch(adj[i], v, limit,
+                        simulate ? ESTIMATE_LIMIT : WITNESS_LIMIT);
+                for (int j = i + 1; j < deg; j++) {
+                    if (dist[adj[j]] > len[i] + len[j]) {
+                        shortcuts++;
+                        if (!simulate)
+                            addEdge(adj[i], adj[j], len[i] + len[j], v);
+                    }
+                }
+                for (int t = 0; t < numTouched; t++)
+                    dist[touched[t]] = INFINITY;
+            }
+
+            if (!simulate) {
+                upTarget[v] = Arrays.copyOf(adjacent[v], degree[v]);
+                upLength[v] = Arrays.copyOf(length[v], degree[v]);
+                upMiddle[v] = Arrays.copyOf(middle[v], degree[v]);
+                for (int i = 0; i < degree[v]; i++)
+                    removeArc(adjacent[v][i], v);
+            }
+            return shortcuts;
+        }
+
+        // bounded Dijkstra search that avoids a city, returns the number of
+        // touched cities whose distances must be reset
+        private int witnessSearch(int source, int avoid, long limit,
+                int maxSettled) {
+            int numTouched = 0;
+            int settled = 0;
+            heap.clear();
+
+            dist[source] = 0L;
+            touched[numTouched++] = source;
+            heap.push(0L, source);
+            while (!heap.isEmpty() && settled < maxSettled) {
+                long key = heap.minKey();
+                int u = heap.pop();
+                if (key > dist[u])
+                    continue;
+                if (key > limit)
+                    break;
+                settled++;
+
+                for (int i = 0; i < degree[u]; i++) {
+                    int x = adjacent[u][i];
+                    if (x == avoid)
+                        continue;
+                    long sum = key + length[u][i];
+                    if (sum < dist[x]) {
+                        if (dist[x] == INFINITY)
+                            touched[numTouched++] = x;
+                        dist[x] = sum;
+                        heap.push(sum, x);
+                    }
+                }
+            }
+            return numTouched;
+        }
+
+        private boolean less(int a, int b) {
+            return (priority[a] != priority[b]) ? priority[a] < priority[b]
+                    : a < b;
+        }
+
+        private void removeMin() {
+            position[queue[0]] = -1;
+            if (--size > 0) {
+                queue[0] = queue[size];
+                position[queue[0]] = 0;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            int node = queue[i];
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (!less(node, queue[p]))
+                    break;
+                queue[i] = queue[p];
+                position[queue[i]] = i;
+                i = p;
+            }
+            queue[i] = node;
+            position[node] = i;
+        }
+
+        private void siftDown(int i) {
+            int node = queue[i];
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= size)
+                    break;
+                if (c + 1 < size && less(queue[c + 1], queue[c]))
+                    c++;
+                if (!less(queue[c], node))
+                    break;
+                queue[i] = queue[c];
+                position[queue[i]] = i;
+                i = c;
+            }
+            queue[i] = node;
+            position[node] = i;
+        }
+    }
+
+    /*
+     * The workspace of the queries of one thread. Each query resets the
+     * distances that the previous query has set.
+     */
+    private class Query {
+        // index 0 is the forward search, index 1 the backward search
+        final long[][] dist = new long[2][numC];
+        final int[][] pred = new int[2][numC];
+        final int[][] touched = new int[2][numC];
+        final int[] numTouched = new int[2];
+        final Heap[] heaps = { new Heap(), new Heap() };
+
+        // the core cities at which each search stopped, if the searches
+        // use the core table
+        final int[][] entries = new int[2][numC - coreStart];
+        final int[] numEntries = new int[2];
+        boolean useTable;
+
+        long best;
+        int meet;
+
+        Query() {
+            Arrays.fill(dist[0], INFINITY);
+            Arrays.fill(dist[1], INFINITY);
+        }
+
+        private void reach(int dir, int v, long d, int p) {
+            boolean core = useTable && v >= coreStart;
+            if (dist[dir][v] == INFINITY) {
+                touched[dir][numTouched[dir]++] = v;
+                if (core)
+                    entries[dir][numEntries[dir]++] = v;
+            }
+            dist[dir][v] = d;
+            pred[dir][v] = p;
+            if (!core)
+                heaps[dir].push(d, v);
+        }
+
+        private void reset() {
+            for (int dir = 0; dir < 2; dir++) {
+                for (int i = 0; i < numTouched[dir]; i++)
+                    dist[dir][touched[dir][i]] = INFINITY;
+                numTouched[dir] = 0;
+                numEntries[dir] = 0;
+                heaps[dir].clear();
+            }
+        }
+
+        /**
+         * Searches between two cities given by their contraction order. If
+         * the core table is used, the shortest path is not known afterwards.
+         */
+        void run(int from, int to, boolean useTable) {
+            reset();
+            this.useTable = useTable;
+            best = INFINITY;
+            meet = -1;
+            reach(0, from, 0L, -1);
+            reach(1, to, 0L, -1);
+
+            while (!heaps[0].isEmpty() || !heaps[1].isEmpty()) {
+                // continue with the search that has the smaller key
+                int dir;
+                if (heaps[0].isEmpty())
+                    dir = 1;
+                else if (heaps[1].isEmpty())
+                    dir = 0;
+                else
+                    dir = (heaps[0].minKey() <= heaps[1].minKey()) ? 0 : 1;
+
+                long key = heaps[dir].minKey();
+                if (key >= best)
+                    break;
+                int u = heaps[dir].pop();
+                if (key > dist[dir][u])
+                    continue;
+
+                long other = dist[1 - dir][u];
+                if (other != INFINITY && key + other < best) {
+                    best = key + other;
+                    meet = u;
+                }
+
+                // stall-on-demand: u is not on a shortest upward path if a
+                // later contracted neighbor offers a shorter way to it
+                if (isStalled(dir, u, key))
+                    continue;
+
+                for (int e = upFirst[u]; e < upFirst[u + 1]; e++) {
+                    int x = upTarget[e];
+                    long sum = key + upLength[e];
+                    if (sum < dist[dir][x])
+                        reach(dir, x, sum, u);
+                }
+            }
+
+            if (useTable)
+                combineCore();
+        }
+
+        // the shortest path through the core, which both searches entered
+        // but did not explore
+        private void combineCore() {
+            int size = numC - coreStart;
+            for (int i = 0; i < numEntries[0]; i++) {
+                int u = entries[0][i];
+                int row = (u - coreStart) * size - coreStart;
+                for (int j = 0; j < numEntries[1]; j++) {
+                    int v = entries[1][j];
+                    long d = coreDist[row + v];
+                    if (d != INFINITY && dist[0][u] + d + dist[1][v] < best)
+                        best = dist[0][u] + d + dist[1][v];
+                }
+            }
+        }
+
+        private boolean isStalled(int dir, int u, long key) {
+            for (int e = upFirst[u]; e < upFirst[u + 1]; e++) {
+                long d = dist[dir][upTarget[e]];
+                if (d != INFINITY && d + upLength[e] < key)
+                    return true;
+            }
+            return false;
+        }
+
+        /** Unpacks the path found by the last call of <tt>run</tt> */
+        int[] unpack(int from, int to) {
+            Path path = new Path();
+
+            // the forward part, collected from the meeting city backwards
+            int n = 0;
+            for (int v = meet; v != from; v = pred[0][v])
+                n++;
+            int[] ups = new int[n];
+            for (int v = meet; v != from; v = pred[0][v])
+                ups[--n] = v;
+            for (int i = 0; i < ups.length; i++) {
+                int a = pred[0][ups[i]];
+                path.unpack(a, ups[i], middle(a, ups[i]));
+            }
+
+            // the backward part leads from the meeting city to the target
+            for (int v = meet; v != to; v = pred[1][v])
+                path.unpack(v, pred[1][v], middle(pred[1][v], v));
+
+            return Arrays.copyOf(path.hops, path.length);
+        }
+
+        int[] nearest(int source, int count, long maxDistance) {
+            if (count == 0)
+                return new int[0];
+
+            // this search runs on the route graph, by city id
+            reset();
+            useTable = false;
+            int[] result = new int[Math.min(count, 16)];
+            int n = 0;
+            long last = INFINITY;
+
+            Heap heap = heaps[0];
+            reach(0, source, 0L, -1);
+            while (!heap.isEmpty()) {
+                long key = heap.minKey();
+                int u = heap.pop();
+                if (key > dist[0][u])
+                    continue;
+                if (key > maxDistance || (n >= count && key > last))
+                    break;
+
+                if (u != source) {
+                    // cities at the same distance as the last one are kept
+                    // and sorted by id below
+                    if (n == result.length)
+                        result = Arrays.copyOf(result, 2 * n);
+                    result[n++] = u;
+                    last = key;
+                }
+
+                for (int e = graph.first[u]; e < graph.first[u + 1]; e++) {
+                    int x = graph.adjacent[e];
+                    long sum = key + graph.length[e];
+                    if (sum < dist[0][x])
+                        reach(0, x, sum, u);
+                }
+            }
+
+            // order cities at equal distances by id
+            for (int i = 0, j = 1; i < n; i = j++) {
+                while (j < n && dist[0][result[j]] == dist[0][result[i]])
+                    j++;
+                Arrays.sort(result, i, j);
+            }
+            return Arrays.copyOf(result, Math.min(n, count));
+        }
+    }
+
+    /*
+     * Expands routes and shortcuts, given in contraction order, into the ids
+     * of the cities of a path.
+     */
+    private class Path {
+        int[] hops = new int[16];
+        int length;
+        int[] stack = new int[24];
+
+        // appends the cities after a up to and including b
+        void unpack(int a, int b, int mid) {
+            int top = 0;
+            stack[top++] = a;
+            stack[top++] = b;
+            stack[top++] = mid;
+            while (top > 0) {
+                int m = stack[--top];
+                int y = stack[--top];
+                int x = stack[--top];
+
+                if (m < 0) {
+                    if (length == hops.length)
+                        hops = Arrays.copyOf(hops, 2 * length);
+                    hops[length++] = cityAt[y];
+                } else {
+                    if (top + 6 > stack.length)
+                        stack = Arrays.copyOf(stack, 2 * stack.length);
+                    // the second half is visited after the first one
+                    stack[top++] = m;
+                    stack[top++] = y;
+                    stack[top++] = middle(m, y);
+                    stack[top++] = x;
+                    stack[top++] = m;
+                    stack[top++] = middle(m, x);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package logist.topology;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * All-pairs shortest paths computed by one Dijkstra search per source city.
+ * The searches are independent and run in parallel on a fork/join pool.
+ *
+ * <p>
+ * The results are identical to those of the Floyd-Warshall algorithm in
+ * {@link Topology}: besides the distances, the <tt>parent</tt> table holds
+ * for each pair the intermediate city that Floyd-Warshall would have recorded,
+ * i.e. the smallest possible "largest city id" over all shortest paths, or
+ * <tt>-1</tt> if the direct route is a shortest path. This guarantee holds
+ * for routes of positive length.
+ *
+ * @author Robin Steiger
+ */
+class Dijkstra {
+
+    /** Number of sources handled by one fork/join task */
+    private static final int SOURCES_PER_TASK = 8;
+
+    private final int numC;
+    private final long noRoute;
+
+    // adjacency lists in compressed row format
+    final int[] first;
+    final int[] adjacent;
+    final long[] length;
+
+    /**
+     * Creates the search graph for undirected routes
+     * <tt>from[i] <--> to[i]</tt> of length <tt>distance[i]</tt>.
+     */
+    Dijkstra(int numC, int[] from, int[] to, long[] distance, long noRoute) {
+        this.numC = numC;
+        this.noRoute = noRoute;
+        this.first = new int[numC + 1];
+
+        int numR = from.length;
+        for (int r = 0; r < numR; r++) {
+            if (from[r] == to[r])
+                continue;
+            first[from[r] + 1]++;
+            first[to[r] + 1]++;
+        }
+        for (int i = 0; i < numC; i++)
+            first[i + 1] += first[i];
+
+        this.adjacent = new int[first[numC]];
+        this.length = new long[first[numC]];
+
+        int[] fill = Arrays.copyOf(first, numC);
+        for (int r = 0; r < numR; r++) {
+            if (from[r] == to[r])
+                continue;
+            adjacent[fill[from[r]]] = to[r];
+            length[fill[from[r]]++] = distance[r];
+            adjacent[fill[to[r]]] = from[r];
+            length[fill[to[r]]++] = distance[r];
+        }
+    }
+
+    /**
+     * Fills the row-major distance and parent tables for all sources.
+     */
+    void computeAll(long[] distance, int[] parent) {
+        ForkJoinPool.commonPool().invoke(
+                new SourceRange(null, distance, parent, 0, numC));
+    }
+
+    /**
+     * Recomputes the rows of the given sources only, leaving the other rows
+     * of the tables untouched.
+     */
+    void computeRows(int[] sources, long[] distance, int[] parent) {
+        ForkJoinPool.commonPool().invoke(
+                new SourceRange(sources, distance, parent, 0, sources.length));
+    }
+
+    /**
+     * Runs the search from a single source and writes its rows, which start
+     * at index <tt>source * numC</tt> of the row-major tables.
+     *
+     * @param heap
+     *            a workspace of size <tt>numC</tt>, may be reused
+     * @param position
+     *            a workspace of size <tt>numC</tt>, may be reused
+     */
+    void computeRow(int source, long[] dist, int[] parent, int[] heap,
+            int[] position) {
+        int row = source * numC;
+        Arrays.fill(dist, row, row + numC, noRoute);
+        Arrays.fill(parent, row, row + numC, -1);
+        Arrays.fill(position, -1);
+
+        dist[row + source] = 0L;
+        heap[0] = source;
+        position[source] = 0;
+        int size = 1;
+
+        while (size > 0) {
+            // pop the closest city
+            int u = heap[0];
+            position[u] = -2; // settled
+            if (--size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                siftDown(heap, position, dist, row, size, 0);
+            }
+
+            // the largest intermediate city on the way to u (inclusive)
+            int via = (u == source) ? -1 : Math.max(parent[row + u], u);
+
+            for (int e = first[u]; e < first[u + 1]; e++) {
+                int v = adjacent[e];
+                if (position[v] == -2)
+                    continue;
+
+                long sum = dist[row + u] + length[e];
+                if (sum < dist[row + v]) {
+                    dist[row + v] = sum;
+                    parent[row + v] = via;
+                    if (position[v] == -1) {
+                        heap[size] = v;
+                        position[v] = size;
+                        siftUp(heap, position, dist, row, size++);
+                    } else {
+                        siftUp(heap, position, dist, row, position[v]);
+                    }
+                } else if (sum == dist[row + v] && via < parent[row + v]) {
+                    // equally short, but Floyd-Warshall would find it first
+                    parent[row + v] = via;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a city that cannot be reached from a source, or <tt>-1</tt> if
+     * the graph is connected. Route lengths are ignored.
+     */
+    int firstUnreachable(int source) {
+        boolean[] seen = new boolean[numC];
+        int[] queue = new int[numC];
+        int head = 0, tail = 0;
+
+        seen[source] = true;
+        queue[tail++] = source;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int e = first[u]; e < first[u + 1]; e++) {
+                if (!seen[adjacent[e]]) {
+                    seen[adjacent[e]] = true;
+                    queue[tail++] = adjacent[e];
+                }
+            }
+        }
+
+        for (int i = 0; i < numC; i++)
+            if (!seen[i])
+                return i;
+        return -1;
+    }
+
+    private static void siftUp(int[] heap, int[] position, long[] key,
+            int row, int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (key[row + heap[p]] <= key[row + node])
+                break;
+            heap[i] = heap[p];
+            position[heap[i]] = i;
+            i = p;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+
+    private static void siftDown(int[] heap, int[] position, long[] key,
+            int row, int size, int i) {
+        int node = heap[i];
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= size)
+                break;
+            if (c + 1 < size && key[row + heap[c + 1]] < key[row + heap[c]])
+                c++;
+            if (key[row + node] <= key[row + heap[c]])
+                break;
+            heap[i] = heap[c];
+            position[heap[i]] = i;
+            i = c;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+
+    private class SourceRange extends RecursiveAction {
+        private static final long serialVersionUID = 4361259711187420634L;
+
+        private final int[] sources; // null for all cities
+        private final long[] distance;
+        private final int[] parent;
+        private final int lo, hi;
+
+        SourceRange(int[] sources, long[] distance, int[] parent, int lo,
+                int hi) {
+            this.sources = sources;
+            this.distance = distance;
+            this.parent = parent;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > SOURCES_PER_TASK) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new SourceRange(sources, distance, parent, lo, mid),
+                        new SourceRange(sources, distance, parent, mid, hi));
+                return;
+            }
+
+            int[] heap = new int[numC];
+            int[] position = new int[numC];
+            for (int i = lo; i < hi; i++)
+                computeRow((sources == null) ? i : sources[i], distance,
+                        parent, heap, position);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package logist.topology;
+
+import logist.topology.Topology.City;
+
+/**
+ * A callback for the cities on a shortest path, see
+ * {@link Topology#forEachHop(City, City, HopConsumer)}.
+ */
+public interface HopConsumer {
+
+    /**
+     * Called once for every city on the path, in the order of travel.
+     * 
+     * @param city
+     *            the next city on the path
+     */
+    void accept(City city);
+}
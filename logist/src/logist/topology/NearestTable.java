@@ -0,0 +1,131 @@
+package logist.topology;
+
+import java.util.Arrays;
+
+/**
+ * The nearest cities of each city by road distance. For each city the table
+ * holds the ids of the (up to) <tt>K</tt> closest other cities, sorted by
+ * increasing distance and then by id. Rows are computed on first use.
+ * <p>
+ * Rows are immutable once they are published, so the table can be read and
+ * filled concurrently without locking: racing threads compute the same row.
+ */
+class NearestTable {
+
+    /** The number of nearest cities stored per city */
+    static final int K = 32;
+
+    private final int numC;
+    private final int k;
+    private final long[] distance;
+    private final Row[] rows;
+
+    NearestTable(int numC, long[] distance) {
+        this.numC = numC;
+        this.k = Math.min(K, numC - 1);
+        this.distance = distance;
+        this.rows = new Row[numC];
+    }
+
+    /** The number of cities in each row */
+    int width() {
+        return k;
+    }
+
+    /**
+     * Returns the ids of the nearest cities from a city. The returned array is
+     * shared and must not be modified.
+     */
+    int[] row(int from) {
+        Row row = rows[from];
+        if (row == null) {
+            row = new Row(select(from, k));
+            rows[from] = row;
+        }
+        return row.ids;
+    }
+
+    /** Drops a row, it is recomputed on the next request */
+    void invalidate(int from) {
+        rows[from] = null;
+    }
+
+    void clear() {
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = null;
+    }
+
+    /**
+     * Returns the ids of the <tt>count</tt> nearest cities from a city, sorted
+     * by increasing distance and id. A bounded max-heap holds the candidates
+     * while the distance row is scanned once.
+     */
+    int[] select(int from, int count) {
+        int base = from * numC;
+        int[] heap = new int[count];
+        int size = 0;
+
+        for (int id = 0; id < numC; id++) {
+            if (id == from)
+                continue;
+            if (size < count) {
+                heap[size] = id;
+                siftUp(heap, base, size++);
+            } else if (count > 0 && before(base, id, heap[0])) {
+                heap[0] = id;
+                siftDown(heap, base, size, 0);
+            }
+        }
+
+        // pop the candidates from the farthest to the nearest
+        for (int end = size - 1; end > 0; end--) {
+            int top = heap[0];
+            heap[0] = heap[end];
+            heap[end] = top;
+            siftDown(heap, base, end, 0);
+        }
+        return (size == count) ? heap : Arrays.copyOf(heap, size);
+    }
+
+    // orders by distance, then by id
+    private boolean before(int base, int a, int b) {
+        long da = distance[base + a], db = distance[base + b];
+        return (da != db) ? da < db : a < b;
+    }
+
+    private void siftUp(int[] heap, int base, int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (!before(base, heap[p], node))
+                break;
+            heap[i] = heap[p];
+            i = p;
+        }
+        heap[i] = node;
+    }
+
+    private void siftDown(int[] heap, int base, int size, int i) {
+        int node = heap[i];
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= size)
+                break;
+            if (c + 1 < size && before(base, heap[c], heap[c + 1]))
+                c++;
+            if (!before(base, node, heap[c]))
+                break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = node;
+    }
+
+    private static class Row {
+        final int[] ids;
+
+        Row(int[] ids) {
+            this.ids = ids;
+        }
+    }
+}
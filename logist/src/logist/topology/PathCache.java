@@ -0,0 +1,67 @@
+package logist.topology;
+
+/**
+ * A bounded, direct-mapped cache of shortest paths. Each path is stored as
+ * the array of city ids after the first city, up to and including the last
+ * city.
+ * <p>
+ * Entries are immutable, so the cache can be read and filled concurrently
+ * without locking: a racing writer may evict another entry, but readers
+ * always see complete entries.
+ */
+class PathCache {
+
+    /** The maximal number of cached paths */
+    static final int MAX_CAPACITY = 1 << 16;
+
+    private final int numC;
+    private final int shift;
+    private final Entry[] slots;
+
+    PathCache(int numC) {
+        long pairs = (long) numC * numC;
+        int capacity = 1;
+        while (capacity < pairs && capacity < MAX_CAPACITY)
+            capacity <<= 1;
+
+        this.numC = numC;
+        this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        this.slots = new Entry[capacity];
+    }
+
+    /**
+     * Returns the cached hops from one city to another, or <tt>null</tt>.
+     */
+    int[] get(int from, int to) {
+        Entry entry = slots[slot(from, to)];
+        if (entry != null && entry.from == from && entry.to == to)
+            return entry.hops;
+        return null;
+    }
+
+    void put(int from, int to, int[] hops) {
+        slots[slot(from, to)] = new Entry(from, to, hops);
+    }
+
+    void clear() {
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = null;
+    }
+
+    private int slot(int from, int to) {
+        // Fibonacci hashing of the pair index
+        int key = from * numC + to;
+        return (shift == 32) ? 0 : (key * 0x9E3779B9) >>> shift;
+    }
+
+    private static class Entry {
+        final int from, to;
+        final int[] hops;
+
+        Entry(int from, int to, int[] hops) {
+            this.from = from;
+            this.to = to;
+            this.hops = hops;
+        }
+    }
+}
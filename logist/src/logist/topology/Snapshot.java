@@ -0,0 +1,198 @@
+package logist.topology;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import logist.topology.Topology.CityInfo;
+
+/**
+ * Reads and writes binary snapshots of a topology including its shortest
+ * paths.
+ * <p>
+ * A snapshot consists of a header with the cities and routes followed by the
+ * row-major distance and parent tables. The header starts with a magic
+ * number, the format version, the length of the header and the key of the
+ * snapshot. Snapshots are read through read-only memory mappings of the file.
+ */
+class Snapshot {
+
+    private static final int MAGIC = 0x4C475453; // "LGTS"
+    private static final int VERSION = 2;
+
+    /** The size of the preamble: magic, version and header length */
+    private static final int PREAMBLE = 16;
+
+    /** The largest region that is mapped or written at once */
+    private static final int CHUNK = 1 << 26;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Snapshot() {
+    }
+
+    static void write(Topology topology, File file, byte[] key)
+            throws IOException {
+
+        // encode the header
+        int numC = topology.numC;
+        int numR = topology.routeFrom.length;
+        byte[][] names = new byte[numC][];
+        int headerLength = PREAMBLE + 4 + key.length + 8 + 16 * numR;
+        for (int i = 0; i < numC; i++) {
+            names[i] = topology.cities[i].name.getBytes(UTF8);
+            headerLength += 12 + names[i].length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(headerLength);
+        header.putInt(key.length);
+        header.put(key);
+        header.putInt(numC);
+        header.putInt(numR);
+        for (int i = 0; i < numC; i++) {
+            header.putInt(names[i].length);
+            header.put(names[i]);
+            header.putInt(topology.cities[i].xPos);
+            header.putInt(topology.cities[i].yPos);
+        }
+        for (int r = 0; r < numR; r++) {
+            header.putInt(topology.routeFrom[r]);
+            header.putInt(topology.routeTo[r]);
+            header.putLong(topology.routeLength[r]);
+        }
+        header.flip();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0L);
+            writeFully(channel, header);
+
+            // write the tables in chunks
+            long tableBytes = 8L * topology.distance.length;
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(
+                    CHUNK, Math.max(tableBytes, 8L)));
+            long[] distance = topology.distance;
+            for (int off = 0, len; off < distance.length; off += len) {
+                len = Math.min(buffer.capacity() / 8, distance.length - off);
+                buffer.clear();
+                buffer.asLongBuffer().put(distance, off, len);
+                buffer.limit(len * 8);
+                writeFully(channel, buffer);
+            }
+            int[] parent = topology.parent;
+            for (int off = 0, len; off < parent.length; off += len) {
+                len = Math.min(buffer.capacity() / 4, parent.length - off);
+                buffer.clear();
+                buffer.asIntBuffer().put(parent, off, len);
+                buffer.limit(len * 4);
+                writeFully(channel, buffer);
+            }
+            channel.force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    static Topology read(File file, byte[] key) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < PREAMBLE)
+                return null;
+
+            // check the preamble
+            ByteBuffer preamble = channel.map(MapMode.READ_ONLY, 0L, PREAMBLE);
+            if (preamble.getInt() != MAGIC || preamble.getInt() != VERSION)
+                return null;
+            long headerLength = preamble.getLong();
+            if (headerLength < PREAMBLE || headerLength > size)
+                throw new IOException("Corrupt topology snapshot " + file);
+
+            // decode the header
+            ByteBuffer header = channel.map(MapMode.READ_ONLY, 0L,
+                    headerLength);
+            header.position(PREAMBLE);
+
+            byte[] actualKey = new byte[header.getInt()];
+            header.get(actualKey);
+            if (!Arrays.equals(key, actualKey))
+                return null;
+
+            int numC = header.getInt();
+            int numR = header.getInt();
+            List<CityInfo> infos = new ArrayList<CityInfo>(numC);
+            for (int i = 0; i < numC; i++) {
+                byte[] name = new byte[header.getInt()];
+                header.get(name);
+                int xPos = header.getInt();
+                int yPos = header.getInt();
+                infos.add(new CityInfo(new String(name, UTF8), xPos, yPos));
+            }
+
+            int[] from = new int[numR];
+            int[] to = new int[numR];
+            long[] length = new long[numR];
+            for (int r = 0; r < numR; r++) {
+                from[r] = header.getInt();
+                to[r] = header.getInt();
+                length[r] = header.getLong();
+            }
+
+            // map the tables
+            long expected = headerLength + 12L * numC * numC;
+            if (size != expected)
+                throw new IOException("Corrupt topology snapshot " + file
+                        + " (size " + size + ", expected " + expected + ")");
+
+            long[] distance = new long[Topology.tableSize(numC)];
+            int[] parent = new int[Topology.tableSize(numC)];
+
+            long position = headerLength;
+            for (int off = 0; off < distance.length; off += CHUNK / 8) {
+                int len = Math.min(CHUNK / 8, distance.length - off);
+                MappedByteBuffer region = channel.map(MapMode.READ_ONLY,
+                        position, len * 8L);
+                region.asLongBuffer().get(distance, off, len);
+                position += len * 8L;
+            }
+            for (int off = 0; off < parent.length; off += CHUNK / 4) {
+                int len = Math.min(CHUNK / 4, parent.length - off);
+                MappedByteBuffer region = channel.map(MapMode.READ_ONLY,
+                        position, len * 4L);
+                region.asIntBuffer().get(parent, off, len);
+                position += len * 4L;
+            }
+
+            return Topology.restore(infos, from, to, length, distance, parent);
+
+        } catch (BufferUnderflowException buEx) {
+            throw new IOException("Corrupt topology snapshot " + file, buEx);
+        } catch (IndexOutOfBoundsException ioobEx) {
+            throw new IOException("Corrupt topology snapshot " + file, ioobEx);
+        } catch (NegativeArraySizeException nasEx) {
+            throw new IOException("Corrupt topology snapshot " + file, nasEx);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
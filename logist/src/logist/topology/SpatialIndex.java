@@ -0,0 +1,120 @@
+package logist.topology;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import logist.topology.Topology.City;
+
+/**
+ * A static 2-d tree over the positions of the cities. The tree is stored
+ * implicitly: each range of the <tt>order</tt> array is split at its middle
+ * element, alternating between the x and the y axis.
+ */
+class SpatialIndex {
+
+    private final City[] order;
+
+    SpatialIndex(City[] cities) {
+        this.order = cities.clone();
+        build(0, order.length, true);
+    }
+
+    private void build(int lo, int hi, boolean byX) {
+        if (hi - lo <= 1)
+            return;
+
+        // a full sort of the range is simple and fast enough for a static tree
+        Arrays.sort(order, lo, hi, byX ? BY_X : BY_Y);
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid, !byX);
+        build(mid + 1, hi, !byX);
+    }
+
+    /**
+     * Returns the city closest to a position, or <tt>null</tt> if there are no
+     * cities.
+     */
+    City closest(int x, int y) {
+        Closest best = new Closest();
+        closest(0, order.length, true, x, y, best);
+        return best.city;
+    }
+
+    private void closest(int lo, int hi, boolean byX, int x, int y,
+            Closest best) {
+        if (lo >= hi)
+            return;
+
+        int mid = (lo + hi) >>> 1;
+        City city = order[mid];
+        long d2 = squared(city, x, y);
+        if (best.city == null || d2 < best.d2
+                || (d2 == best.d2 && city.id < best.city.id)) {
+            best.city = city;
+            best.d2 = d2;
+        }
+
+        long delta = byX ? (long) x - city.xPos : (long) y - city.yPos;
+        if (delta < 0) {
+            closest(lo, mid, !byX, x, y, best);
+            if (delta * delta <= best.d2)
+                closest(mid + 1, hi, !byX, x, y, best);
+        } else {
+            closest(mid + 1, hi, !byX, x, y, best);
+            if (delta * delta <= best.d2)
+                closest(lo, mid, !byX, x, y, best);
+        }
+    }
+
+    /**
+     * Adds all cities within a radius of a position to a list.
+     */
+    void within(int x, int y, double radius, List<City> result) {
+        within(0, order.length, true, x, y, radius, radius * radius, result);
+    }
+
+    private void within(int lo, int hi, boolean byX, int x, int y,
+            double radius, double r2, List<City> result) {
+        if (lo >= hi)
+            return;
+
+        int mid = (lo + hi) >>> 1;
+        City city = order[mid];
+        if (squared(city, x, y) <= r2)
+            result.add(city);
+
+        long delta = byX ? (long) x - city.xPos : (long) y - city.yPos;
+        if (delta <= radius)
+            within(lo, mid, !byX, x, y, radius, r2, result);
+        if (-delta <= radius)
+            within(mid + 1, hi, !byX, x, y, radius, r2, result);
+    }
+
+    private static long squared(City city, int x, int y) {
+        long dx = (long) city.xPos - x;
+        long dy = (long) city.yPos - y;
+        return dx * dx + dy * dy;
+    }
+
+    private static class Closest {
+        City city;
+        long d2;
+    }
+
+    private static final Comparator<City> BY_X = new Comparator<City>() {
+        @Override
+        public int compare(City a, City b) {
+            return (a.xPos != b.xPos) ? (a.xPos < b.xPos ? -1 : 1)
+                    : a.id - b.id;
+        }
+    };
+
+    private static final Comparator<City> BY_Y = new Comparator<City>() {
+        @Override
+        public int compare(City a, City b) {
+            return (a.yPos != b.yPos) ? (a.yPos < b.yPos ? -1 : 1)
+                    : a.id - b.id;
+        }
+    };
+}
@@ -1,15 +1,20 @@
 package logist.topology;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import logist.Measures;
 
@@ -27,6 +32,18 @@ import logist.Measures;
  * </pre>
  * 
  * <p>
+ * Distances are stored in a single row-major table, both in units and in
+ * kilometers, so the distance accessors of {@link City} are simple array
+ * lookups. Inner loops over the distances from one city can use the
+ * {@link DistanceRow} returned by {@link #distanceRow(City)}.
+ * 
+ * <p>
+ * The tables need 12 bytes per pair of cities. Very large topologies can
+ * instead be built with {@link PathAlgorithm#CONTRACTION_HIERARCHY}, which
+ * keeps no tables and answers each distance and path query with a short
+ * search in a precomputed hierarchy of shortcuts.
+ * 
+ * <p>
  * This class provides the following shortcut to iterate over all cities in the
  * topology:
  * 
@@ -38,87 +55,267 @@ import logist.Measures;
  * The lists returned by the <tt>cities</tt> and <tt>neighbors</tt> methods are
  * read-only and must be copied before they can be modified.
  * 
+ * <p>
+ * Shortest paths are kept in a bounded cache once they have been requested.
+ * Code that only needs to visit the cities on a path can use
+ * {@link #forEachHop(City, City, HopConsumer)}, which does not allocate once
+ * the path is cached.
+ * 
+ * <p>
+ * Candidate cities can be looked up without scanning the whole topology:
+ * {@link #nearest(City, int)} and {@link #withinDistance(City, double)} use a
+ * table of the nearest cities by road distance, while
+ * {@link #closestCity(int, int)} and {@link #citiesWithin(int, int, double)}
+ * search a spatial index over the city positions.
+ * 
+ * <p>
+ * Routes can be added, removed or reweighted after construction. Only the
+ * shortest paths from the cities that are affected by the change are
+ * recomputed, and registered {@link TopologyListener}s are told which pairs
+ * of cities changed. Changes must not run concurrently with other accesses to
+ * the topology.
+ * 
  * @author Robin Steiger
  */
 public class Topology implements Iterable<Topology.City> {
-    private static final long NO_ROUTE = Long.MAX_VALUE / 2;
+    static final long NO_ROUTE = Long.MAX_VALUE / 2;
+
+    /** The largest array length that all common VMs can allocate */
+    private static final int MAX_TABLE_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * The algorithm that computes the shortest paths between all pairs of
+     * cities. Both algorithms yield the same distances and paths.
+     */
+    public enum PathAlgorithm {
+        /** Floyd-Warshall, O(n^3), suitable for small or dense topologies */
+        FLOYD_WARSHALL,
+        /** One Dijkstra search per city in parallel, for sparse topologies */
+        DIJKSTRA,
+        /**
+         * No distance tables, queries are answered by a contraction
+         * hierarchy. For very large topologies; routes cannot be changed.
+         */
+        CONTRACTION_HIERARCHY;
+
+        /**
+         * Below this number of cities Floyd-Warshall is fast enough whatever
+         * the density of the route graph.
+         */
+        private static final int MIN_CITIES_FOR_DIJKSTRA = 64;
+
+        /**
+         * Above this number of cities the distance tables, 12 bytes per pair
+         * of cities, are too large.
+         */
+        private static final int MAX_CITIES_FOR_TABLES = 10000;
+
+        /**
+         * Selects an algorithm for a route graph: a contraction hierarchy for
+         * very large graphs, otherwise one Dijkstra search per city if the
+         * graph is sparse, i.e. if <tt>n</tt> searches in <tt>O(m log n)</tt>
+         * are cheaper than Floyd-Warshall in <tt>O(n^3)</tt>.
+         * 
+         * @param numCities
+         *            the number of cities
+         * @param numRoutes
+         *            the number of routes
+         */
+        public static PathAlgorithm forGraph(int numCities, int numRoutes) {
+            if (numCities > MAX_CITIES_FOR_TABLES)
+                return CONTRACTION_HIERARCHY;
+            if (numCities < MIN_CITIES_FOR_DIJKSTRA)
+                return FLOYD_WARSHALL;
+
+            double log = Math.log(numCities) / Math.log(2.0);
+            return (numRoutes * log < (double) numCities * numCities) ? DIJKSTRA
+                    : FLOYD_WARSHALL;
+        }
+    }
+
+    final int numC;
+    final City[] cities;
+    // replaced (not modified) when a route changes
+    int[] routeFrom;
+    int[] routeTo;
+    long[] routeLength;
+    final long[] distance;
+    final int[] parent;
 
-    private final int numC;
-    private final City[] cities;
-    private final long[][] distance;
-    private final int[][] parent;
+    private final int numWords;
+    private final double[] distanceKM;
+    private final long[] neighborBits;
+    private final DistanceRow[] rows;
+    private final PathCache pathCache;
+    private final NearestTable nearestTable;
+    private final SpatialIndex spatialIndex;
+    private final ContractionHierarchy hierarchy; // null if there are tables
 
     private final List<City> immutableCities;
+    private final List<List<City>> neighborsList;
     private final List<List<City>> immutableNeighbors;
+    private final List<TopologyListener> listeners = new CopyOnWriteArrayList<TopologyListener>();
 
     private static <T> List<T> readOnly(List<T> list) {
         return Collections.unmodifiableList(list);
     }
 
-    private Topology(List<CityInfo> infos, Set<Route> routes) {
+    // creates a topology and computes the shortest paths
+    private Topology(List<CityInfo> infos, int[] routeFrom, int[] routeTo,
+            long[] routeLength, PathAlgorithm algorithm) {
+        this(infos, routeFrom, routeTo, routeLength,
+                new long[tableSize(infos.size())],
+                new int[tableSize(infos.size())], null);
+
+        // initialize distances
+        Arrays.fill(distance, NO_ROUTE);
+        for (int i = 0; i < numC; ++i)
+            distance[i * numC + i] = 0L;
+
+        for (int r = 0; r < routeFrom.length; r++) {
+            distance[routeFrom[r] * numC + routeTo[r]] = routeLength[r];
+            distance[routeTo[r] * numC + routeFrom[r]] = routeLength[r];
+        }
+
+        // compute pairwise paths and distances
+        if (algorithm == PathAlgorithm.DIJKSTRA)
+            new Dijkstra(numC, routeFrom, routeTo, routeLength, NO_ROUTE)
+                    .computeAll(distance, parent);
+        else
+            computeShortestPaths();
+
+        // check whether topology is connected
+        for (int i = 0; i < numC; ++i) {
+            for (int j = 0; j < numC; ++j)
+                if (distance[i * numC + j] == NO_ROUTE)
+                    throw new TopologyException("There is no path from '"
+                            + cities[i] + "' to '" + cities[j] + "'");
+        }
+
+        computeKilometers();
+    }
+
+    /**
+     * Returns the length of a table with one entry per pair of cities. The
+     * indices <tt>from * numC + to</tt> of such a table fit in an int.
+     * 
+     * @throws TopologyException
+     *             if the table would exceed the maximal array length
+     */
+    static int tableSize(int numC) {
+        long size = (long) numC * numC;
+        if (size > MAX_TABLE_SIZE)
+            throw new TopologyException("Too many cities for distance tables ("
+                    + numC + "), use the contraction hierarchy");
+        return (int) size;
+    }
+
+    /**
+     * Creates a topology from precomputed shortest paths, see
+     * {@link Snapshot}. The routes must be given in the order in which they
+     * were added to the original topology.
+     */
+    static Topology restore(List<CityInfo> infos, int[] routeFrom,
+            int[] routeTo, long[] routeLength, long[] distance, int[] parent) {
+        Topology topology = new Topology(infos, routeFrom, routeTo,
+                routeLength, distance, parent, null);
+        topology.computeKilometers();
+        return topology;
+    }
+
+    // creates a topology without distance tables
+    private Topology(List<CityInfo> infos, int[] routeFrom, int[] routeTo,
+            long[] routeLength, ContractionHierarchy hierarchy) {
+        this(infos, routeFrom, routeTo, routeLength, null, null, hierarchy);
+        if (numC > 0)
+            checkConnected(hierarchy.graph);
+    }
+
+    // initializes cities and routes, but not the shortest paths
+    private Topology(List<CityInfo> infos, int[] routeFrom, int[] routeTo,
+            long[] routeLength, long[] distance, int[] parent,
+            ContractionHierarchy hierarchy) {
+        boolean tables = (hierarchy == null);
+
         this.numC = infos.size();
         this.cities = new City[numC];
-        this.distance = new long[numC][numC];
-        this.parent = new int[numC][numC];
+        this.routeFrom = routeFrom;
+        this.routeTo = routeTo;
+        this.routeLength = routeLength;
+        this.numWords = (numC + 63) >>> 6;
+        this.distance = distance;
+        this.distanceKM = tables ? new double[tableSize(numC)] : null;
+        this.parent = parent;
+        this.neighborBits = tables ? new long[numC * numWords] : null;
+        this.rows = new DistanceRow[numC];
+        this.pathCache = new PathCache(numC);
+        this.nearestTable = tables ? new NearestTable(numC, distance) : null;
+        this.hierarchy = hierarchy;
 
         this.immutableCities = readOnly(Arrays.asList(cities));
         this.immutableNeighbors = new ArrayList<List<City>>(numC);
 
         // initialize data structures
-        List<List<City>> neighborsList = new ArrayList<List<City>>(numC);
+        this.neighborsList = new ArrayList<List<City>>(numC);
         for (int i = 0; i < numC; ++i) {
             cities[i] = new City(i, infos.get(i));
+            rows[i] = new DistanceRow(i);
 
             List<City> neighbors = new ArrayList<City>();
             neighborsList.add(neighbors);
             immutableNeighbors.add(readOnly(neighbors));
-
-            for (int j = 0; j < numC; ++j)
-                distance[i][j] = NO_ROUTE;
-
-            distance[i][i] = 0L;
         }
 
         // create routes
-        for (Route route : routes) {
-            distance[route.from][route.to] = route.distance;
-            distance[route.to][route.from] = route.distance;
+        for (int r = 0; r < routeFrom.length; r++) {
+            int from = routeFrom[r], to = routeTo[r];
+            setNeighbor(from, to);
+            setNeighbor(to, from);
 
-            neighborsList.get(route.from).add(cities[route.to]);
-            neighborsList.get(route.to).add(cities[route.from]);
+            neighborsList.get(from).add(cities[to]);
+            neighborsList.get(to).add(cities[from]);
         }
 
-        // compute pairwise paths and distances
-        computeShortestPaths();
+        this.spatialIndex = new SpatialIndex(cities);
+    }
 
-        // check whether topology is connected
-        for (int i = 0; i < numC; ++i) {
-            for (int j = 0; j < numC; ++j)
-                if (distance[i][j] == NO_ROUTE)
-                    throw new TopologyException("There is no path from '"
-                            + cities[i] + "' to '" + cities[j] + "'");
-        }
+    // precompute the distances in kilometers
+    private void computeKilometers() {
+        for (int ij = 0; ij < distance.length; ++ij)
+            distanceKM[ij] = Measures.unitsToKM(distance[ij]);
+    }
+
+    private void setNeighbor(int from, int to) {
+        if (neighborBits != null)
+            neighborBits[from * numWords + (to >>> 6)] |= 1L << to;
+    }
+
+    private void clearNeighbor(int from, int to) {
+        neighborBits[from * numWords + (to >>> 6)] &= ~(1L << to);
     }
 
     // Floyd-Warshall all-pairs shortest-path algorithm
     private void computeShortestPaths() {
 
         // initialize parent
-        for (int i = 0; i < numC; ++i)
-            for (int j = 0; j < numC; ++j)
-                parent[i][j] = -1;
+        Arrays.fill(parent, -1);
 
         // compute shortest paths
-        for (int k = 0; k < numC; k++)
-            for (int i = 0; i < numC; i++)
+        for (int k = 0; k < numC; k++) {
+            int rowK = k * numC;
+            for (int i = 0; i < numC; i++) {
+                int rowI = i * numC;
+                long distIK = distance[rowI + k];
                 for (int j = 0; j < numC; j++) {
-                    long sum = distance[i][k] + distance[k][j];
-                    if (distance[i][j] > sum) {
-                        distance[i][j] = sum;
-                        parent[i][j] = k;
+                    long sum = distIK + distance[rowK + j];
+                    if (distance[rowI + j] > sum) {
+                        distance[rowI + j] = sum;
+                        parent[rowI + j] = k;
                     }
                 }
-        
+            }
+        }
+
         // test
 //		long max = 0;
 //		for (int i = 0; i < numC; ++i)
@@ -128,18 +325,82 @@ public class Topology implements Iterable<Topology.City> {
 //		System.out.println("Max distance " + max);
     }
 
-    private void buildPath(City a, City b, List<City> path) {
-        // if (a.id == b.id)
-        // throw new AssertionError("a = b");
+    /**
+     * Returns the ids of the cities on the shortest path from one city
+     * (excluding) to another (including). The returned array is shared and
+     * must not be modified.
+     */
+    private int[] hops(int from, int to) {
+        if (from == to)
+            return NO_HOPS;
+
+        int[] hops = pathCache.get(from, to);
+        if (hops == null) {
+            hops = (hierarchy == null) ? buildPath(from, to) : hierarchy.path(
+                    from, to);
+            pathCache.put(from, to, hops);
+        }
+        return hops;
+    }
+
+    private static final int[] NO_HOPS = new int[0];
+
+    // Iterative in-order walk of the parent table. The path a -> b is the
+    // path a -> k followed by the path k -> b, where k = parent[a][b], or
+    // just the route a -> b if there is no intermediate city.
+    private int[] buildPath(int from, int to) {
+        int[] stack = new int[16];
+        int[] path = new int[16];
+        int top = 0, length = 0;
 
-        int parent_ = parent[a.id][b.id];
+        stack[top++] = from;
+        stack[top++] = to;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            int k = parent[a * numC + b];
 
-        if (parent_ >= 0) {
-            City k = cities[parent_];
-            buildPath(a, k, path);
-            path.add(k);
-            buildPath(k, b, path);
+            if (k < 0) {
+                if (length == path.length)
+                    path = Arrays.copyOf(path, 2 * length);
+                path[length++] = b;
+            } else {
+                if (top + 4 > stack.length)
+                    stack = Arrays.copyOf(stack, 2 * stack.length);
+                // the second half is visited after the first one
+                stack[top++] = k;
+                stack[top++] = b;
+                stack[top++] = a;
+                stack[top++] = k;
+            }
         }
+        return Arrays.copyOf(path, length);
+    }
+
+    /**
+     * Visits the cities on the shortest path from one city to another. As in
+     * {@link City#pathTo(City)} the first city is excluded and the last city
+     * is included. No objects are allocated if the path is already cached.
+     * 
+     * @param from
+     *            the origin
+     * @param to
+     *            the destination
+     * @param consumer
+     *            the callback for each city on the path
+     */
+    public void forEachHop(City from, City to, HopConsumer consumer) {
+        int[] hops = hops(from.id, to.id);
+        for (int i = 0; i < hops.length; i++)
+            consumer.accept(cities[hops[i]]);
+    }
+
+    /**
+     * Returns the number of routes on the shortest path from one city to
+     * another.
+     */
+    public int numHops(City from, City to) {
+        return hops(from.id, to.id).length;
     }
 
     /**
@@ -187,6 +448,354 @@ public class Topology implements Iterable<Topology.City> {
         return cities[rnd.nextInt(cities.length)];
     }
 
+    /**
+     * Returns a read-only view of the distances from a city to all cities,
+     * indexed by city id.
+     * 
+     * @param from
+     *            the source city
+     */
+    public DistanceRow distanceRow(City from) {
+        return rows[from.id];
+    }
+
+    /**
+     * Returns the <tt>k</tt> cities closest to a city by road distance, sorted
+     * by increasing distance. Cities at the same distance are sorted by id.
+     * The city itself is not included. If the topology has fewer than
+     * <tt>k + 1</tt> cities, all other cities are returned.
+     * 
+     * @param from
+     *            the source city
+     * @param k
+     *            the number of cities
+     */
+    public List<City> nearest(City from, int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("Negative number of cities "
+                    + k);
+
+        int count = Math.min(k, numC - 1);
+        if (hierarchy != null) {
+            int[] ids = hierarchy.nearest(from.id, count, NO_ROUTE);
+            return toCities(ids, ids.length);
+        }
+
+        int[] ids = (count <= nearestTable.width()) ? nearestTable
+                .row(from.id) : nearestTable.select(from.id, count);
+        return toCities(ids, count);
+    }
+
+    /**
+     * Returns the cities whose road distance from a city is at most
+     * <tt>km</tt> kilometers, sorted by increasing distance and id. The city
+     * itself is not included.
+     * 
+     * @param from
+     *            the source city
+     * @param km
+     *            the maximal distance in kilometers
+     */
+    public List<City> withinDistance(City from, double km) {
+        if (hierarchy != null) {
+            int[] ids = hierarchy.nearest(from.id, numC, maxUnits(km));
+            return toCities(ids, ids.length);
+        }
+
+        int base = from.id * numC;
+        int[] ids = nearestTable.row(from.id);
+
+        // the table suffices unless its farthest city is still in range
+        int count = 0;
+        while (count < ids.length && distanceKM[base + ids[count]] <= km)
+            count++;
+        if (count < ids.length || ids.length == numC - 1)
+            return toCities(ids, count);
+
+        int total = 0;
+        for (int id = 0; id < numC; id++)
+            if (id != from.id && distanceKM[base + id] <= km)
+                total++;
+        return toCities(nearestTable.select(from.id, total), total);
+    }
+
+    // the largest distance in units that is at most km kilometers
+    private static long maxUnits(double km) {
+        if (!(km < Measures.unitsToKM(NO_ROUTE)))
+            return NO_ROUTE;
+
+        long units = Measures.kmToUnits(km);
+        while (units >= 0L && Measures.unitsToKM(units) > km)
+            units--;
+        while (Measures.unitsToKM(units + 1) <= km)
+            units++;
+        return units;
+    }
+
+    private List<City> toCities(int[] ids, int count) {
+        List<City> list = new ArrayList<City>(count);
+        for (int i = 0; i < count; i++)
+            list.add(cities[ids[i]]);
+        return list;
+    }
+
+    /**
+     * Returns the city closest to a position, for example to find the city
+     * under the mouse pointer. Ties are broken by the smaller id.
+     * 
+     * @param x
+     *            the horizontal position
+     * @param y
+     *            the vertical position
+     */
+    public City closestCity(int x, int y) {
+        return spatialIndex.closest(x, y);
+    }
+
+    /**
+     * Returns the cities within a radius of a position, sorted by increasing
+     * distance from the position and then by id.
+     * 
+     * @param x
+     *            the horizontal position
+     * @param y
+     *            the vertical position
+     * @param radius
+     *            the radius, in the same scale as the city positions
+     */
+    public List<City> citiesWithin(final int x, final int y, double radius) {
+        List<City> list = new ArrayList<City>();
+        spatialIndex.within(x, y, radius, list);
+        Collections.sort(list, new Comparator<City>() {
+            @Override
+            public int compare(City a, City b) {
+                long da = squared(a), db = squared(b);
+                return (da != db) ? (da < db ? -1 : 1) : a.id - b.id;
+            }
+
+            private long squared(City city) {
+                long dx = (long) city.xPos - x, dy = (long) city.yPos - y;
+                return dx * dx + dy * dy;
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Adds a route between two cities that are not yet neighbors.
+     * 
+     * @param from
+     *            one end of the route
+     * @param to
+     *            the other end of the route
+     * @param length
+     *            the length of the route in units, must be positive
+     * @throws TopologyException
+     *             if the cities are already neighbors
+     */
+    public synchronized void addRoute(City from, City to, long length) {
+        checkRoute(from, to, length);
+        if (findRoute(from.id, to.id) >= 0)
+            throw new TopologyException("Duplicate route '" + from
+                    + "' <--> '" + to + "'");
+
+        int numR = routeFrom.length;
+        int[] newFrom = Arrays.copyOf(routeFrom, numR + 1);
+        int[] newTo = Arrays.copyOf(routeTo, numR + 1);
+        long[] newLength = Arrays.copyOf(routeLength, numR + 1);
+        newFrom[numR] = from.id;
+        newTo[numR] = to.id;
+        newLength[numR] = length;
+
+        updateRoutes(TopologyChange.Kind.ADDED, from, to, NO_ROUTE, length,
+                newFrom, newTo, newLength);
+    }
+
+    /**
+     * Removes the route between two neighboring cities.
+     * 
+     * @param from
+     *            one end of the route
+     * @param to
+     *            the other end of the route
+     * @throws TopologyException
+     *             if there is no such route or if the topology would no
+     *             longer be connected; the topology is not modified then
+     */
+    public synchronized void removeRoute(City from, City to) {
+        checkRoute(from, to, 1L);
+        int r = findRoute(from.id, to.id);
+        if (r < 0)
+            throw new TopologyException("No route '" + from + "' <--> '" + to
+                    + "'");
+
+        int numR = routeFrom.length;
+        int[] newFrom = new int[numR - 1];
+        int[] newTo = new int[numR - 1];
+        long[] newLength = new long[numR - 1];
+        System.arraycopy(routeFrom, 0, newFrom, 0, r);
+        System.arraycopy(routeFrom, r + 1, newFrom, r, numR - r - 1);
+        System.arraycopy(routeTo, 0, newTo, 0, r);
+        System.arraycopy(routeTo, r + 1, newTo, r, numR - r - 1);
+        System.arraycopy(routeLength, 0, newLength, 0, r);
+        System.arraycopy(routeLength, r + 1, newLength, r, numR - r - 1);
+
+        checkConnected(new Dijkstra(numC, newFrom, newTo,
+                new long[newFrom.length], NO_ROUTE));
+        updateRoutes(TopologyChange.Kind.REMOVED, from, to, routeLength[r],
+                NO_ROUTE, newFrom, newTo, newLength);
+    }
+
+    /**
+     * Changes the length of the route between two neighboring cities.
+     * 
+     * @param from
+     *            one end of the route
+     * @param to
+     *            the other end of the route
+     * @param length
+     *            the new length of the route in units, must be positive
+     * @throws TopologyException
+     *             if there is no such route
+     */
+    public synchronized void setRouteLength(City from, City to, long length) {
+        checkRoute(from, to, length);
+        int r = findRoute(from.id, to.id);
+        if (r < 0)
+            throw new TopologyException("No route '" + from + "' <--> '" + to
+                    + "'");
+
+        long[] newLength = routeLength.clone();
+        newLength[r] = length;
+        updateRoutes(TopologyChange.Kind.REWEIGHTED, from, to,
+                routeLength[r], length, routeFrom, routeTo, newLength);
+    }
+
+    /**
+     * Registers a listener that is notified after each route change.
+     */
+    public void addTopologyListener(TopologyListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeTopologyListener(TopologyListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void checkRoute(City from, City to, long length) {
+        if (hierarchy != null)
+            throw new UnsupportedOperationException(
+                    "The routes of a contraction hierarchy cannot be changed");
+        if (!contains(from))
+            throw new TopologyException("Unknown city '" + from + "'");
+        if (!contains(to))
+            throw new TopologyException("Unknown city '" + to + "'");
+        if (from == to)
+            throw new TopologyException("Route from '" + from
+                    + "' to itself");
+        if (length <= 0L || length >= NO_ROUTE)
+            throw new TopologyException("Invalid route length " + length);
+    }
+
+    private int findRoute(int from, int to) {
+        for (int r = 0; r < routeFrom.length; r++)
+            if ((routeFrom[r] == from && routeTo[r] == to)
+                    || (routeFrom[r] == to && routeTo[r] == from))
+                return r;
+        return -1;
+    }
+
+    // breadth-first search from the first city over the given routes
+    private void checkConnected(Dijkstra graph) {
+        int unreached = graph.firstUnreachable(0);
+        if (unreached >= 0)
+            throw new TopologyException("There is no path from '" + cities[0]
+                    + "' to '" + cities[unreached] + "'");
+    }
+
+    /*
+     * Repairs the shortest paths after the length of the route u <--> v has
+     * changed from oldLength to newLength (NO_ROUTE if there is no route).
+     * Only the rows of the sources for which the route is or becomes part of
+     * a shortest path are recomputed. Since Dijkstra yields the same parents
+     * as Floyd-Warshall, the tables are identical to those of a topology that
+     * is built with the new routes.
+     */
+    private void updateRoutes(TopologyChange.Kind kind, City u, City v,
+            long oldLength, long newLength, int[] newFrom, int[] newTo,
+            long[] newLengths) {
+
+        // find the affected sources
+        int[] sources = new int[numC];
+        int numS = 0;
+        for (int s = 0; s < numC; s++) {
+            long du = distance[s * numC + u.id];
+            long dv = distance[s * numC + v.id];
+            boolean affected;
+            if (newLength < oldLength)
+                affected = du + newLength <= dv || dv + newLength <= du;
+            else
+                affected = du + oldLength == dv || dv + oldLength == du;
+            if (affected)
+                sources[numS++] = s;
+        }
+        sources = Arrays.copyOf(sources, numS);
+
+        // keep the old rows to find the changed pairs
+        long[] oldDistance = new long[numS * numC];
+        int[] oldParent = new int[numS * numC];
+        for (int i = 0; i < numS; i++) {
+            System.arraycopy(distance, sources[i] * numC, oldDistance, i
+                    * numC, numC);
+            System.arraycopy(parent, sources[i] * numC, oldParent, i * numC,
+                    numC);
+        }
+
+        new Dijkstra(numC, newFrom, newTo, newLengths, NO_ROUTE).computeRows(
+                sources, distance, parent);
+        this.routeFrom = newFrom;
+        this.routeTo = newTo;
+        this.routeLength = newLengths;
+
+        BitSet pairs = new BitSet(distance.length);
+        for (int i = 0; i < numS; i++) {
+            int row = sources[i] * numC;
+            boolean moved = false;
+            for (int j = 0; j < numC; j++) {
+                if (distance[row + j] != oldDistance[i * numC + j]) {
+                    distanceKM[row + j] = Measures
+                            .unitsToKM(distance[row + j]);
+                    moved = true;
+                    pairs.set(row + j);
+                } else if (parent[row + j] != oldParent[i * numC + j]) {
+                    pairs.set(row + j);
+                }
+            }
+            if (moved)
+                nearestTable.invalidate(sources[i]);
+        }
+        pathCache.clear();
+
+        // update the neighbors
+        if (kind == TopologyChange.Kind.ADDED) {
+            setNeighbor(u.id, v.id);
+            setNeighbor(v.id, u.id);
+            neighborsList.get(u.id).add(v);
+            neighborsList.get(v.id).add(u);
+        } else if (kind == TopologyChange.Kind.REMOVED) {
+            clearNeighbor(u.id, v.id);
+            clearNeighbor(v.id, u.id);
+            neighborsList.get(u.id).remove(v);
+            neighborsList.get(v.id).remove(u);
+        }
+
+        TopologyChange change = new TopologyChange(kind, u, v,
+                (oldLength == NO_ROUTE) ? -1L : oldLength,
+                (newLength == NO_ROUTE) ? -1L : newLength, numC, pairs);
+        for (TopologyListener listener : listeners)
+            listener.topologyChanged(change);
+    }
+
     /**
      * Checks whether a city is contained by this topology. For system use only.
      * 
@@ -215,8 +824,11 @@ public class Topology implements Iterable<Topology.City> {
         public final int yPos;
         public final String name;
 
+        private final int row;
+
         private City(int id, CityInfo cityInfo) {
             this.id = id;
+            this.row = id * numC;
             this.xPos = cityInfo.xPos;
             this.yPos = cityInfo.yPos;
             this.name = cityInfo.name;
@@ -258,7 +870,11 @@ public class Topology implements Iterable<Topology.City> {
          * @param city
          */
         public boolean hasNeighbor(City city) {
-            return neighbors().contains(city);
+            if (neighborBits == null)
+                return contains(city) && neighbors().contains(city);
+            return contains(city)
+                    && (neighborBits[id * numWords + (city.id >>> 6)]
+                            & (1L << city.id)) != 0;
         }
 
         /**
@@ -280,7 +896,9 @@ public class Topology implements Iterable<Topology.City> {
          * @see Measures
          */
         public long distanceUnitsTo(City to) {
-            return distance[id][to.id];
+            if (hierarchy != null)
+                return hierarchy.distance(id, to.id);
+            return distance[row + to.id];
         }
 
         /**
@@ -289,7 +907,9 @@ public class Topology implements Iterable<Topology.City> {
          * of the shortest path is returned.
          */
         public double distanceTo(City to) {
-            return Measures.unitsToKM(distance[id][to.id]);
+            if (hierarchy != null)
+                return Measures.unitsToKM(hierarchy.distance(id, to.id));
+            return distanceKM[row + to.id];
         }
 
         /**
@@ -304,12 +924,11 @@ public class Topology implements Iterable<Topology.City> {
          *            the destination
          */
         public List<City> pathTo(City to) {
-            List<City> path = new ArrayList<City>();
+            int[] hops = hops(id, to.id);
 
-            if (id != to.id) {
-                buildPath(this, to, path);
-                path.add(to);
-            }
+            List<City> path = new ArrayList<City>(hops.length);
+            for (int i = 0; i < hops.length; i++)
+                path.add(cities[hops[i]]);
             return path;
         }
 
@@ -329,8 +948,98 @@ public class Topology implements Iterable<Topology.City> {
         // }
     }
 
+    /**
+     * A read-only view of the distances from one city to all cities of the
+     * topology, indexed by city id. Without distance tables each lookup
+     * queries the contraction hierarchy.
+     */
+    public final class DistanceRow {
+        private final int from;
+        private final int row;
+
+        private DistanceRow(int from) {
+            this.from = from;
+            this.row = from * numC;
+        }
+
+        /** the number of cities in the topology */
+        public int size() {
+            return numC;
+        }
+
+        /**
+         * Returns the distance in 'units' to the city with the given id.
+         * 
+         * @see City#distanceUnitsTo(City)
+         */
+        public long unitsTo(int id) {
+            if (hierarchy != null)
+                return hierarchy.distance(from, id);
+            return distance[row + id];
+        }
+
+        /**
+         * Returns the distance in kilometers to the city with the given id.
+         * 
+         * @see City#distanceTo(City)
+         */
+        public double kmTo(int id) {
+            if (hierarchy != null)
+                return Measures.unitsToKM(hierarchy.distance(from, id));
+            return distanceKM[row + id];
+        }
+    }
+
+    /**
+     * Writes the cities, routes and shortest paths of this topology to a
+     * binary snapshot file. The key identifies the source of the topology
+     * (e.g. a content hash of the XML file) and is checked when the snapshot
+     * is read.
+     * 
+     * @param file
+     *            the snapshot file
+     * @param key
+     *            the key of the snapshot
+     * @throws IOException
+     *             if the file cannot be written
+     * @throws UnsupportedOperationException
+     *             if the topology has no distance tables
+     */
+    public void writeSnapshot(File file, byte[] key) throws IOException {
+        if (!hasDistanceTables())
+            throw new UnsupportedOperationException(
+                    "Only topologies with distance tables can be saved");
+        Snapshot.write(this, file, key);
+    }
+
+    /**
+     * Whether the shortest distances and paths are stored in tables, or
+     * computed on demand by a contraction hierarchy.
+     */
+    public boolean hasDistanceTables() {
+        return hierarchy == null;
+    }
+
+    /**
+     * Reads a topology from a snapshot file, mapping the file into memory
+     * instead of recomputing the shortest paths.
+     * 
+     * @param file
+     *            the snapshot file
+     * @param key
+     *            the expected key of the snapshot
+     * @return the topology, or <tt>null</tt> if the snapshot was written for
+     *         a different key or by an incompatible version
+     * @throws IOException
+     *             if the file cannot be read or is corrupt
+     */
+    public static Topology readSnapshot(File file, byte[] key)
+            throws IOException {
+        return Snapshot.read(file, key);
+    }
+
     /* Builder */
-    private static class CityInfo {
+    static class CityInfo {
         final String name;
         final int xPos, yPos;
 
@@ -356,13 +1065,15 @@ public class Topology implements Iterable<Topology.City> {
             if (!(o instanceof Route))
                 return false;
             Route r = (Route) o;
-            return (from == r.from && to == r.to)
-                    || (from == r.to && to == r.from);
+            return (from.equals(r.from) && to.equals(r.to))
+                    || (from.equals(r.to) && to.equals(r.from));
         }
 
         @Override
         public int hashCode() {
-            return from.hashCode() ^ to.hashCode();
+            // symmetric, and spreads routes between nearby ids
+            int a = Math.min(from, to), b = Math.max(from, to);
+            return (a * 0x9E3779B9) ^ b;
         }
     }
 
@@ -374,7 +1085,8 @@ public class Topology implements Iterable<Topology.City> {
     public static class Builder {
         private Map<String, Integer> idMap = new HashMap<String, Integer>();
         private List<CityInfo> infos = new ArrayList<CityInfo>();
-        private Set<Route> routes = new HashSet<Route>();
+        private Set<Route> routes = new LinkedHashSet<Route>();
+        private PathAlgorithm algorithm = PathAlgorithm.FLOYD_WARSHALL;
 
         public void addCity(String name, int xPos, int yPos) {
             if (idMap.containsKey(name))
@@ -398,8 +1110,32 @@ public class Topology implements Iterable<Topology.City> {
             routes.add(route);
         }
 
+        /**
+         * Selects the shortest-path algorithm, Floyd-Warshall by default.
+         */
+        public void setPathAlgorithm(PathAlgorithm algorithm) {
+            if (algorithm == null)
+                throw new NullPointerException("algorithm");
+            this.algorithm = algorithm;
+        }
+
         public Topology build() {
-            return new Topology(infos, routes);
+            int numR = routes.size();
+            int[] from = new int[numR];
+            int[] to = new int[numR];
+            long[] length = new long[numR];
+
+            int r = 0;
+            for (Route route : routes) {
+                from[r] = route.from;
+                to[r] = route.to;
+                length[r++] = route.distance;
+            }
+            if (algorithm == PathAlgorithm.CONTRACTION_HIERARCHY)
+                return new Topology(infos, from, to, length,
+                        new ContractionHierarchy(infos.size(), from, to,
+                                length));
+            return new Topology(infos, from, to, length, algorithm);
         }
     }
 
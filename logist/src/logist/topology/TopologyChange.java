@@ -0,0 +1,82 @@
+package logist.topology;
+
+import java.util.BitSet;
+
+import logist.topology.Topology.City;
+
+/**
+ * Describes a change of a single route of a {@link Topology} together with
+ * the pairs of cities whose shortest distance or shortest path changed as a
+ * consequence.
+ * 
+ * <p>
+ * Code that caches distances or paths only needs to invalidate the entries
+ * for which {@link #isChanged(City, City)} holds.
+ */
+public final class TopologyChange {
+
+    /** The kind of change */
+    public enum Kind {
+        ADDED, REMOVED, REWEIGHTED
+    }
+
+    /** The kind of change */
+    public final Kind kind;
+
+    /** One end of the route */
+    public final City from;
+
+    /** The other end of the route */
+    public final City to;
+
+    /** The previous length of the route, or -1 if it was added */
+    public final long oldLength;
+
+    /** The new length of the route, or -1 if it was removed */
+    public final long newLength;
+
+    private final int numC;
+    private final BitSet pairs;
+
+    TopologyChange(Kind kind, City from, City to, long oldLength,
+            long newLength, int numC, BitSet pairs) {
+        this.kind = kind;
+        this.from = from;
+        this.to = to;
+        this.oldLength = oldLength;
+        this.newLength = newLength;
+        this.numC = numC;
+        this.pairs = pairs;
+    }
+
+    /**
+     * Whether the shortest distance or the shortest path from one city to
+     * another has changed.
+     */
+    public boolean isChanged(City source, City destination) {
+        return pairs.get(source.id * numC + destination.id);
+    }
+
+    /**
+     * Whether any shortest distance or path from a city has changed.
+     */
+    public boolean isChanged(City source) {
+        int row = source.id * numC;
+        int next = pairs.nextSetBit(row);
+        return next >= 0 && next < row + numC;
+    }
+
+    /**
+     * The number of (ordered) pairs of cities whose shortest distance or path
+     * has changed.
+     */
+    public int numChangedPairs() {
+        return pairs.cardinality();
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + from + " <--> " + to + " (" + numChangedPairs()
+                + " pairs changed)";
+    }
+}
@@ -0,0 +1,498 @@
+package logist.topology;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import logist.Measures;
+import logist.history.XMLWriter;
+import logist.topology.Topology.Builder;
+import logist.topology.Topology.PathAlgorithm;
+
+/**
+ * Generates synthetic, connected road networks of any size for scaling tests.
+ * The same shape, number of cities and seed always yield the same network.
+ *
+ * <p>
+ * A network can be built in memory with {@link #generate()} or written to a
+ * topology file with {@link #write(File)}. Route lengths are rounded to a
+ * tenth of a kilometer, so that a written and parsed topology is identical to
+ * the generated one.
+ *
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * Topology topology = new TopologyGenerator(Shape.GRID, 10000, 42L).generate();
+ * </pre>
+ */
+public class TopologyGenerator {
+
+    /**
+     * The layout of a generated network
+     */
+    public enum Shape {
+        /** A square lattice with routes between horizontal and vertical neighbors */
+        GRID,
+        /** Uniformly placed cities with routes between cities that are close */
+        RANDOM_GEOMETRIC,
+        /** Preferential attachment: a few hubs with many routes */
+        SCALE_FREE
+    }
+
+    /** The distance between neighboring cities of a grid, in kilometers */
+    private static final int SPACING = 10;
+
+    /** The expected number of routes per city of a random geometric network */
+    private static final double MEAN_DEGREE = 6.0;
+
+    /** The number of routes of each new city of a scale-free network */
+    private static final int ATTACHMENTS = 2;
+
+    /** The number of close cities that a new city may be linked to */
+    private static final int CANDIDATES = 8;
+
+    /** Routes are up to this factor longer than the straight line */
+    private static final double MAX_DETOUR = 1.3;
+
+    private final Shape shape;
+    private final int numCities;
+    private final long seed;
+    private final Random random;
+
+    // the cities and routes, route lengths in tenths of a kilometer
+    private final int[] xPos;
+    private final int[] yPos;
+    private int numRoutes;
+    private int[] routeFrom = new int[16];
+    private int[] routeTo = new int[16];
+    private long[] routeTenths = new long[16];
+
+    /**
+     * Generates a network.
+     *
+     * @param shape
+     *            the layout of the network
+     * @param numCities
+     *            the number of cities, at least two
+     * @param seed
+     *            the seed of the random number generator
+     */
+    public TopologyGenerator(Shape shape, int numCities, long seed) {
+        if (numCities < 2)
+            throw new IllegalArgumentException("Invalid number of cities "
+                    + numCities);
+
+        this.shape = shape;
+        this.numCities = numCities;
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.xPos = new int[numCities];
+        this.yPos = new int[numCities];
+
+        switch (shape) {
+        case GRID:
+            generateGrid();
+            break;
+        case RANDOM_GEOMETRIC:
+            generateRandomGeometric();
+            break;
+        case SCALE_FREE:
+            generateScaleFree();
+            break;
+        }
+    }
+
+    /** The name of the generated topology, e.g. <tt>grid-1000-42</tt> */
+    public String name() {
+        return shape.name().toLowerCase().replace('_', '-') + "-" + numCities
+                + "-" + seed;
+    }
+
+    /** The number of routes of the generated network */
+    public int numRoutes() {
+        return numRoutes;
+    }
+
+    /**
+     * Returns a builder that contains the cities and routes of the network.
+     * The shortest-path algorithm is preset as for a topology file, see
+     * {@link PathAlgorithm#forGraph(int, int)}.
+     */
+    public Builder builder() {
+        Builder builder = new Builder();
+        for (int i = 0; i < numCities; i++)
+            builder.addCity(cityName(i), xPos[i], yPos[i]);
+        for (int r = 0; r < numRoutes; r++)
+            builder.addRoute(cityName(routeFrom[r]), cityName(routeTo[r]),
+                    toUnits(routeTenths[r]));
+        builder.setPathAlgorithm(PathAlgorithm.forGraph(numCities, numRoutes));
+        return builder;
+    }
+
+    /**
+     * Builds the topology of the network.
+     */
+    public Topology generate() {
+        return builder().build();
+    }
+
+    /**
+     * Writes the network to a topology file.
+     *
+     * @param file
+     *            the topology file
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "ISO-8859-1"));
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the network in the topology file format. The writer is closed.
+     */
+    public void write(Writer writer) {
+        XMLWriter xml = new XMLWriter(writer);
+        xml.writeTag("topology");
+        xml.writeAttribute("name", name());
+
+        xml.writeTag("cities");
+        for (int i = 0; i < numCities; i++) {
+            xml.writeTag("city");
+            xml.writeAttribute("name", cityName(i));
+            xml.writeAttribute("x", xPos[i]);
+            xml.writeAttribute("y", yPos[i]);
+            xml.endTag();
+        }
+        xml.endTag();
+
+        xml.writeTag("routes");
+        for (int r = 0; r < numRoutes; r++) {
+            xml.writeTag("route");
+            xml.writeAttribute("from", cityName(routeFrom[r]));
+            xml.writeAttribute("to", cityName(routeTo[r]));
+            xml.writeAttribute("distance", routeTenths[r] / 10 + "."
+                    + routeTenths[r] % 10);
+            xml.endTag();
+        }
+        xml.endTag();
+
+        xml.endTag();
+        xml.close();
+    }
+
+    private static String cityName(int id) {
+        return "City" + id;
+    }
+
+    // converts like the topology parser does
+    private static long toUnits(long tenths) {
+        return (long) (tenths / 10.0 * Measures.DISTANCE_UNITS_PER_KM);
+    }
+
+    private void addRoute(int from, int to) {
+        if (numRoutes == routeFrom.length) {
+            routeFrom = Arrays.copyOf(routeFrom, 2 * numRoutes);
+            routeTo = Arrays.copyOf(routeTo, 2 * numRoutes);
+            routeTenths = Arrays.copyOf(routeTenths, 2 * numRoutes);
+        }
+
+        // the straight line with a random detour, at least 100 meters
+        double dx = xPos[from] - xPos[to], dy = yPos[from] - yPos[to];
+        double km = Math.sqrt(dx * dx + dy * dy)
+                * (1.0 + random.nextDouble() * (MAX_DETOUR - 1.0));
+
+        routeFrom[numRoutes] = from;
+        routeTo[numRoutes] = to;
+        routeTenths[numRoutes++] = Math.max(1L, Math.round(km * 10.0));
+    }
+
+    private void generateGrid() {
+        int side = (int) Math.ceil(Math.sqrt(numCities));
+        for (int i = 0; i < numCities; i++) {
+            xPos[i] = (i % side) * SPACING;
+            yPos[i] = (i / side) * SPACING;
+        }
+        for (int i = 0; i < numCities; i++) {
+            if (i % side + 1 < side && i + 1 < numCities)
+                addRoute(i, i + 1);
+            if (i + side < numCities)
+                addRoute(i, i + side);
+        }
+    }
+
+    // cities on a square with the same density as the grid
+    private void placeRandomly() {
+        int size = (int) Math.ceil(Math.sqrt(numCities) * SPACING);
+        for (int i = 0; i < numCities; i++) {
+            xPos[i] = random.nextInt(size);
+            yPos[i] = random.nextInt(size);
+        }
+    }
+
+    private void generateRandomGeometric() {
+        placeRandomly();
+        double radius = SPACING * Math.sqrt(MEAN_DEGREE / Math.PI);
+        Buckets buckets = new Buckets((int) Math.ceil(radius));
+
+        // routes between all cities within the radius
+        for (int i = 0; i < numCities; i++) {
+            int cx = buckets.column(i), cy = buckets.row(i);
+            for (int y = Math.max(0, cy - 1); y <= Math.min(buckets.rows - 1,
+                    cy + 1); y++) {
+                for (int x = Math.max(0, cx - 1); x <= Math.min(
+                        buckets.columns - 1, cx + 1); x++) {
+                    int cell = y * buckets.columns + x;
+                    for (int k = buckets.first[cell]; k < buckets.first[cell + 1]; k++) {
+                        int j = buckets.cities[k];
+                        if (j > i && distance2(i, j) <= radius * radius)
+                            addRoute(i, j);
+                    }
+                }
+            }
+        }
+
+        connectComponents(buckets);
+    }
+
+    /*
+     * Links each component that is not connected to the first city with its
+     * closest city in another component. Every pass at least halves the
+     * number of components.
+     */
+    private void connectComponents(Buckets buckets) {
+        int[] set = new int[numCities];
+        for (int i = 0; i < numCities; i++)
+            set[i] = i;
+        for (int r = 0; r < numRoutes; r++)
+            union(set, routeFrom[r], routeTo[r]);
+
+        boolean[] linked = new boolean[numCities];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] root = new int[numCities];
+            for (int i = 0; i < numCities; i++)
+                root[i] = find(set, i);
+
+            Arrays.fill(linked, false);
+            for (int i = 0; i < numCities; i++) {
+                if (root[i] == root[0] || linked[root[i]])
+                    continue;
+
+                int j = buckets.closestOutside(i, set);
+                addRoute(i, j);
+                union(set, i, j);
+                linked[root[i]] = true;
+                changed = true;
+            }
+        }
+    }
+
+    private static int find(int[] set, int i) {
+        while (set[i] != i)
+            i = set[i] = set[set[i]];
+        return i;
+    }
+
+    private static void union(int[] set, int i, int j) {
+        set[find(set, i)] = find(set, j);
+    }
+
+    private long distance2(int i, int j) {
+        long dx = xPos[i] - xPos[j], dy = yPos[i] - yPos[j];
+        return dx * dx + dy * dy;
+    }
+
+    /*
+     * Preferential attachment with locality: each new city is linked to
+     * ATTACHMENTS of the CANDIDATES closest earlier cities, chosen with a
+     * probability proportional to their number of routes plus one. Early
+     * cities become hubs with long routes, like highways between big cities.
+     */
+    private void generateScaleFree() {
+        placeRandomly();
+        Buckets buckets = new Buckets(SPACING);
+        int[] degree = new int[numCities];
+        int[] candidates = new int[CANDIDATES];
+        int[] targets = new int[ATTACHMENTS];
+
+        for (int i = 1; i < numCities; i++) {
+            int numCandidates = buckets.closestBefore(i, candidates);
+            int total = 0;
+            for (int c = 0; c < numCandidates; c++)
+                total += degree[candidates[c]] + 1;
+
+            int k = Math.min(numCandidates, ATTACHMENTS);
+            for (int t = 0; t < k; t++) {
+                // roulette wheel selection without replacement
+                int pick = random.nextInt(total);
+                int c = 0;
+                while (pick > degree[candidates[c]]) {
+                    pick -= degree[candidates[c]] + 1;
+                    c++;
+                }
+                targets[t] = candidates[c];
+                total -= degree[candidates[c]] + 1;
+                candidates[c] = candidates[--numCandidates];
+            }
+
+            for (int t = 0; t < k; t++) {
+                addRoute(i, targets[t]);
+                degree[i]++;
+                degree[targets[t]]++;
+            }
+        }
+    }
+
+    /*
+     * A uniform grid of square cells over the cities, for neighborhood
+     * searches.
+     */
+    private class Buckets {
+        final int size;
+        final int columns, rows;
+        final int[] first; // the cities of cell c are cities[first[c]..first[c+1])
+        final int[] cities;
+
+        Buckets(int size) {
+            int maxX = 0, maxY = 0;
+            for (int i = 0; i < numCities; i++) {
+                maxX = Math.max(maxX, xPos[i]);
+                maxY = Math.max(maxY, yPos[i]);
+            }
+            this.size = Math.max(1, size);
+            this.columns = maxX / this.size + 1;
+            this.rows = maxY / this.size + 1;
+            this.first = new int[columns * rows + 1];
+            this.cities = new int[numCities];
+
+            for (int i = 0; i < numCities; i++)
+                first[cell(i) + 1]++;
+            for (int c = 0; c < columns * rows; c++)
+                first[c + 1] += first[c];
+            int[] fill = Arrays.copyOf(first, columns * rows);
+            for (int i = 0; i < numCities; i++)
+                cities[fill[cell(i)]++] = i;
+        }
+
+        int column(int i) {
+            return xPos[i] / size;
+        }
+
+        int row(int i) {
+            return yPos[i] / size;
+        }
+
+        int cell(int i) {
+            return row(i) * columns + column(i);
+        }
+
+        /**
+         * Fills an array with the cities closest to city i among the cities
+         * with a smaller id, closest first, and returns their number.
+         */
+        int closestBefore(int i, int[] closest) {
+            int cx = column(i), cy = row(i);
+            int found = 0;
+            long[] closestD2 = new long[closest.length];
+
+            for (int ring = 0; ring <= Math.max(columns, rows); ring++) {
+                for (int y = cy - ring; y <= cy + ring; y++) {
+                    if (y < 0 || y >= rows)
+                        continue;
+                    int step = (y == cy - ring || y == cy + ring) ? 1
+                            : 2 * ring;
+                    for (int x = cx - ring; x <= cx + ring; x += Math.max(1,
+                            step)) {
+                        if (x < 0 || x >= columns)
+                            continue;
+                        int c = y * columns + x;
+                        for (int k = first[c]; k < first[c + 1]; k++) {
+                            int j = cities[k];
+                            if (j >= i)
+                                continue;
+
+                            // insertion into the sorted array
+                            long d2 = distance2(i, j);
+                            int pos = found;
+                            while (pos > 0
+                                    && (closestD2[pos - 1] > d2 || (closestD2[pos - 1] == d2 && closest[pos - 1] > j)))
+                                pos--;
+                            if (pos == closest.length)
+                                continue;
+                            int last = Math.min(found, closest.length - 1);
+                            System.arraycopy(closest, pos, closest, pos + 1,
+                                    last - pos);
+                            System.arraycopy(closestD2, pos, closestD2,
+                                    pos + 1, last - pos);
+                            closest[pos] = j;
+                            closestD2[pos] = d2;
+                            found = Math.min(found + 1, closest.length);
+                        }
+                    }
+                }
+
+                long reach = (long) ring * size;
+                if (found == closest.length
+                        && closestD2[found - 1] <= reach * reach)
+                    break;
+            }
+            return found;
+        }
+
+        /**
+         * Returns the city closest to city i that is not in the same set.
+         * Searches rings of cells around the cell of i until no closer city
+         * can be found.
+         */
+        int closestOutside(int i, int[] set) {
+            int own = find(set, i);
+            int cx = column(i), cy = row(i);
+            int best = -1;
+            long bestD2 = Long.MAX_VALUE;
+
+            for (int ring = 0; ring <= Math.max(columns, rows); ring++) {
+                for (int y = cy - ring; y <= cy + ring; y++) {
+                    if (y < 0 || y >= rows)
+                        continue;
+                    // the inner cells of the ring were searched before
+                    int step = (y == cy - ring || y == cy + ring) ? 1
+                            : 2 * ring;
+                    for (int x = cx - ring; x <= cx + ring; x += Math.max(1,
+                            step)) {
+                        if (x < 0 || x >= columns)
+                            continue;
+                        int c = y * columns + x;
+                        for (int k = first[c]; k < first[c + 1]; k++) {
+                            int j = cities[k];
+                            long d2 = distance2(i, j);
+                            if (d2 < bestD2 && find(set, j) != own) {
+                                best = j;
+                                bestD2 = d2;
+                            }
+                        }
+                    }
+                }
+
+                // all cells of the next ring are at least ring * size away
+                long reach = (long) ring * size;
+                if (best >= 0 && bestD2 <= reach * reach)
+                    break;
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package logist.topology;
+
+/**
+ * A callback for changes to the routes of a topology, see
+ * {@link Topology#addTopologyListener(TopologyListener)}.
+ */
+public interface TopologyListener {
+
+    /**
+     * Called after a route has been added, removed or reweighted and the
+     * shortest paths have been repaired.
+     * 
+     * @param change
+     *            the route that changed and the affected pairs of cities
+     */
+    void topologyChanged(TopologyChange change);
+}